@@ -3,6 +3,7 @@ package ika.geo;
 import com.jhlabs.map.proj.ProjectionException;
 import com.jhlabs.map.MapMath;
 import com.jhlabs.map.proj.Projection;
+import ika.proj.DesignProjection;
 import ika.utils.GeometryUtils;
 import java.awt.geom.Point2D;
 
@@ -38,6 +39,27 @@ public class FeatureProjector {
     protected double curveTolerance = 5000;
     protected boolean addIntermediatePointsAlongCurves;
 
+    /**
+     * Longitude and latitude in degrees of the vertices of the current path,
+     * which have been projected by projectVertices().
+     */
+    private double[] vertexLon, vertexLat;
+
+    /**
+     * The projected vertices of the current path.
+     */
+    private double[] vertexX, vertexY;
+
+    /**
+     * The number of projected vertices of the current path.
+     */
+    private int vertexCount = 0;
+
+    /**
+     * The projected vertex that is expected to be requested next.
+     */
+    private int nextVertex = 0;
+
     public FeatureProjector(Projection projection, double curveTolerance,
             boolean addIntermediatePointsAlongCurves) {
         this.projection = projection;
@@ -98,22 +120,127 @@ public class FeatureProjector {
         }
     }
 
+    /**
+     * Projects the vertices of a path with a single call to
+     * DesignProjection.projectArray(), which does not allocate an object per
+     * point. projectPoint() and moveTo() use the projected vertices when they
+     * are passed the vertices in the order of the path. Other points, such as
+     * intersections with the border of the graticule or intermediate points
+     * along curves, are projected individually. The projected coordinates are
+     * the projected coordinates on the unary sphere scaled by the equatorial
+     * radius, as for ProjectedMesh. Vertices are not projected in advance for
+     * projections that are not design projections.
+     * @param geoPath The path that will be projected next.
+     */
+    protected void projectVertices(GeoPath geoPath) {
+        vertexCount = 0;
+        nextVertex = 0;
+        if (!(projection instanceof DesignProjection)) {
+            return;
+        }
+
+        final int n = geoPath.getPointsCount();
+        if (vertexLon == null || vertexLon.length < n) {
+            vertexLon = new double[n];
+            vertexLat = new double[n];
+            vertexX = new double[n];
+            vertexY = new double[n];
+        }
+        
+        // longitude relative to the central meridian and latitude in radians,
+        // as converted by Projection.transform()
+        final double lon0 = projection.getProjectionLongitude();
+        GeoPathIterator iterator = geoPath.getIterator();
+        do {
+            final int inst = iterator.getInstruction();
+            if (inst == GeoPathModel.MOVETO || inst == GeoPathModel.LINETO) {
+                final double lon = iterator.getX();
+                final double lat = iterator.getY();
+                vertexLon[vertexCount] = lon;
+                vertexLat[vertexCount] = lat;
+                double lam = lon * MapMath.DTR;
+                if (lon0 != 0) {
+                    lam = MapMath.normalizeLongitude(lam - lon0);
+                }
+                vertexX[vertexCount] = lam;
+                vertexY[vertexCount] = lat * MapMath.DTR;
+                ++vertexCount;
+            }
+        } while (iterator.next());
+
+        ((DesignProjection) projection).projectArray(vertexX, vertexY,
+                vertexX, vertexY, 0, vertexCount);
+        final double r = projection.getEquatorRadius();
+        for (int i = 0; i < vertexCount; i++) {
+            vertexX[i] *= r;
+            vertexY[i] *= r;
+        }
+    }
+
+    /**
+     * Returns the index of a vertex projected by projectVertices(). Only the
+     * vertex following the previously requested vertex, and the one after
+     * it are tested, which skips vertices that were not projected, for
+     * example duplicate points.
+     * @param lon Longitude in degrees.
+     * @param lat Latitude in degrees.
+     * @return The index of the projected vertex, or -1 if the point has to be
+     * projected individually.
+     */
+    private int projectedVertex(double lon, double lat) {
+        for (int i = nextVertex; i < vertexCount && i <= nextVertex + 1; i++) {
+            if (vertexLon[i] == lon && vertexLat[i] == lat) {
+                nextVertex = i + 1;
+                return i;
+            }
+        }
+        return -1;
+    }
+
     protected void projectMoveTo(double x, double y, GeoPathModel projPath) {
+        moveTo(x, y, projPath);
+    }
+
+    /**
+     * Projects a point and appends a moveto instruction to a path.
+     * @param lon Longitude in degrees.
+     * @param lat Latitude in degrees.
+     * @param projPath The path that receives the projected point.
+     * @return False if the point cannot be projected.
+     */
+    protected boolean moveTo(double lon, double lat, GeoPathModel projPath) {
+        final int i = projectedVertex(lon, lat);
+        if (i >= 0) {
+            if (Double.isNaN(vertexX[i]) || Double.isNaN(vertexY[i])) {
+                return false;
+            }
+            projPath.moveTo(vertexX[i], vertexY[i]);
+            return true;
+        }
 
         // project the point
         Point2D.Double dst = new Point2D.Double();
         try {
-            projection.transform(x, y, dst);
+            projection.transform(lon, lat, dst);
         } catch (ProjectionException exc) {
-            return;
+            return false;
         }
         if (Double.isNaN(dst.x) || Double.isNaN(dst.y)) {
-            return;
+            return false;
         }
         projPath.moveTo(dst.x, dst.y);
+        return true;
     }
 
     protected Point2D projectPoint(double lon, double lat) {
+        final int i = projectedVertex(lon, lat);
+        if (i >= 0) {
+            if (Double.isNaN(vertexX[i]) || Double.isNaN(vertexY[i])) {
+                return null;
+            }
+            return new Point2D.Double(vertexX[i], vertexY[i]);
+        }
+
         // project the point
         Point2D.Double dst = new Point2D.Double();
         try {
@@ -62,6 +62,20 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
     private final GeoGrid flexAreaGrid;
     private final GeoGrid secondAngleGrid;
     private final GeoGrid secondAreaGrid;
+    /**
+     * The modification count of the design projection for which flexAreaGrid
+     * and flexAngleGrid were last filled.
+     */
+    private long flexGridsModificationCount = -1;
+    /**
+     * The outline of the last design projection passed to constructOutline,
+     * its modification count and sphere radius. Access is synchronized on
+     * outlineCacheLock.
+     */
+    private static final Object outlineCacheLock = new Object();
+    private static GeoPath outlineCache;
+    private static long outlineCacheModificationCount = -1;
+    private static double outlineCacheRadius;
 
     /**
      * Class modeling the display settings
@@ -431,7 +445,9 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
                     ProjectionDistortionParameters p;
                     p = displayModel.getDistortionParameters(designProjection);
                     GeoImage img = p.computeAcceptanceImage(displayModel.qModel);
-                    flexGeoSet.add(img);
+                    if (img != null) {
+                        flexGeoSet.add(img);
+                    }
                 }
 
                 // copy and project unprojected coastlines
@@ -493,7 +509,9 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
                     ProjectionDistortionParameters p;
                     p = displayModel.getDistortionParameters(displayModel.projection);
                     GeoImage img = p.computeAcceptanceImage(displayModel.qModel);
-                    projGeoSet.add(img);
+                    if (img != null) {
+                        projGeoSet.add(img);
+                    }
                 }
 
                 // copy and project unprojected data
@@ -622,6 +640,20 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
      */
     public static GeoPath constructOutline(Projection projection) {
 
+        // the outline is constructed several times for each change to the
+        // design projection. Return a copy of the cached outline if possible.
+        final long count = projection instanceof DesignProjection
+                ? ((DesignProjection) projection).getModificationCount() : -1;
+        final double radius = projection.getEquatorRadius();
+        if (count >= 0) {
+            synchronized (outlineCacheLock) {
+                if (count == outlineCacheModificationCount
+                        && radius == outlineCacheRadius) {
+                    return outlineCache.clone();
+                }
+            }
+        }
+
         projection = (Projection) projection.clone();
         projection.setProjectionLongitudeDegrees(0);
         projection.initialize();
@@ -657,6 +689,14 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
         projector.projectOpenPath(outline);
         outline.closePath();
 
+        if (count >= 0) {
+            synchronized (outlineCacheLock) {
+                outlineCache = outline.clone();
+                outlineCacheModificationCount = count;
+                outlineCacheRadius = radius;
+            }
+        }
+
         return outline;
     }
 
@@ -833,7 +873,7 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
 
                         projFactors.compute(projection, lon, lat, 1e-5);
 
-                        ProjectionDerivatives der = new ProjectionDerivatives(projection, lon, lat, 1e-5);
+                        ProjectionDerivatives der = ProjectionDerivatives.compute(projection, lon, lat, 1e-5);
 
                         // compute Gaussian fundamental quantities E, F, G
                         // Canters 1.8
@@ -910,6 +950,16 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
 
         final double dh = 1e-5; // DEFAULT_H;
 
+        // the grids of the design projection only change with the projection
+        final long count = projection instanceof DesignProjection
+                ? ((DesignProjection) projection).getModificationCount() : -1;
+        if (areaGrid == flexAreaGrid) {
+            if (count >= 0 && count == flexGridsModificationCount) {
+                return;
+            }
+            flexGridsModificationCount = count;
+        }
+
         // fill the grids
         ProjectionFactors projFactors = new ProjectionFactors();
         for (int r = 0; r < GRID_ROWS; r++) {
@@ -920,10 +970,10 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
                 try {
                     projFactors.compute(projection, lon * MapMath.DTR, lat * MapMath.DTR, dh);
                     areaGrid.setValue((float) projFactors.s, c, r);
-                    flexAngleGrid.setValue((float) (projFactors.omega * MapMath.RTD), c, r);
+                    projGrid.setValue((float) (projFactors.omega * MapMath.RTD), c, r);
                 } catch (Exception exc) {
                     areaGrid.setValue(Float.NaN, c, r);
-                    flexAngleGrid.setValue(Float.NaN, c, r);
+                    projGrid.setValue(Float.NaN, c, r);
                 }
             }
         }
@@ -984,7 +1034,7 @@ public class FlexProjectorModel extends GeoMap implements Serializable,
             Contourer contourer = new Contourer();
             contourer.setInterval(displayModel.angularIsolinesEquidistance);
             contourer.setTreatDegreeJump(true);
-            GeoSet angleContours = (GeoSet) contourer.operate(flexAngleGrid, 0, 120);
+            GeoSet angleContours = (GeoSet) contourer.operate(projGrid, 0, 120);
             angleContours.setName("Isolines of Maximum Angular Distortion");
 
             // project the angle contours
@@ -21,7 +21,7 @@ import java.net.URL;
  * north values are shifted by cellsize / 2.
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
-public class GeoImage extends AbstractRaster implements Serializable {
+public class GeoImage extends AbstractRaster implements ImageSource, Serializable {
 
     private static final long serialVersionUID = -65438923204671769L;
     /**
@@ -29,6 +29,11 @@ public class GeoImage extends AbstractRaster implements Serializable {
      * edit this image.
      */
     transient protected BufferedImage image; // cannot be serialized!
+    /**
+     * The pixels of the image for interpolation. Null until the first pixel
+     * is interpolated for the current image.
+     */
+    transient private volatile PixelStore pixels;
     /**
      * URL of the image file that was read.
      */
@@ -83,6 +88,7 @@ public class GeoImage extends AbstractRaster implements Serializable {
         stream.defaultReadObject();
 
         // read the BufferedImage
+        this.pixels = null;
         if (this.image == null) {
             this.image = javax.imageio.ImageIO.read(stream);
         } else {
@@ -98,13 +104,21 @@ public class GeoImage extends AbstractRaster implements Serializable {
          */
     }
 
+    /**
+     * Converts the image to the format of the screen. Compact images are not
+     * converted to save memory.
+     */
     public void optimizeForDisplay() {
-        this.image = ImageUtils.optimizeForGraphicsHardware(this.image);
+        if (!isCompact(this.image)) {
+            this.image = ImageUtils.optimizeForGraphicsHardware(this.image);
+            this.pixels = null;
+        }
     }
 
     public void convertToGrayscale() {
         if (this.image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
             this.image = ImageUtils.convertToGrayscale(this.image);
+            this.pixels = null;
         }
     }
 
@@ -227,6 +241,136 @@ public class GeoImage extends AbstractRaster implements Serializable {
         }
     }
 
+    /**
+     * The pixels of an image in an array that can be accessed without the
+     * ColorModel of the image. Images of type TYPE_BYTE_GRAY and
+     * TYPE_BYTE_INDEXED are stored with one byte per pixel and a table with
+     * the argb value of each of the 256 possible samples. Other images are
+     * stored as packed argb values. Also used for the tiles of a
+     * TiledRasterSource.
+     */
+    static final class PixelStore {
+
+        /**
+         * Packed argb values, row by row, or null.
+         */
+        final int[] argb;
+
+        /**
+         * 8-bit samples, row by row, or null.
+         */
+        final byte[] samples;
+
+        /**
+         * The argb value of each sample, or null.
+         */
+        final int[] colors;
+
+        /**
+         * True if red, green and blue are identical for all colors.
+         */
+        final boolean gray;
+
+        PixelStore(int[] argb, byte[] samples, int[] colors) {
+            this.argb = argb;
+            this.samples = samples;
+            this.colors = colors;
+            boolean isGray = colors != null;
+            for (int i = 0; isGray && i < colors.length; i++) {
+                final int c = colors[i];
+                isGray = ((c >> 16) & 0xff) == (c & 0xff) && ((c >> 8) & 0xff) == (c & 0xff);
+            }
+            this.gray = isGray;
+        }
+
+        /**
+         * Returns the argb value of the pixel at index i.
+         */
+        int get(int i) {
+            return argb != null ? argb[i] : colors[samples[i] & 0xff];
+        }
+
+        /**
+         * Creates a store for an image. The data buffer of the image is used
+         * if possible, otherwise the image is converted to argb values.
+         */
+        static PixelStore create(BufferedImage image) {
+            final int w = image.getWidth();
+            final int h = image.getHeight();
+            final WritableRaster raster = image.getRaster();
+            final DataBuffer buffer = raster.getDataBuffer();
+            final SampleModel sampleModel = raster.getSampleModel();
+            final boolean standardRaster = buffer.getNumBanks() == 1
+                    && buffer.getOffset() == 0
+                    && buffer.getSize() == w * h
+                    && raster.getSampleModelTranslateX() == 0
+                    && raster.getSampleModelTranslateY() == 0;
+
+            if (isCompact(image) && standardRaster
+                    && buffer instanceof DataBufferByte
+                    && sampleModel instanceof ComponentSampleModel
+                    && ((ComponentSampleModel) sampleModel).getPixelStride() == 1
+                    && ((ComponentSampleModel) sampleModel).getScanlineStride() == w
+                    && ((ComponentSampleModel) sampleModel).getBandOffsets()[0] == 0) {
+                // use the ColorModel to convert samples, which results in the
+                // same values as BufferedImage.getRGB()
+                final ColorModel cm = image.getColorModel();
+                final int[] colors = new int[256];
+                final byte[] sample = new byte[1];
+                for (int i = 0; i < 256; i++) {
+                    sample[0] = (byte) i;
+                    colors[i] = cm.getRGB(sample);
+                }
+                return new PixelStore(null, ((DataBufferByte) buffer).getData(), colors);
+            }
+
+            if (image.getType() == BufferedImage.TYPE_INT_ARGB && standardRaster
+                    && buffer instanceof DataBufferInt
+                    && sampleModel instanceof SinglePixelPackedSampleModel
+                    && ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride() == w) {
+                return new PixelStore(((DataBufferInt) buffer).getData(), null, null);
+            }
+            return new PixelStore(image.getRGB(0, 0, w, h, null, 0, w), null, null);
+        }
+    }
+
+    /**
+     * Returns true if an image stores each pixel in a single byte with a gray
+     * value or an index into a color table. These images require a quarter
+     * of the memory of argb images, and GeoImage interpolates them without
+     * converting them.
+     * @param image The image to test.
+     */
+    public static boolean isCompact(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_BYTE_GRAY
+                || image.getType() == BufferedImage.TYPE_BYTE_INDEXED;
+    }
+
+    /**
+     * Returns the pixels for interpolation. Creates them if required.
+     */
+    private PixelStore getPixelStore() {
+        PixelStore store = this.pixels;
+        if (store == null) {
+            // a race between two threads creates the store twice, which
+            // does no harm
+            store = PixelStore.create(this.image);
+            this.pixels = store;
+        }
+        return store;
+    }
+
+    /**
+     * Prepares the pixels of the image for interpolation. Calling this
+     * before interpolating from several threads avoids converting the image
+     * more than once.
+     */
+    public final void prepareInterpolation() {
+        if (this.image != null) {
+            this.getPixelStore();
+        }
+    }
+
     /**
      * Returns the argb color value that is closest to the passed position.
      * @param x Horizontal coordinate.
@@ -235,31 +379,40 @@ public class GeoImage extends AbstractRaster implements Serializable {
      * outside of the image.
      */
     public final int getNearestNeighbor(double x, double y) {
-        // round to nearest neighbor
-        int col = (int) ((x - this.west) / this.cellSize);
-        int row = (int) ((this.north - y) / this.cellSize);
-
+        final PixelStore px = this.getPixelStore();
         final int cols = this.getCols();
+        final int rows = this.getRows();
+        final int col = (int) ((x - this.west) / this.cellSize);
+        final int row = (int) ((this.north - y) / this.cellSize);
+        return nearestNeighbor(px, cols, rows, col, row);
+    }
+
+    /**
+     * Returns the pixel at a column and row. Points on the right and bottom
+     * border of the image belong to the last column and row.
+     * @return The argb value or transparent black if col/row is outside of
+     * the image.
+     */
+    private static int nearestNeighbor(PixelStore px, int cols, int rows, int col, int row) {
         if (col == cols) {
             col = cols - 1;
         } else if (col < 0 || col > cols) {
             return 0;
         }
-
-        final int rows = this.getRows();
         if (row == rows) {
             row = rows - 1;
         } else if (row < 0 || row > rows) {
             return 0;
         }
-
-        return this.image.getRGB(col, row);
+        return px.get(row * cols + col);
     }
 
     /**
      * Bilinear interpolation.
      * See http://www.geovista.psu.edu/sites/geocomp99/Gc99/082/gc_082.htm
      * "What's the point? Interpolation and extrapolation with a regular grid DEM"
+     * Neighbors outside of the right and bottom border of the image are
+     * transparent black.
      */
     public final int getBilinearInterpol(double x, double y) {
         final int h1, h2, h3, h4;
@@ -274,6 +427,7 @@ public class GeoImage extends AbstractRaster implements Serializable {
         if (col < 0 || col >= cols || row < 0 || row >= rows) {
             return 0;
         }
+        final PixelStore px = this.getPixelStore();
 
         // relative coordinates in the square formed by the four points, scaled to 0..1.
         // The origin is in the lower left corner.
@@ -290,21 +444,23 @@ public class GeoImage extends AbstractRaster implements Serializable {
             relY = 1;
         }
 
+        final int topLeft = row * cols + col;
+        final boolean hasRight = col + 1 < cols;
         if (row + 1 < rows) {
             // value at bottom left corner
-            h1 = this.image.getRGB(col, row + 1);
+            h1 = px.get(topLeft + cols);
             // value at bottom right corner
-            h2 = col + 1 < cols ? this.image.getRGB(col + 1, row + 1) : 0;
+            h2 = hasRight ? px.get(topLeft + cols + 1) : 0;
         } else {
             h1 = 0;
             h2 = 0;
         }
 
         // value at top left corner
-        h3 = this.image.getRGB(col, row);
+        h3 = px.get(topLeft);
 
         // value at top right corner
-        h4 = col + 1 < cols ? this.image.getRGB(col + 1, row) : 0;
+        h4 = hasRight ? px.get(topLeft + 1) : 0;
 
         return GeoImage.bilinearInterpolation(h1, h2, h3, h4, relX, relY);
     }
@@ -359,7 +515,7 @@ public class GeoImage extends AbstractRaster implements Serializable {
             b = 0;
         }
 
-        return (int) (r << 16 | g << 8 | b | 0xff000000);
+        return r << 16 | g << 8 | b | 0xff000000;
     }
 
     /**
@@ -452,160 +608,135 @@ public class GeoImage extends AbstractRaster implements Serializable {
      */
     /** This has not been tested or verified !!! ???
      * From Grass: raster/r.resamp.interp and lib/gis/interp.c
+     * The 4 x 4 neighborhood does not fit into the image for points in the
+     * first column and row and in the last two columns and rows. For these
+     * points the pixels on the border of the image are replicated.
+     * @return The interpolated argb value or transparent black if the point
+     * x/y is outside of the image.
      */
     public final int getBicubicInterpol(double x, double y) {
+        final int cols = this.getCols();
+        final int rows = this.getRows();
+        final PixelStore px = this.getPixelStore();
+
         // column and row of the top left corner
         final int col1 = (int) ((x - this.west) / this.cellSize);
-        final int col0 = col1 - 1;
-        final int col2 = col1 + 1;
-        final int col3 = col1 + 2;
-
         final int row1 = (int) ((this.north - y) / this.cellSize);
-        final int row0 = row1 - 1;
-        final int row2 = row1 + 1;
-        final int row3 = row1 + 2;
 
-        if (col1 == 0 || col1 >= this.getCols() - 2
-                || row1 == 0 || row1 >= this.getRows() - 2) {
-            // not really a solution, but it works for now !!! ???
-            return this.getNearestNeighbor(x, y);
+        // outside of the image, same test as nearestNeighbor()
+        if (col1 < 0 || col1 > cols || row1 < 0 || row1 > rows) {
+            return 0;
         }
 
         final double u = ((x - this.west) - col1 * this.cellSize) / cellSize;
         final double v = ((this.north - y) - row1 * this.cellSize) / cellSize;
 
-        final int c00 = this.image.getRGB(col0, row0);
-        final int c01 = this.image.getRGB(col1, row0);
-        final int c02 = this.image.getRGB(col2, row0);
-        final int c03 = this.image.getRGB(col3, row0);
-
-        final int c10 = this.image.getRGB(col0, row1);
-        final int c11 = this.image.getRGB(col1, row1);
-        final int c12 = this.image.getRGB(col2, row1);
-        final int c13 = this.image.getRGB(col3, row1);
-
-        final int c20 = this.image.getRGB(col0, row2);
-        final int c21 = this.image.getRGB(col1, row2);
-        final int c22 = this.image.getRGB(col2, row2);
-        final int c23 = this.image.getRGB(col3, row2);
-
-        final int c30 = this.image.getRGB(col0, row3);
-        final int c31 = this.image.getRGB(col1, row3);
-        final int c32 = this.image.getRGB(col2, row3);
-        final int c33 = this.image.getRGB(col3, row3);
-
-        final int r00 = (0xff0000 & c00) >> 16;
-        final int g00 = (0xff00 & c00) >> 8;
-        final int b00 = 0xff & c00;
-        final int r01 = (0xff0000 & c01) >> 16;
-        final int g01 = (0xff00 & c01) >> 8;
-        final int b01 = 0xff & c01;
-        final int r02 = (0xff0000 & c02) >> 16;
-        final int g02 = (0xff00 & c02) >> 8;
-        final int b02 = 0xff & c02;
-        final int r03 = (0xff0000 & c03) >> 16;
-        final int g03 = (0xff00 & c03) >> 8;
-        final int b03 = 0xff & c03;
-
-        final int r10 = (0xff0000 & c10) >> 16;
-        final int g10 = (0xff00 & c10) >> 8;
-        final int b10 = 0xff & c10;
-        final int r11 = (0xff0000 & c11) >> 16;
-        final int g11 = (0xff00 & c11) >> 8;
-        final int b11 = 0xff & c11;
-        final int r12 = (0xff0000 & c12) >> 16;
-        final int g12 = (0xff00 & c12) >> 8;
-        final int b12 = 0xff & c12;
-        final int r13 = (0xff0000 & c13) >> 16;
-        final int g13 = (0xff00 & c13) >> 8;
-        final int b13 = 0xff & c13;
-
-        final int r20 = (0xff0000 & c20) >> 16;
-        final int g20 = (0xff00 & c20) >> 8;
-        final int b20 = 0xff & c20;
-        final int r21 = (0xff0000 & c21) >> 16;
-        final int g21 = (0xff00 & c21) >> 8;
-        final int b21 = 0xff & c21;
-        final int r22 = (0xff0000 & c22) >> 16;
-        final int g22 = (0xff00 & c22) >> 8;
-        final int b22 = 0xff & c22;
-        final int r23 = (0xff0000 & c23) >> 16;
-        final int g23 = (0xff00 & c23) >> 8;
-        final int b23 = 0xff & c23;
-
-        final int r30 = (0xff0000 & c30) >> 16;
-        final int g30 = (0xff00 & c30) >> 8;
-        final int b30 = 0xff & c30;
-        final int r31 = (0xff0000 & c31) >> 16;
-        final int g31 = (0xff00 & c31) >> 8;
-        final int b31 = 0xff & c31;
-        final int r32 = (0xff0000 & c32) >> 16;
-        final int g32 = (0xff00 & c32) >> 8;
-        final int b32 = 0xff & c32;
-        final int r33 = (0xff0000 & c33) >> 16;
-        final int g33 = (0xff00 & c33) >> 8;
-        final int b33 = 0xff & c33;
-
-        final double rd = interp_bicubic(
-                u, v,
-                r00, r01, r02, r03,
-                r10, r11, r12, r13,
-                r20, r21, r22, r23,
-                r30, r31, r32, r33);
-        final double gd = interp_bicubic(
-                u, v,
-                g00, g01, g02, g03,
-                g10, g11, g12, g13,
-                g20, g21, g22, g23,
-                g30, g31, g32, g33);
-        final double bd = interp_bicubic(
-                u, v,
-                b00, b01, b02, b03,
-                b10, b11, b12, b13,
-                b20, b21, b22, b23,
-                b30, b31, b32, b33);
-
-        final int r, g, b;
-        if (rd > 255) {
-            r = 255;
-        } else if (rd < 0) {
-            r = 0;
-        } else {
-            r = (int) rd;
+        // border of the image
+        if (col1 == 0 || col1 >= cols - 2 || row1 == 0 || row1 >= rows - 2) {
+            return bicubic(clampedNeighborhood(px, cols, rows, col1 - 1, row1 - 1),
+                    0, 4, u, v);
         }
 
-        if (gd > 255) {
-            g = 255;
-        } else if (gd < 0) {
-            g = 0;
-        } else {
-            g = (int) gd;
+        return bicubic(px, (row1 - 1) * cols + col1 - 1, cols, u, v);
+    }
+
+    /**
+     * Returns a 4 x 4 neighborhood of pixels. Pixels outside of the image are
+     * replaced by the closest pixel on the border of the image.
+     * @param col0 The column of the top left pixel of the neighborhood.
+     * @param row0 The row of the top left pixel of the neighborhood.
+     */
+    private static PixelStore clampedNeighborhood(PixelStore px, int cols,
+            int rows, int col0, int row0) {
+        final int[] neighborhood = new int[16];
+        for (int r = 0; r < 4; r++) {
+            final int row = Math.min(Math.max(row0 + r, 0), rows - 1);
+            for (int c = 0; c < 4; c++) {
+                final int col = Math.min(Math.max(col0 + c, 0), cols - 1);
+                neighborhood[r * 4 + c] = px.get(row * cols + col);
+            }
         }
+        return new PixelStore(neighborhood, null, null);
+    }
 
-        if (bd > 255) {
-            b = 255;
-        } else if (bd < 0) {
-            b = 0;
-        } else {
-            b = (int) bd;
+    /**
+     * Interpolates a 4 x 4 neighborhood of pixels.
+     * @param px The pixels.
+     * @param i0 The index of the top left pixel of the neighborhood.
+     * @param stride The number of pixels in a row of px.
+     * @param u Relative horizontal position between the second and third
+     * column of the neighborhood.
+     * @param v Relative vertical position between the second and third row
+     * of the neighborhood.
+     * @return The interpolated argb value.
+     */
+    static int bicubic(PixelStore px, int i0, int stride, double u, double v) {
+        final int i1 = i0 + stride;
+        final int i2 = i1 + stride;
+        final int i3 = i2 + stride;
+        final int c00 = px.get(i0), c01 = px.get(i0 + 1);
+        final int c02 = px.get(i0 + 2), c03 = px.get(i0 + 3);
+        final int c10 = px.get(i1), c11 = px.get(i1 + 1);
+        final int c12 = px.get(i1 + 2), c13 = px.get(i1 + 3);
+        final int c20 = px.get(i2), c21 = px.get(i2 + 1);
+        final int c22 = px.get(i2 + 2), c23 = px.get(i2 + 3);
+        final int c30 = px.get(i3), c31 = px.get(i3 + 1);
+        final int c32 = px.get(i3 + 2), c33 = px.get(i3 + 3);
+
+        final int b = clamp(interp_bicubic(u, v, 0,
+                c00, c01, c02, c03, c10, c11, c12, c13,
+                c20, c21, c22, c23, c30, c31, c32, c33));
+        if (px.gray) {
+            // red, green and blue are identical
+            return b << 16 | b << 8 | b | 0xff000000;
         }
+        final int r = clamp(interp_bicubic(u, v, 16,
+                c00, c01, c02, c03, c10, c11, c12, c13,
+                c20, c21, c22, c23, c30, c31, c32, c33));
+        final int g = clamp(interp_bicubic(u, v, 8,
+                c00, c01, c02, c03, c10, c11, c12, c13,
+                c20, c21, c22, c23, c30, c31, c32, c33));
+        return r << 16 | g << 8 | b | 0xff000000;
+    }
 
-        return (int) (r << 16 | g << 8 | b | 0xff000000);
+    /**
+     * Converts an interpolated color channel to 0..255.
+     */
+    private static int clamp(double d) {
+        if (d > 255) {
+            return 255;
+        } else if (d < 0) {
+            return 0;
+        } else {
+            return (int) d;
+        }
     }
 
-    private double interp_cubic(double u, double c0, double c1, double c2, double c3) {
+    private static double interp_cubic(double u, double c0, double c1, double c2, double c3) {
         return (u * (u * (u * (c3 - 3 * c2 + 3 * c1 - c0) + (-c3 + 4 * c2 - 5 * c1 + 2 * c0)) + (c2 - c0)) + 2 * c1) / 2;
     }
 
-    private double interp_bicubic(double u, double v,
-            double c00, double c01, double c02, double c03,
-            double c10, double c11, double c12, double c13,
-            double c20, double c21, double c22, double c23,
-            double c30, double c31, double c32, double c33) {
-        double c0 = interp_cubic(u, c00, c01, c02, c03);
-        double c1 = interp_cubic(u, c10, c11, c12, c13);
-        double c2 = interp_cubic(u, c20, c21, c22, c23);
-        double c3 = interp_cubic(u, c30, c31, c32, c33);
+    /**
+     * Interpolates one color channel in a 4 x 4 neighborhood of argb values.
+     * @param u Relative horizontal position between the second and third
+     * column of the neighborhood.
+     * @param v Relative vertical position between the second and third row
+     * of the neighborhood.
+     * @param shift Position of the channel in the argb values.
+     */
+    private static double interp_bicubic(double u, double v, int shift,
+            int c00, int c01, int c02, int c03,
+            int c10, int c11, int c12, int c13,
+            int c20, int c21, int c22, int c23,
+            int c30, int c31, int c32, int c33) {
+        double c0 = interp_cubic(u, (c00 >> shift) & 0xff, (c01 >> shift) & 0xff,
+                (c02 >> shift) & 0xff, (c03 >> shift) & 0xff);
+        double c1 = interp_cubic(u, (c10 >> shift) & 0xff, (c11 >> shift) & 0xff,
+                (c12 >> shift) & 0xff, (c13 >> shift) & 0xff);
+        double c2 = interp_cubic(u, (c20 >> shift) & 0xff, (c21 >> shift) & 0xff,
+                (c22 >> shift) & 0xff, (c23 >> shift) & 0xff);
+        double c3 = interp_cubic(u, (c30 >> shift) & 0xff, (c31 >> shift) & 0xff,
+                (c32 >> shift) & 0xff, (c33 >> shift) & 0xff);
 
         return interp_cubic(v, c0, c1, c2, c3);
     }
@@ -653,6 +784,7 @@ public class GeoImage extends AbstractRaster implements Serializable {
         BufferedImage transformedImage = new BufferedImage(w, h, this.image.getType());
 //        BufferedImage transformedImage = op.createCompatibleDestImage(this.image, null);
         this.image = op.filter(this.image, transformedImage);
+        this.pixels = null;
     }
 
     public void transform(AffineTransform affineTransform) {
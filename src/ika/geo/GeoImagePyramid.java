@@ -63,7 +63,10 @@ public class GeoImagePyramid extends GeoImage {
     
     /**
      * Creates the image pyramid. Stores all images in this.images, including
-     * the original unscaled image already stored in super.image.
+     * the original unscaled image already stored in super.image. The images
+     * of a compact image are compact as well. Indexed images are downscaled
+     * with nearest neighbor resampling, because other resampling methods
+     * convert them to argb images.
      */
     private void createPyramid() {
         
@@ -76,14 +79,21 @@ public class GeoImagePyramid extends GeoImage {
         // setup an affine transformation for downscaling
         AffineTransform tx = new AffineTransform();
         tx.scale(IMAGE_SCALE, IMAGE_SCALE);
-        AffineTransformOp op = new AffineTransformOp(tx,
-                AffineTransformOp.TYPE_BICUBIC);
+        final boolean indexed = this.image.getType() == BufferedImage.TYPE_BYTE_INDEXED;
+        AffineTransformOp op = new AffineTransformOp(tx, indexed
+                ? AffineTransformOp.TYPE_NEAREST_NEIGHBOR
+                : AffineTransformOp.TYPE_BICUBIC);
         
         // repeatedly downscale the image and store the images in the pyramid.
         BufferedImage lastImage = this.image;
         while (lastImage.getHeight() > MIN_IMAGE_SIZE
                 || lastImage.getWidth() > MIN_IMAGE_SIZE) {
-            lastImage = op.filter(lastImage, null);
+            // AffineTransformOp creates argb images for grayscale images
+            BufferedImage dst = null;
+            if (lastImage.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                dst = op.createCompatibleDestImage(lastImage, lastImage.getColorModel());
+            }
+            lastImage = op.filter(lastImage, dst);
             this.images.add(lastImage);
         }
     }
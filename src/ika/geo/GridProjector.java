@@ -7,7 +7,6 @@
 
 package ika.geo;
 
-import com.jhlabs.map.MapMath;
 import ika.geoexport.ESRIASCIIGridWriter;
 import ika.geoimport.EsriASCIIGridReader;
 import ika.gui.FlexProjectorPreferencesPanel;
@@ -15,7 +14,6 @@ import ika.gui.SwingWorkerWithProgressIndicator;
 import com.jhlabs.map.proj.Projection;
 import ika.utils.FileUtils;
 import java.awt.Frame;
-import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.*;
 import java.util.prefs.Preferences;
@@ -140,48 +138,49 @@ public class GridProjector extends RasterProjector {
                         printWriter, projCols, projRows,
                         projWest, projNorth - projHeight, projCellSize, noDataValue);
                 
-                final double earthRadius = projection.getEquatorRadius();
-                final double lon0 = projection.getProjectionLongitude();
-                Point2D.Double pt = new Point2D.Double();
-                for (int r = 0; r < projRows; r++) {
-                    
-                    if (!this.progress((int)((double)r / projRows * 100))) {
-                        // delete the new file
-                        new File(exportFilePath).delete();
-                        break;
+                final ESRIASCIIGridWriter writer = gridWriter;
+                final GeoGrid srcGrid = grid;
+
+                // project the bands of the grid in parallel and write them
+                // in the order of the rows
+                RasterReprojectionEngine engine = new RasterReprojectionEngine(
+                        projection, null, projWest, projNorth, projCellSize,
+                        projCols, projRows);
+                engine.setTolerance(FlexProjectorPreferencesPanel.getApproximationTolerance()
+                        * srcGrid.getCellSize());
+                boolean completed = engine.run(
+                        new RasterReprojectionEngine.BandProcessor<float[]>() {
+                    @Override
+                    public float[] computeBand(double[] lon, double[] lat, int rows, int cols) {
+                        final float[] values = new float[rows * cols];
+                        for (int i = 0; i < values.length; i++) {
+                            if (Double.isNaN(lon[i])) {
+                                values[i] = Float.NaN;
+                            } else if (interpolationMethod
+                                    == FlexProjectorPreferencesPanel.INTERPOLATION_BICUBIC) {
+                                values[i] = srcGrid.getBicubicInterpol(lon[i], lat[i]);
+                            } else {
+                                values[i] = srcGrid.getNearestNeighbor(lon[i], lat[i]);
+                            }
+                        }
+                        return values;
                     }
-                    
-                    final double y = (projNorth - r * projCellSize) / earthRadius;
-                    for (int c = 0; c < projCols; c++) {
-                        final double x = (projWest + c * projCellSize) / earthRadius;
-                        
-                        // don't use inverseTransformRadians here. The lon/lat values
-                        // have to be checked after the inverse projection to make
-                        // sure they fall in [-PI..+PI] for the longitude, and
-                        // [-PI/2..+PI/2] for the latitude.
-                        projection.projectInverse(x, y, pt);
-                        if (Double.isNaN(pt.x) || Double.isNaN(pt.y)
-                                || pt.x < -Math.PI || pt.x > Math.PI
-                                || pt.y < -Math.PI / 2 || pt.y > Math.PI / 2) {
-                            gridWriter.writeNoData();
-                            continue;
+
+                    @Override
+                    public void writeBand(float[] values, int rows, int cols) {
+                        // NaN values are written as no-data values
+                        for (int r = 0; r < rows; r++) {
+                            for (int c = 0; c < cols; c++) {
+                                writer.write(values[r * cols + c]);
+                            }
+                            writer.newLine();
                         }
-                        
-                        if (lon0 != 0)
-                            pt.x = MapMath.normalizeLongitude(pt.x+lon0);
-                        
-                        pt.x = Math.toDegrees(pt.x);
-                        pt.y = Math.toDegrees(pt.y);
-                        
-                        final float v;
-                        if (interpolationMethod ==
-                                FlexProjectorPreferencesPanel.INTERPOLATION_BICUBIC)
-                            v = grid.getBicubicInterpol(pt.x, pt.y);
-                        else
-                            v = grid.getNearestNeighbor(pt.x, pt.y);
-                        gridWriter.write(v);
                     }
-                    gridWriter.newLine();
+                }, this);
+                if (!completed) {
+                    // delete the new file
+                    printWriter.close();
+                    new File(exportFilePath).delete();
                 }
                 
             } catch (Exception e) {
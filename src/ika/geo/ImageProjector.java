@@ -7,14 +7,13 @@
 
 package ika.geo;
 
-import com.jhlabs.map.MapMath;
 import com.jhlabs.map.proj.EquidistantCylindricalProjection;
-import ika.utils.ImageWriter;
 import ika.utils.TIFFImageWriter;
 import ika.geoexport.WorldFileExporter;
 import ika.geoimport.GeoImporter;
 import ika.geoimport.ImageImporter;
 import ika.geoimport.SynchroneDataReceiver;
+import ika.gui.FlexProjectorPreferencesPanel;
 import ika.gui.SwingWorkerWithProgressIndicator;
 import com.jhlabs.map.proj.Projection;
 import ika.utils.FileUtils;
@@ -93,10 +92,19 @@ public class ImageProjector extends RasterProjector {
         imageProjectorTask.setTotalTasksCount(2);
         imageProjectorTask.execute();
     }
+
+    /**
+     * Returns true if the decoded image would use more than a quarter of the
+     * available memory. Such images are read in tiles when their pixels are
+     * needed.
+     */
+    private static boolean isTooLargeForMemory(java.net.URL url) throws IOException {
+        java.awt.Dimension dim = ImageImporter.getDimensions(url);
+        long bytes = 4L * dim.width * dim.height;
+        return bytes > Runtime.getRuntime().maxMemory() / 4;
+    }
     
     class ImageProjectorTask extends SwingWorkerWithProgressIndicator {
-        
-        private final double HALFPI = Math.PI / 2.;
 
         public ImageProjectorTask(Frame owner,
                 String dialogTitle,
@@ -109,6 +117,7 @@ public class ImageProjector extends RasterProjector {
         @Override
         protected Object doInBackground() throws Exception {
             OutputStream out = null;
+            TiledRasterSource tiledSource = null;
             String worldFilePath = WorldFileExporter.constructPath(exportFilePath);
             
             try {
@@ -116,36 +125,48 @@ public class ImageProjector extends RasterProjector {
                 
                 // Create the file already now to show the user where the 
                 // projected image will be stored.
-                // Increasing the buffer size does not accelerate writing.
-                out = new BufferedOutputStream(new FileOutputStream(exportFilePath));
+                // The TIFF writer buffers strips or tiles and writes them to
+                // the channel of the file.
+                out = new FileOutputStream(exportFilePath);
                 
                 // read the input  file
-                ImageImporter importer = new ImageImporter();
-                importer.setProgressIndicator(this);
-                importer.setOptimizeForDisplay(false);
                 java.net.URL url = ika.utils.URLUtils.filePathToURL(importFilePath);
-                SynchroneDataReceiver dataReceiver = new SynchroneDataReceiver();
-                dataReceiver.setShowMessageOnError(false);
-                importer.read(url, dataReceiver, GeoImporter.SAME_THREAD);
-                
-                // test whether the image has been successfully read
-                if (dataReceiver.hasReceivedError()) {
-                     (new File(exportFilePath)).delete();
-                     throw new IOException("Could not read image file at "
-                             + importFilePath);
-                }
-                
-                // retrieve the image
-                GeoImage image = (GeoImage)dataReceiver.getImportedData();
-                if (image == null) {
-                    return null; // user canceled
+                final ImageSource image;
+                final boolean georeferenced;
+                if (isTooLargeForMemory(url)) {
+                    // read the pixels in tiles when they are needed
+                    tiledSource = new TiledRasterSource(url, 1,
+                            Runtime.getRuntime().maxMemory() / 4);
+                    image = tiledSource;
+                    georeferenced = tiledSource.isGeoreferenced();
+                } else {
+                    ImageImporter importer = new ImageImporter();
+                    importer.setProgressIndicator(this);
+                    importer.setOptimizeForDisplay(false);
+                    SynchroneDataReceiver dataReceiver = new SynchroneDataReceiver();
+                    dataReceiver.setShowMessageOnError(false);
+                    importer.read(url, dataReceiver, GeoImporter.SAME_THREAD);
+
+                    // test whether the image has been successfully read
+                    if (dataReceiver.hasReceivedError()) {
+                         (new File(exportFilePath)).delete();
+                         throw new IOException("Could not read image file at "
+                                 + importFilePath);
+                    }
+
+                    // retrieve the image
+                    image = (GeoImage)dataReceiver.getImportedData();
+                    if (image == null) {
+                        return null; // user canceled
+                    }
+                    georeferenced = importer.isGeoreferenced();
                 }
                 
                 // make sure the image is georeferenced
                 // assume geographic coordinates if the width is twice as large
                 // as the height of the image. This is a hack. FIXME
                 // 
-                if (importer.isGeoreferenced() == false || image.getCols() == 2 * image.getRows()) {
+                if (georeferenced == false || image.getCols() == 2 * image.getRows()) {
                     
                     if (srcProj instanceof EquidistantCylindricalProjection) {
 
@@ -199,58 +220,51 @@ public class ImageProjector extends RasterProjector {
                 final int projRows
                         = (int)Math.ceil(projHeight / projCellSize);
         
-                ImageWriter writer = new TIFFImageWriter(out, projCols, projRows);
-                
-                final double earthRadius = destProj.getEquatorRadius();
-                final double lon0 = destProj.getProjectionLongitude();
-                Point2D.Double lonlat = new Point2D.Double();
-                Point2D.Double srcXY = new Point2D.Double();
-
-                for (int row = 0; row < projRows; row++) {
-                    
-                    if (this.isCancelled()) {
-                        (new File(exportFilePath)).delete();
-                        return null;
-                    }
-                    this.progress((int)((double)row / projRows * 100));
-                    
-                    final double dstY = (projNorth - row * projCellSize) / earthRadius;
-                    for (int col = 0; col < projCols; col++) {
-                        final double dstX = (projWest + col * projCellSize) / earthRadius;
+                final TIFFImageWriter writer = new TIFFImageWriter(out, projCols, projRows);
+                writer.setGeoreference(projWest, projNorth, projCellSize);
+                if (4L * projCols * projRows > Runtime.getRuntime().maxMemory() / 4) {
+                    // tiles can be read efficiently by TiledRasterSource
+                    writer.setTileSize(256);
+                }
+                final ImageSource srcImage = image;
 
-                        // inverse projection from projected destination grid
-                        // to intermediat longitude/latitude graticule
+                // prepare the pixels before the threads start interpolating
+                srcImage.prepareInterpolation();
 
-                        // don't use inverseTransformRadians here. The lon/lat values
-                        // have to be checked after the inverse projection to make
-                        // sure they fall in [-PI..+PI] for the longitude, and
-                        // [-PI/2..+PI/2] for the latitude.
-                        destProj.projectInverse(dstX, dstY, lonlat);
-                        if (Double.isNaN(lonlat.x) || Double.isNaN(lonlat.y)
-                                || lonlat.x < -Math.PI || lonlat.x > Math.PI
-                                || lonlat.y < -HALFPI || lonlat.y > HALFPI) {
-                            writer.write(0, 0, 0, 0);
-                            continue;
-                        }
-                        if (lon0 != 0) {
-                            lonlat.x = MapMath.normalizeLongitude(lonlat.x+lon0);
-                        }
-                        
-                        // forward projection from longitude/latitude graticule
-                        // to projected source image
-                        srcProj.project(lonlat.x, lonlat.y, srcXY);
-                        srcXY.x *= earthRadius;
-                        srcXY.y *= earthRadius;
-                       
-                        final int color;
-                        if (nearestNeighbor) {
-                            color = image.getNearestNeighbor(srcXY.x, srcXY.y);
-                        } else {
-                            color = image.getBicubicInterpol(srcXY.x, srcXY.y);
+                // project the bands of the image in parallel and write them
+                // in the order of the rows
+                RasterReprojectionEngine engine = new RasterReprojectionEngine(
+                        destProj, srcProj, projWest, projNorth, projCellSize,
+                        projCols, projRows);
+                engine.setTolerance(FlexProjectorPreferencesPanel.getApproximationTolerance()
+                        * srcImage.getCellSize());
+                boolean completed = engine.run(
+                        new RasterReprojectionEngine.BandProcessor<int[]>() {
+                    @Override
+                    public int[] computeBand(double[] x, double[] y, int rows, int cols) {
+                        final int[] colors = new int[rows * cols];
+                        for (int i = 0; i < colors.length; i++) {
+                            if (Double.isNaN(x[i])) {
+                                continue; // transparent
+                            }
+                            if (nearestNeighbor) {
+                                colors[i] = srcImage.getNearestNeighbor(x[i], y[i]);
+                            } else {
+                                colors[i] = srcImage.getBicubicInterpol(x[i], y[i]);
+                            }
                         }
+                        return colors;
+                    }
 
-                        writer.write(color);
+                    @Override
+                    public void writeBand(int[] colors, int rows, int cols) throws IOException {
+                        writer.write(colors, 0, colors.length);
                     }
+                }, this);
+                if (!completed || this.isCancelled()) {
+                    out.close();
+                    (new File(exportFilePath)).delete();
+                    return null;
                 }
                 
                 // write a world file
@@ -271,6 +285,8 @@ public class ImageProjector extends RasterProjector {
             } finally {
                 if (out != null)
                     try { out.close(); } catch (Exception exc) {}
+                if (tiledSource != null)
+                    try { tiledSource.close(); } catch (Exception exc) {}
             }
             return null;
         }
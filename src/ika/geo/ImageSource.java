@@ -0,0 +1,79 @@
+/*
+ * ImageSource.java
+ *
+ */
+
+package ika.geo;
+
+/**
+ * A georeferenced image that can be sampled by ImageProjector. Implemented by
+ * GeoImage for images in memory and by TiledRasterSource for images that are
+ * read in tiles.
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich
+ */
+public interface ImageSource {
+
+    /**
+     * Returns the number of columns of the image.
+     */
+    public int getCols();
+
+    /**
+     * Returns the number of rows of the image.
+     */
+    public int getRows();
+
+    /**
+     * Returns the horizontal coordinate of the top left corner.
+     */
+    public double getWest();
+
+    /**
+     * Sets the horizontal coordinate of the top left corner.
+     */
+    public void setWest(double west);
+
+    /**
+     * Returns the vertical coordinate of the top left corner.
+     */
+    public double getNorth();
+
+    /**
+     * Sets the vertical coordinate of the top left corner.
+     */
+    public void setNorth(double north);
+
+    /**
+     * Returns the size of a pixel.
+     */
+    public double getCellSize();
+
+    /**
+     * Sets the size of a pixel.
+     */
+    public void setCellSize(double cellSize);
+
+    /**
+     * Prepares the image for interpolation by several threads.
+     */
+    public void prepareInterpolation();
+
+    /**
+     * Returns the argb color value that is closest to the passed position.
+     * Can be called concurrently by several threads.
+     * @param x Horizontal coordinate.
+     * @param y Vertical coordinate.
+     * @return The nearest argb value or transparent black if the point x/y is
+     * outside of the image.
+     */
+    public int getNearestNeighbor(double x, double y);
+
+    /**
+     * Returns the argb color value at the passed position interpolated with
+     * bicubic interpolation. Can be called concurrently by several threads.
+     * @param x Horizontal coordinate.
+     * @param y Vertical coordinate.
+     * @return The interpolated argb value.
+     */
+    public int getBicubicInterpol(double x, double y);
+}
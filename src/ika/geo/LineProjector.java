@@ -1,6 +1,5 @@
 package ika.geo;
 
-import com.jhlabs.map.proj.ProjectionException;
 import com.jhlabs.map.proj.Projection;
 import java.awt.geom.Point2D;
 
@@ -32,6 +31,7 @@ public class LineProjector extends FeatureProjector {
         
         GeoPathModel projPath = new GeoPathModel();
         GeoPathIterator iterator = geoPath.getIterator();
+        projectVertices(geoPath);
         
         prevPointOutOfRange = false;
         firstMoveTo = true;
@@ -124,17 +124,10 @@ public class LineProjector extends FeatureProjector {
         final double xlon0 = x - lon0;
         final boolean pointOutOfRange = xlon0 < -180 || xlon0 > 180;
 
-        // project the point
-        Point2D.Double dst = new Point2D.Double();
-        try {
-            projection.transform(x, y, dst);
-        } catch (ProjectionException exc) {
+        // project the point and move to
+        if (!moveTo(x, y, projPath)) {
             return;
         }
-        if (Double.isNaN(dst.x) || Double.isNaN(dst.y)) {
-            return;        // move to
-        }
-        projPath.moveTo(dst.x, dst.y);
         prevPointOutOfRange = pointOutOfRange;
         firstMoveTo = false;
 
@@ -120,6 +120,7 @@ public class PolygonProjector extends FeatureProjector {
         
         double lon0Deg = projection.getProjectionLongitudeDegrees();
         GeoPathIterator iterator = srcPath.getIterator();
+        projectVertices(srcPath);
         double lon = Double.NaN;
         double lat = Double.NaN;
         double lastMoveToLon = iterator.getX();
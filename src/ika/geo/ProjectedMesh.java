@@ -0,0 +1,579 @@
+/*
+ * ProjectedMesh.java
+ *
+ */
+
+package ika.geo;
+
+import com.jhlabs.map.MapMath;
+import com.jhlabs.map.proj.Projection;
+import com.jhlabs.map.proj.ProjectionException;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+/**
+ * A triangulated longitude/latitude lattice that is projected with the
+ * forward projection of an output raster. The lattice is refined where the
+ * projection bends its lines, then only the nodes of the lattice are
+ * projected. The projected triangles are scan-converted into the output
+ * raster, and the source coordinates of each output cell are interpolated
+ * with barycentric coordinates. This does not require an inverse projection.
+ *
+ * Meridians and parallels of the lattice are refined for the whole globe, so
+ * that the lattice has no T-junctions and neighboring triangles share their
+ * edges without gaps. A mesh is immutable once it is constructed and can be
+ * shared by any number of threads.
+ *
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
+ */
+final class ProjectedMesh {
+
+    /**
+     * Distance between the meridians and between the parallels of the initial
+     * lattice in degrees.
+     */
+    private static final double INITIAL_STEP_DEG = 15;
+
+    /**
+     * Smallest distance between meridians and between parallels in degrees.
+     */
+    private static final double MIN_STEP_DEG = 0.25;
+
+    /**
+     * Maximum deviation of a projected lattice line from a straight line
+     * between two nodes, in cells of the output raster.
+     */
+    private static final double TOLERANCE_CELLS = 0.25;
+
+    /**
+     * Maximum number of lattice nodes.
+     */
+    private static final int MAX_NODES = 1 << 20;
+
+    /**
+     * Tolerance for barycentric coordinates of cells on triangle edges.
+     */
+    private static final double EDGE_EPS = 1e-9;
+
+    /**
+     * The projection of the output raster. Only used while the mesh is
+     * constructed.
+     */
+    private final Projection dest;
+
+    /**
+     * The projection of the source raster, or null if the source raster uses
+     * longitude and latitude in degrees. Only used while the mesh is
+     * constructed.
+     */
+    private final Projection src;
+
+    /**
+     * Position and size of the output raster.
+     */
+    private final double west, north, cellSize;
+    private final int cols, rows;
+
+    /**
+     * Equatorial radius of the output projection.
+     */
+    private final double earthRadius;
+
+    /**
+     * Longitude of the central meridian of the output projection.
+     */
+    private final double lon0;
+
+    /**
+     * Meridians of the lattice in radians relative to the central meridian,
+     * in increasing order.
+     */
+    private double[] lons;
+
+    /**
+     * Parallels of the lattice in radians, in increasing order.
+     */
+    private double[] lats;
+
+    /**
+     * Projected nodes in columns and rows of the output raster, row by row
+     * from south to north. NaN for nodes that cannot be projected.
+     */
+    private double[] nodeCol, nodeRow;
+
+    /**
+     * Source coordinates of the nodes as the first node of the lattice
+     * interval to their east.
+     */
+    private double[] eastSrcX, eastSrcY;
+
+    /**
+     * Source coordinates of the nodes as the last node of the lattice interval
+     * to their west. Identical to eastSrcX and eastSrcY, except along the
+     * meridian where the longitude of the source raster jumps from +180 to
+     * -180 degrees.
+     */
+    private double[] westSrcX, westSrcY;
+
+    /**
+     * Number of rows in a band of the output raster.
+     */
+    private final int bandRows;
+
+    /**
+     * The triangles overlapping band i are
+     * bandTriangles[bandStart[i]] to bandTriangles[bandStart[i + 1] - 1].
+     * Triangles 2 * q and 2 * q + 1 split lattice quadrilateral q.
+     */
+    private int[] bandStart, bandTriangles;
+
+    private final Point2D.Double pt = new Point2D.Double();
+
+    /**
+     * Builds the mesh.
+     * @param dest The projection of the output raster. Must be initialized.
+     * @param src The projection of the source raster, or null if the source
+     * raster uses longitude and latitude in degrees. Must be initialized.
+     * @param west Horizontal coordinate of the left border of the output raster.
+     * @param north Vertical coordinate of the top border of the output raster.
+     * @param cellSize The size of a cell of the output raster.
+     * @param cols The number of columns of the output raster.
+     * @param rows The number of rows of the output raster.
+     * @param bandRows The number of rows in a band of the output raster.
+     */
+    ProjectedMesh(Projection dest, Projection src,
+            double west, double north, double cellSize, int cols, int rows,
+            int bandRows) {
+        this.dest = dest;
+        this.src = src;
+        this.west = west;
+        this.north = north;
+        this.cellSize = cellSize;
+        this.cols = cols;
+        this.rows = rows;
+        this.bandRows = bandRows;
+        earthRadius = dest.getEquatorRadius();
+        lon0 = dest.getProjectionLongitude();
+
+        lats = regularSteps(-Math.PI / 2, Math.PI / 2);
+        lons = regularSteps(-Math.PI, Math.PI);
+
+        // a meridian along the antimeridian of the source raster, where
+        // source longitudes jump from +180 to -180 degrees
+        if (lon0 != 0) {
+            double seam = MapMath.normalizeLongitude(Math.PI - lon0);
+            if (seam > -Math.PI && seam < Math.PI) {
+                lons = insert(lons, seam);
+            }
+        }
+
+        refine();
+        bucketTriangles();
+    }
+
+    /**
+     * Returns nodes between two angles separated by INITIAL_STEP_DEG.
+     */
+    private static double[] regularSteps(double min, double max) {
+        final int n = (int) Math.round(Math.toDegrees(max - min) / INITIAL_STEP_DEG);
+        double[] steps = new double[n + 1];
+        for (int i = 0; i <= n; i++) {
+            steps[i] = min + (max - min) * i / n;
+        }
+        return steps;
+    }
+
+    /**
+     * Inserts a value into an array sorted in increasing order.
+     */
+    private static double[] insert(double[] a, double v) {
+        int i = Arrays.binarySearch(a, v);
+        if (i >= 0) {
+            return a;
+        }
+        i = -i - 1;
+        double[] b = new double[a.length + 1];
+        System.arraycopy(a, 0, b, 0, i);
+        b[i] = v;
+        System.arraycopy(a, i, b, i + 1, a.length - i);
+        return b;
+    }
+
+    /**
+     * Projects all nodes, then inserts meridians and parallels halfway
+     * between lattice lines that are not projected with enough accuracy.
+     * Repeats until the whole lattice is accurate.
+     */
+    private void refine() {
+        final double minStep = Math.toRadians(MIN_STEP_DEG);
+        final double[] a = new double[4];
+        final double[] b = new double[4];
+        final double[] m = new double[4];
+        while (true) {
+            projectNodes();
+            final int n = lons.length;
+
+            // meridians between two meridians
+            double[] newLons = lons;
+            for (int i = 0; i < n - 1; i++) {
+                final double lonMid = (lons[i] + lons[i + 1]) / 2;
+                if (lons[i + 1] - lons[i] < 2 * minStep) {
+                    continue;
+                }
+                for (int j = 0; j < lats.length; j++) {
+                    nodeAsEastEnd(j, i, a);
+                    nodeAsWestEnd(j, i + 1, b);
+                    project(lonMid, lats[j], absoluteLon(i, lonMid), m);
+                    if (!isLinear(a, b, m)) {
+                        newLons = insert(newLons, lonMid);
+                        break;
+                    }
+                }
+            }
+
+            // parallels between two parallels
+            double[] newLats = lats;
+            for (int j = 0; j < lats.length - 1; j++) {
+                final double latMid = (lats[j] + lats[j + 1]) / 2;
+                if (lats[j + 1] - lats[j] < 2 * minStep) {
+                    continue;
+                }
+                for (int i = 0; i < n; i++) {
+                    nodeAsEastEnd(j, i, a);
+                    nodeAsEastEnd(j + 1, i, b);
+                    project(lons[i], latMid, absoluteLon(Math.min(i, n - 2), lons[i]), m);
+                    if (!isLinear(a, b, m)) {
+                        newLats = insert(newLats, latMid);
+                        break;
+                    }
+                }
+            }
+
+            // quadrilaterals are split along the diagonal from the south-west
+            // to the north-east node, which is refined in both directions
+            for (int j = 0; j < lats.length - 1; j++) {
+                final double latMid = (lats[j] + lats[j + 1]) / 2;
+                final boolean splitLat = lats[j + 1] - lats[j] >= 2 * minStep;
+                for (int i = 0; i < n - 1; i++) {
+                    final double lonMid = (lons[i] + lons[i + 1]) / 2;
+                    final boolean splitLon = lons[i + 1] - lons[i] >= 2 * minStep;
+                    if (!splitLat && !splitLon) {
+                        continue;
+                    }
+                    nodeAsEastEnd(j, i, a);
+                    nodeAsWestEnd(j + 1, i + 1, b);
+                    project(lonMid, latMid, absoluteLon(i, lonMid), m);
+                    if (!isLinear(a, b, m)) {
+                        if (splitLat) {
+                            newLats = insert(newLats, latMid);
+                        }
+                        if (splitLon) {
+                            newLons = insert(newLons, lonMid);
+                        }
+                    }
+                }
+            }
+
+            if ((newLons == lons && newLats == lats)
+                    || (long) newLons.length * newLats.length > MAX_NODES) {
+                return;
+            }
+            lons = newLons;
+            lats = newLats;
+        }
+    }
+
+    /**
+     * Returns the longitude of the source raster in radians of a point on a
+     * meridian interval. The longitude is continuous along the interval, also
+     * if the interval touches the antimeridian of the source raster.
+     * @param interval The index of the meridian interval.
+     * @param lon The longitude relative to the central meridian.
+     */
+    private double absoluteLon(int interval, double lon) {
+        final double mid = (lons[interval] + lons[interval + 1]) / 2;
+        final double absMid = lon0 == 0 ? mid : MapMath.normalizeLongitude(mid + lon0);
+        return Math.max(-Math.PI, Math.min(Math.PI, absMid + lon - mid));
+    }
+
+    /**
+     * Projects a point with the output projection and the source projection.
+     * @param lon Longitude relative to the central meridian in radians.
+     * @param lat Latitude in radians.
+     * @param absLon Longitude of the source raster in radians.
+     * @param p Receives column and row in the output raster and the
+     * horizontal and vertical source coordinates.
+     */
+    private void project(double lon, double lat, double absLon, double[] p) {
+        try {
+            dest.project(lon, lat, pt);
+            p[0] = (pt.x * earthRadius - west) / cellSize;
+            p[1] = (north - pt.y * earthRadius) / cellSize;
+        } catch (ProjectionException exc) {
+            p[0] = p[1] = Double.NaN;
+        }
+        if (src == null) {
+            p[2] = Math.toDegrees(absLon);
+            p[3] = Math.toDegrees(lat);
+        } else {
+            try {
+                src.project(absLon, lat, pt);
+                p[2] = pt.x * earthRadius;
+                p[3] = pt.y * earthRadius;
+            } catch (ProjectionException exc) {
+                p[2] = p[3] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Projects all nodes of the lattice.
+     */
+    private void projectNodes() {
+        final int n = lons.length;
+        final int count = n * lats.length;
+        nodeCol = new double[count];
+        nodeRow = new double[count];
+        eastSrcX = new double[count];
+        eastSrcY = new double[count];
+        westSrcX = new double[count];
+        westSrcY = new double[count];
+        final double[] p = new double[4];
+        for (int j = 0; j < lats.length; j++) {
+            for (int i = 0; i < n; i++) {
+                final int k = j * n + i;
+                final double eastLon = absoluteLon(Math.min(i, n - 2), lons[i]);
+                project(lons[i], lats[j], eastLon, p);
+                nodeCol[k] = p[0];
+                nodeRow[k] = p[1];
+                eastSrcX[k] = p[2];
+                eastSrcY[k] = p[3];
+
+                // the source coordinates only differ along the antimeridian
+                // of the source raster
+                final double westLon = absoluteLon(Math.max(i - 1, 0), lons[i]);
+                if (westLon != eastLon) {
+                    project(lons[i], lats[j], westLon, p);
+                }
+                westSrcX[k] = p[2];
+                westSrcY[k] = p[3];
+            }
+        }
+    }
+
+    private void nodeAsEastEnd(int j, int i, double[] p) {
+        final int k = j * lons.length + i;
+        p[0] = nodeCol[k];
+        p[1] = nodeRow[k];
+        p[2] = eastSrcX[k];
+        p[3] = eastSrcY[k];
+    }
+
+    private void nodeAsWestEnd(int j, int i, double[] p) {
+        final int k = j * lons.length + i;
+        p[0] = nodeCol[k];
+        p[1] = nodeRow[k];
+        p[2] = westSrcX[k];
+        p[3] = westSrcY[k];
+    }
+
+    /**
+     * Returns true if the point between two nodes is within the tolerance of
+     * the straight line between the nodes, both in the output raster and in
+     * the source raster. Deviations in the source raster are converted to
+     * cells of the output raster with the ratio of the distances between the
+     * nodes. Returns false if only some of the points can be projected, which
+     * refines the lattice along the border of the graticule.
+     */
+    private static boolean isLinear(double[] a, double[] b, double[] m) {
+        final boolean aValid = isValid(a);
+        final boolean bValid = isValid(b);
+        final boolean mValid = isValid(m);
+        if (!aValid && !bValid && !mValid) {
+            return true;
+        }
+        if (!aValid || !bValid || !mValid) {
+            return false;
+        }
+
+        final double dev = Math.hypot((a[0] + b[0]) / 2 - m[0], (a[1] + b[1]) / 2 - m[1]);
+        if (dev > TOLERANCE_CELLS) {
+            return false;
+        }
+        final double srcDev = Math.hypot((a[2] + b[2]) / 2 - m[2], (a[3] + b[3]) / 2 - m[3]);
+        final double srcLength = Math.hypot(b[2] - a[2], b[3] - a[3]);
+        final double length = Math.hypot(b[0] - a[0], b[1] - a[1]);
+        return srcLength == 0 || srcDev * length / srcLength <= TOLERANCE_CELLS;
+    }
+
+    private static boolean isValid(double[] p) {
+        for (int i = 0; i < 4; i++) {
+            if (Double.isNaN(p[i]) || Double.isInfinite(p[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the output raster nodes of a triangle.
+     * @param t The triangle.
+     * @param k Receives the indices of the three nodes.
+     * @param east Receives for each node whether it is the first node of a
+     * meridian interval, which selects the source coordinates.
+     */
+    private void triangleNodes(int t, int[] k, boolean[] east) {
+        final int n = lons.length;
+        final int q = t >> 1;
+        final int j = q / (n - 1);
+        final int i = q % (n - 1);
+        final int sw = j * n + i;
+        final int se = sw + 1;
+        final int nw = sw + n;
+        final int ne = nw + 1;
+        k[0] = sw;
+        east[0] = true;
+        k[1] = ne;
+        east[1] = false;
+        if ((t & 1) == 0) {
+            k[2] = se;
+            east[2] = false;
+        } else {
+            k[2] = nw;
+            east[2] = true;
+        }
+    }
+
+    /**
+     * Returns true if a triangle can be scan-converted. Triangles with
+     * invalid nodes are rejected, as are triangles that are wider or higher
+     * than half of the output raster. These connect points on opposite sides
+     * of an interruption or of the antimeridian of the output projection,
+     * and would otherwise be smeared across the raster.
+     */
+    private boolean isDrawable(int[] k) {
+        double minC = Double.MAX_VALUE, maxC = -Double.MAX_VALUE;
+        double minR = Double.MAX_VALUE, maxR = -Double.MAX_VALUE;
+        for (int v = 0; v < 3; v++) {
+            final double c = nodeCol[k[v]];
+            final double r = nodeRow[k[v]];
+            if (Double.isNaN(c) || Double.isNaN(r)
+                    || Double.isInfinite(c) || Double.isInfinite(r)
+                    || Double.isNaN(eastSrcX[k[v]]) || Double.isNaN(westSrcX[k[v]])) {
+                return false;
+            }
+            minC = Math.min(minC, c);
+            maxC = Math.max(maxC, c);
+            minR = Math.min(minR, r);
+            maxR = Math.max(maxR, r);
+        }
+        return maxC - minC <= cols / 2. && maxR - minR <= rows / 2.
+                && maxC >= 0 && minC <= cols - 1 && maxR >= 0 && minR <= rows - 1;
+    }
+
+    /**
+     * Sorts the triangles into the bands of the output raster they overlap.
+     */
+    private void bucketTriangles() {
+        final int bandsCount = (rows + bandRows - 1) / bandRows;
+        final int trianglesCount = 2 * (lons.length - 1) * (lats.length - 1);
+        final int[] firstBand = new int[trianglesCount];
+        final int[] lastBand = new int[trianglesCount];
+        final int[] k = new int[3];
+        final boolean[] east = new boolean[3];
+        bandStart = new int[bandsCount + 1];
+        for (int t = 0; t < trianglesCount; t++) {
+            triangleNodes(t, k, east);
+            if (!isDrawable(k)) {
+                firstBand[t] = 0;
+                lastBand[t] = -1;
+                continue;
+            }
+            final double minR = Math.min(nodeRow[k[0]], Math.min(nodeRow[k[1]], nodeRow[k[2]]));
+            final double maxR = Math.max(nodeRow[k[0]], Math.max(nodeRow[k[1]], nodeRow[k[2]]));
+            final int r0 = Math.max(0, (int) Math.ceil(minR - EDGE_EPS));
+            final int r1 = Math.min(rows - 1, (int) Math.floor(maxR + EDGE_EPS));
+            firstBand[t] = r0 / bandRows;
+            lastBand[t] = r1 < r0 ? -1 : r1 / bandRows;
+            for (int b = firstBand[t]; b <= lastBand[t]; b++) {
+                bandStart[b + 1]++;
+            }
+        }
+        for (int b = 0; b < bandsCount; b++) {
+            bandStart[b + 1] += bandStart[b];
+        }
+        bandTriangles = new int[bandStart[bandsCount]];
+        final int[] fill = Arrays.copyOf(bandStart, bandsCount);
+        for (int t = 0; t < trianglesCount; t++) {
+            for (int b = firstBand[t]; b <= lastBand[t]; b++) {
+                bandTriangles[fill[b]++] = t;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes of the lattice.
+     */
+    int getNodesCount() {
+        return lons.length * lats.length;
+    }
+
+    /**
+     * Computes the source coordinates of the cells of a band by
+     * scan-converting the triangles overlapping the band.
+     * @param band The index of the band.
+     * @param x Receives the horizontal source coordinates, row by row. NaN
+     * for cells that are not covered by any triangle.
+     * @param y Receives the vertical source coordinates.
+     */
+    void rasterizeBand(int band, double[] x, double[] y) {
+        Arrays.fill(x, Double.NaN);
+        Arrays.fill(y, Double.NaN);
+        final int firstRow = band * bandRows;
+        final int lastRow = Math.min(rows, firstRow + bandRows) - 1;
+        final int[] k = new int[3];
+        final boolean[] east = new boolean[3];
+        for (int b = bandStart[band]; b < bandStart[band + 1]; b++) {
+            triangleNodes(bandTriangles[b], k, east);
+            final double c0 = nodeCol[k[0]], r0 = nodeRow[k[0]];
+            final double c1 = nodeCol[k[1]], r1 = nodeRow[k[1]];
+            final double c2 = nodeCol[k[2]], r2 = nodeRow[k[2]];
+            final double det = (c1 - c0) * (r2 - r0) - (c2 - c0) * (r1 - r0);
+            if (det == 0) {
+                continue;
+            }
+            final double sx0 = east[0] ? eastSrcX[k[0]] : westSrcX[k[0]];
+            final double sy0 = east[0] ? eastSrcY[k[0]] : westSrcY[k[0]];
+            final double sx1 = east[1] ? eastSrcX[k[1]] : westSrcX[k[1]];
+            final double sy1 = east[1] ? eastSrcY[k[1]] : westSrcY[k[1]];
+            final double sx2 = east[2] ? eastSrcX[k[2]] : westSrcX[k[2]];
+            final double sy2 = east[2] ? eastSrcY[k[2]] : westSrcY[k[2]];
+
+            final double minC = Math.min(c0, Math.min(c1, c2));
+            final double maxC = Math.max(c0, Math.max(c1, c2));
+            final double minR = Math.min(r0, Math.min(r1, r2));
+            final double maxR = Math.max(r0, Math.max(r1, r2));
+            final int rowStart = Math.max(firstRow, (int) Math.ceil(minR - EDGE_EPS));
+            final int rowEnd = Math.min(lastRow, (int) Math.floor(maxR + EDGE_EPS));
+            final int colStart = Math.max(0, (int) Math.ceil(minC - EDGE_EPS));
+            final int colEnd = Math.min(cols - 1, (int) Math.floor(maxC + EDGE_EPS));
+            for (int row = rowStart; row <= rowEnd; row++) {
+                final double dr = row - r0;
+                final int rowOffset = (row - firstRow) * cols;
+                for (int col = colStart; col <= colEnd; col++) {
+                    final double dc = col - c0;
+
+                    // barycentric coordinates of the cell
+                    final double w1 = (dc * (r2 - r0) - (c2 - c0) * dr) / det;
+                    final double w2 = ((c1 - c0) * dr - dc * (r1 - r0)) / det;
+                    final double w0 = 1 - w1 - w2;
+                    if (w0 < -EDGE_EPS || w1 < -EDGE_EPS || w2 < -EDGE_EPS) {
+                        continue;
+                    }
+                    x[rowOffset + col] = w0 * sx0 + w1 * sx1 + w2 * sx2;
+                    y[rowOffset + col] = w0 * sy0 + w1 * sy1 + w2 * sy2;
+                }
+            }
+        }
+    }
+}
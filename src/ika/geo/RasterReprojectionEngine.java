@@ -0,0 +1,533 @@
+/*
+ * RasterReprojectionEngine.java
+ *
+ */
+
+package ika.geo;
+
+import com.jhlabs.map.MapMath;
+import com.jhlabs.map.proj.Projection;
+import ika.gui.ProgressIndicator;
+import ika.proj.RowInverse;
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Changes the projection of a raster. The output raster is split into bands
+ * of rows. The bands are computed in parallel by a pool of threads and then
+ * written in the order of the rows. Every band uses its own clones of the
+ * projections, because projections are not thread-safe. Only a few bands are
+ * computed ahead of the band that is written next, so that the required
+ * memory does not depend on the size of the raster.
+ *
+ * For each cell of the output raster, the engine computes the location in the
+ * source raster. The values of the cells are computed and written by a
+ * BandProcessor. Locations are either found with the inverse projection of
+ * the output raster, or by forward projecting a mesh of triangles that covers
+ * the graticule. The mesh is required for projections without an inverse.
+ *
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
+ */
+public class RasterReprojectionEngine {
+
+    /**
+     * Computes and writes the values of bands of the output raster.
+     * @param <B> The type of a computed band.
+     */
+    public interface BandProcessor<B> {
+
+        /**
+         * Computes the values of a band of cells. Called concurrently by
+         * several threads.
+         * @param x The horizontal coordinates in the source raster, row by
+         * row. NaN for cells outside of the graticule.
+         * @param y The vertical coordinates in the source raster.
+         * @param rows The number of rows in the band.
+         * @param cols The number of columns in the band.
+         * @return The computed band.
+         */
+        public B computeBand(double[] x, double[] y, int rows, int cols);
+
+        /**
+         * Writes a band. Called by one thread at a time, for one band after
+         * the other in the order of the rows.
+         * @param band A band returned by computeBand().
+         * @param rows The number of rows in the band.
+         * @param cols The number of columns in the band.
+         */
+        public void writeBand(B band, int rows, int cols) throws IOException;
+    }
+
+    /**
+     * The number of rows in a band.
+     */
+    private static final int BAND_ROWS = 16;
+
+    /**
+     * The maximum number of cells between two cells with exact coordinates
+     * when coordinates are approximated.
+     */
+    private static final int MAX_SEGMENT_CELLS = 32;
+
+    /**
+     * The projection of the output raster. Must be initialized.
+     */
+    private final Projection destProj;
+
+    /**
+     * The projection of the source raster, or null if the source raster uses
+     * longitude and latitude in degrees.
+     */
+    private final Projection srcProj;
+
+    /**
+     * Horizontal coordinate of the left border of the output raster.
+     */
+    private final double west;
+
+    /**
+     * Vertical coordinate of the top border of the output raster.
+     */
+    private final double north;
+
+    /**
+     * The size of a cell of the output raster.
+     */
+    private final double cellSize;
+
+    /**
+     * The size of the output raster.
+     */
+    private final int cols, rows;
+
+    /**
+     * The maximum deviation of interpolated source coordinates from the exact
+     * source coordinates, in units of the source raster. 0 if all cells are
+     * computed exactly.
+     */
+    private double tolerance = 0;
+
+    /**
+     * If true, source coordinates are interpolated in a forward projected
+     * mesh instead of being computed with the inverse projection.
+     */
+    private boolean forwardMapping;
+
+    /**
+     * The number of threads computing bands.
+     */
+    private int threadsCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates a new engine.
+     * @param destProj The projection of the output raster. Must be
+     * initialized. Must not be changed while the engine is running.
+     * @param srcProj The projection of the source raster, or null if the
+     * source raster uses longitude and latitude in degrees. Must be
+     * initialized. Projected source coordinates are scaled by the equatorial
+     * radius of destProj.
+     * @param west Horizontal coordinate of the left border of the output raster.
+     * @param north Vertical coordinate of the top border of the output raster.
+     * @param cellSize The size of a cell of the output raster.
+     * @param cols The number of columns of the output raster.
+     * @param rows The number of rows of the output raster.
+     */
+    public RasterReprojectionEngine(Projection destProj, Projection srcProj,
+            double west, double north, double cellSize, int cols, int rows) {
+        if (destProj == null) {
+            throw new IllegalArgumentException();
+        }
+        this.destProj = destProj;
+        this.srcProj = srcProj;
+        this.west = west;
+        this.north = north;
+        this.cellSize = cellSize;
+        this.cols = cols;
+        this.rows = rows;
+        this.forwardMapping = !destProj.hasInverse();
+    }
+
+    /**
+     * Returns the number of threads computing bands.
+     */
+    public int getThreadsCount() {
+        return threadsCount;
+    }
+
+    /**
+     * Sets the number of threads computing bands.
+     * @param threadsCount The number of threads. Must be at least 1.
+     */
+    public void setThreadsCount(int threadsCount) {
+        if (threadsCount < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.threadsCount = threadsCount;
+    }
+
+    /**
+     * Returns the tolerance for interpolating source coordinates.
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the tolerance for interpolating source coordinates. If larger
+     * than 0, source coordinates are only computed exactly for some cells of
+     * each row and linearly interpolated for the others. Rows are recursively
+     * subdivided where the interpolation deviates by more than the tolerance
+     * from the exact coordinates. The tolerance is not used with forward
+     * mapping, which has its own fixed tolerance.
+     * @param tolerance The maximum deviation in units of the source raster,
+     * for example the cell size of the source raster for a tolerance of one
+     * cell. 0 for exact coordinates.
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException();
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns true if source coordinates are interpolated in a forward
+     * projected mesh.
+     */
+    public boolean isForwardMapping() {
+        return forwardMapping;
+    }
+
+    /**
+     * Sets whether source coordinates are interpolated in a forward projected
+     * mesh of triangles instead of being computed with the inverse projection
+     * of the output raster. The mesh only projects its nodes, which is
+     * faster than inverting every cell with an iterative inverse projection.
+     * Source coordinates interpolated in the mesh usually deviate by less
+     * than a quarter of a cell from the exact coordinates. Forward mapping is initially
+     * selected if the projection of the output raster has no inverse.
+     * @param forwardMapping True for a forward projected mesh, false for the
+     * inverse projection.
+     */
+    public void setForwardMapping(boolean forwardMapping) {
+        if (!forwardMapping && !destProj.hasInverse()) {
+            throw new IllegalArgumentException("Projection has no inverse.");
+        }
+        this.forwardMapping = forwardMapping;
+    }
+
+    /**
+     * Computes and writes all bands of the output raster. Returns when all
+     * bands are written or when the operation is cancelled.
+     * @param processor Computes and writes the bands.
+     * @param progressIndicator Informed of the progress. Can be null.
+     * @return True if all bands were written, false if the operation was
+     * cancelled by the progress indicator.
+     * @throws IOException If a band cannot be written.
+     */
+    public <B> boolean run(final BandProcessor<B> processor,
+            ProgressIndicator progressIndicator) throws IOException {
+
+        final int bandsCount = (rows + BAND_ROWS - 1) / BAND_ROWS;
+
+        // the horizontal coordinates are identical for all rows
+        final double earthRadius = destProj.getEquatorRadius();
+        final double[] rowX = new double[cols];
+        for (int col = 0; col < cols; col++) {
+            rowX[col] = (west + col * cellSize) / earthRadius;
+        }
+
+        // the mesh is shared by all bands
+        final ProjectedMesh mesh = forwardMapping
+                ? new ProjectedMesh(destProj, srcProj, west, north, cellSize,
+                cols, rows, BAND_ROWS) : null;
+
+        // a few bands per thread are computed ahead of the written band
+        final int maxPendingBands = threadsCount * 2;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        final ArrayDeque<Future<B>> pendingBands = new ArrayDeque<Future<B>>();
+        try {
+            int nextBand = 0;
+            int writtenBands = 0;
+            while (writtenBands < bandsCount) {
+
+                // submit bands until the buffer is full
+                while (nextBand < bandsCount && pendingBands.size() < maxPendingBands) {
+                    final int band = nextBand;
+                    final int firstRow = band * BAND_ROWS;
+                    final int bandRows = Math.min(BAND_ROWS, rows - firstRow);
+                    final Projection dest = mesh != null ? null : (Projection) destProj.clone();
+                    final Projection src = mesh != null || srcProj == null
+                            ? null : (Projection) srcProj.clone();
+                    pendingBands.add(executor.submit(new Callable<B>() {
+                        @Override
+                        public B call() {
+                            final double[] x = new double[bandRows * cols];
+                            final double[] y = new double[bandRows * cols];
+                            if (mesh != null) {
+                                mesh.rasterizeBand(band, x, y);
+                            } else {
+                                computeSourceCoordinates(dest, src, rowX, firstRow, bandRows, x, y);
+                            }
+                            return processor.computeBand(x, y, bandRows, cols);
+                        }
+                    }));
+                    nextBand++;
+                }
+
+                // write the next band in the order of the rows
+                final int firstRow = writtenBands * BAND_ROWS;
+                final int bandRows = Math.min(BAND_ROWS, rows - firstRow);
+                processor.writeBand(waitForBand(pendingBands.poll()), bandRows, cols);
+                writtenBands++;
+
+                if (progressIndicator != null) {
+                    final int percentage = (int) ((long) writtenBands * 100 / bandsCount);
+                    if (!progressIndicator.progress(percentage)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            for (Future<B> future : pendingBands) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until a band is computed and returns it.
+     */
+    private static <B> B waitForBand(Future<B> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Projection of raster interrupted.");
+        } catch (ExecutionException exc) {
+            final Throwable cause = exc.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Computes the coordinates in the source raster for a band of rows.
+     * @param dest Clone of the projection of the output raster.
+     * @param src Clone of the projection of the source raster, or null.
+     * @param rowX The horizontal coordinates of the output cells on the
+     * unary sphere.
+     * @param firstRow The first row of the band.
+     * @param bandRows The number of rows in the band.
+     * @param x Receives the horizontal source coordinates.
+     * @param y Receives the vertical source coordinates.
+     */
+    private void computeSourceCoordinates(Projection dest, Projection src,
+            double[] rowX, int firstRow, int bandRows, double[] x, double[] y) {
+
+        BandTransformer transformer = new BandTransformer(dest, src, rowX, x, y);
+        for (int r = 0; r < bandRows; r++) {
+            transformer.startRow(r, firstRow + r);
+            if (tolerance > 0 && cols > 2) {
+                // the middle of a long segment can coincidentally fall on the
+                // line between its ends, so segments are first limited in length
+                transformer.transform(0);
+                for (int col0 = 0; col0 < cols - 1; col0 += MAX_SEGMENT_CELLS) {
+                    final int col1 = Math.min(col0 + MAX_SEGMENT_CELLS, cols - 1);
+                    transformer.transform(col1);
+                    transformer.approximate(col0, col1);
+                }
+            } else {
+                for (int col = 0; col < cols; col++) {
+                    transformer.transform(col);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes source coordinates for the cells of a band, exactly or by
+     * linear interpolation between exactly computed cells.
+     */
+    private final class BandTransformer {
+
+        private final Projection dest;
+        private final Projection src;
+        private final double[] rowX;
+        private final double[] x;
+        private final double[] y;
+        private final double earthRadius;
+        private final double lon0;
+
+        /**
+         * True if all cells of a row can be inverted at once.
+         */
+        private final boolean rowInverse;
+
+        /**
+         * Longitudes computed by the row inverse.
+         */
+        private final double[] rowLon;
+
+        /**
+         * Latitude of the current row computed by the row inverse.
+         */
+        private double rowLat;
+
+        /**
+         * Vertical coordinate of the current row on the unary sphere.
+         */
+        private double dstY;
+
+        /**
+         * Index of the first cell of the current row in x and y.
+         */
+        private int rowStart;
+
+        private final Point2D.Double lonlat = new Point2D.Double();
+        private final Point2D.Double srcXY = new Point2D.Double();
+
+        BandTransformer(Projection dest, Projection src, double[] rowX,
+                double[] x, double[] y) {
+            this.dest = dest;
+            this.src = src;
+            this.rowX = rowX;
+            this.x = x;
+            this.y = y;
+            earthRadius = dest.getEquatorRadius();
+            lon0 = dest.getProjectionLongitude();
+            rowInverse = dest instanceof RowInverse
+                    && ((RowInverse) dest).hasRowInverse();
+            rowLon = rowInverse ? new double[cols] : null;
+        }
+
+        /**
+         * Prepares the computation of a row.
+         * @param bandRow The row in the band.
+         * @param row The row in the output raster.
+         */
+        void startRow(int bandRow, int row) {
+            rowStart = bandRow * cols;
+            dstY = (north - row * cellSize) / earthRadius;
+            if (rowInverse) {
+                rowLat = ((RowInverse) dest).projectInverseRow(rowX, dstY, rowLon, 0, cols);
+            }
+        }
+
+        /**
+         * Computes the exact source coordinates of a cell of the current row.
+         * @param col The column of the cell.
+         */
+        void transform(int col) {
+            final int i = rowStart + col;
+
+            // inverse projection from the projected output raster to
+            // longitude/latitude. Don't use inverseTransformRadians here.
+            // The lon/lat values have to be checked after the inverse
+            // projection to make sure they fall in [-PI..+PI] for the
+            // longitude, and [-PI/2..+PI/2] for the latitude.
+            if (rowInverse) {
+                lonlat.x = rowLon[col];
+                lonlat.y = rowLat;
+            } else {
+                dest.projectInverse(rowX[col], dstY, lonlat);
+            }
+            if (Double.isNaN(lonlat.x) || Double.isNaN(lonlat.y)
+                    || lonlat.x < -Math.PI || lonlat.x > Math.PI
+                    || lonlat.y < -Math.PI / 2 || lonlat.y > Math.PI / 2) {
+                x[i] = y[i] = Double.NaN;
+                return;
+            }
+            if (lon0 != 0) {
+                lonlat.x = MapMath.normalizeLongitude(lonlat.x + lon0);
+            }
+
+            if (src == null) {
+                x[i] = Math.toDegrees(lonlat.x);
+                y[i] = Math.toDegrees(lonlat.y);
+            } else {
+                // forward projection from longitude/latitude to the
+                // projected source raster
+                src.project(lonlat.x, lonlat.y, srcXY);
+                x[i] = srcXY.x * earthRadius;
+                y[i] = srcXY.y * earthRadius;
+            }
+        }
+
+        /**
+         * Computes the cells between two exactly computed cells of the
+         * current row. The cell in the middle and the cells at a quarter and
+         * at three quarters of the segment are computed exactly. If they
+         * deviate from the linear interpolation between the two cells by
+         * less than the tolerance, the other cells are interpolated. Otherwise
+         * both halves are subdivided. Testing the quarters detects curves
+         * with an inflection in the middle of the segment. Cells next to
+         * cells outside of the graticule are always computed exactly.
+         * @param col0 The first column, already computed.
+         * @param col1 The last column, already computed.
+         */
+        void approximate(int col0, int col1) {
+            if (col1 - col0 < 2) {
+                return;
+            }
+            final int colM = (col0 + col1) >>> 1;
+            transform(colM);
+            boolean interpolate = isInterpolated(col0, col1, colM);
+            if (interpolate && col1 - col0 >= 8) {
+                final int colQ1 = (col0 + colM) >>> 1;
+                final int colQ3 = (colM + col1) >>> 1;
+                transform(colQ1);
+                transform(colQ3);
+                interpolate = isInterpolated(col0, col1, colQ1)
+                        && isInterpolated(col0, col1, colQ3);
+            }
+
+            if (interpolate) {
+                final int i0 = rowStart + col0;
+                final int i1 = rowStart + col1;
+                final double n = col1 - col0;
+                for (int col = col0 + 1; col < col1; col++) {
+                    final double u = (col - col0) / n;
+                    x[rowStart + col] = x[i0] + u * (x[i1] - x[i0]);
+                    y[rowStart + col] = y[i0] + u * (y[i1] - y[i0]);
+                }
+            } else {
+                approximate(col0, colM);
+                approximate(colM, col1);
+            }
+        }
+
+        /**
+         * Returns true if the exact coordinates of a cell deviate by less than
+         * the tolerance from the linear interpolation between two cells.
+         * Returns false if any of the cells is outside of the graticule.
+         * @param col0 The first column of the segment.
+         * @param col1 The last column of the segment.
+         * @param col The column of the tested cell.
+         */
+        private boolean isInterpolated(int col0, int col1, int col) {
+            final int i0 = rowStart + col0;
+            final int i1 = rowStart + col1;
+            final int i = rowStart + col;
+            final double t = (double) (col - col0) / (col1 - col0);
+            final double dx = x[i0] + t * (x[i1] - x[i0]) - x[i];
+            final double dy = y[i0] + t * (y[i1] - y[i0]) - y[i];
+
+            // NaN values fail this test
+            return Math.abs(dx) <= tolerance && Math.abs(dy) <= tolerance;
+        }
+    }
+}
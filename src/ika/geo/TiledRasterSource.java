@@ -0,0 +1,559 @@
+/*
+ * TiledRasterSource.java
+ *
+ */
+
+package ika.geo;
+
+import ika.geoimport.WorldFileImporter;
+import ika.utils.ImageUtils;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A georeferenced image that is read in tiles when its pixels are needed,
+ * for images that are too large to be held in memory. Decoded tiles are kept
+ * in a cache with a fixed size in bytes; the least recently used tile is
+ * removed when the cache is full. Tiles are read with the region and
+ * subsampling parameters of the ImageReader.
+ *
+ * Tiled images are read in tiles of the file. Other images are read in
+ * strips of full rows, which is efficient for striped TIFF files. Readers for
+ * formats without random access (such as JPEG or PNG) would decode the image
+ * from the start for each strip, so images in these formats are refused if
+ * they do not fit in a single strip.
+ *
+ * Interpolated values are identical to the values of a GeoImage with the
+ * same pixels. Pixels can be sampled concurrently by several threads. The
+ * cache is locked only to look up and add tiles. Tiles are decoded one at a
+ * time with a separate lock, and threads requesting a tile that is being
+ * decoded wait for this tile only.
+ *
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich
+ */
+public class TiledRasterSource implements ImageSource, Closeable {
+
+    /**
+     * The minimum width and height of a tile in pixels.
+     */
+    private static final int MIN_TILE_SIZE = 256;
+
+    /**
+     * The maximum size of a strip of an image that is not tiled, in bytes.
+     * Strips are smaller if the cache cannot hold several strips.
+     */
+    private static final long STRIP_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * A decoded tile.
+     */
+    private static final class Tile {
+
+        /**
+         * The column and row of the tile.
+         */
+        final int tileCol, tileRow;
+
+        /**
+         * The column and row of the first pixel of the tile in the image.
+         */
+        final int col0, row0;
+
+        /**
+         * The number of pixels in a row of the tile.
+         */
+        final int width;
+
+        /**
+         * The pixels of the tile.
+         */
+        final GeoImage.PixelStore pixels;
+
+        /**
+         * The approximate size of the tile in memory.
+         */
+        final long bytes;
+
+        Tile(int tileCol, int tileRow, int col0, int row0, BufferedImage image) {
+            this.tileCol = tileCol;
+            this.tileRow = tileRow;
+            this.col0 = col0;
+            this.row0 = row0;
+            this.width = image.getWidth();
+            this.pixels = GeoImage.PixelStore.create(image);
+            this.bytes = this.pixels.argb != null
+                    ? 4L * this.pixels.argb.length
+                    : this.pixels.samples.length + 4L * this.pixels.colors.length;
+        }
+    }
+
+    private final ImageReader reader;
+    private final ImageInputStream input;
+    private final int imageIndex;
+
+    /**
+     * Lock for decoding with the reader, which cannot be shared by threads.
+     * Must not be acquired while holding the lock on this object.
+     */
+    private final Object readerLock = new Object();
+
+    /**
+     * Only every subsampling-th pixel is read in both directions.
+     */
+    private final int subsampling;
+
+    /**
+     * The size of the subsampled image.
+     */
+    private final int cols, rows;
+
+    /**
+     * The size of a tile in pixels of the subsampled image.
+     */
+    private final int tileWidth, tileHeight;
+
+    /**
+     * The number of tiles in a row.
+     */
+    private final int tilesPerRow;
+
+    /**
+     * True if a world file was found.
+     */
+    private final boolean georeferenced;
+
+    private double west, north, cellSize;
+
+    /**
+     * Decoded tiles ordered from the least recently to the most recently
+     * used.
+     */
+    private final LinkedHashMap<Integer, Tile> cache
+            = new LinkedHashMap<Integer, Tile>(16, 0.75f, true);
+
+    /**
+     * Tiles that are being decoded, by cache key. Other threads requesting
+     * one of these tiles wait for the decoding thread.
+     */
+    private final HashMap<Integer, FutureTask<Tile>> pendingTiles
+            = new HashMap<Integer, FutureTask<Tile>>();
+
+    /**
+     * The maximum size of the cached tiles in bytes.
+     */
+    private final long maxCacheBytes;
+
+    /**
+     * The current size of the cached tiles in bytes.
+     */
+    private long cacheBytes = 0;
+
+    /**
+     * The number of decoded tiles.
+     */
+    private long tilesRead = 0;
+
+    /**
+     * The number of tile requests that were not served by the last tile
+     * used by the requesting thread.
+     */
+    private long tileRequests = 0;
+
+    /**
+     * The tile last used by each thread, which usually contains the next
+     * requested pixel and can be accessed without locking the cache.
+     */
+    private final ThreadLocal<Tile> lastTile = new ThreadLocal<Tile>();
+
+    /**
+     * Opens an image. The pixels are read when they are needed. The image is
+     * georeferenced with a world file if there is one. Otherwise, the lower
+     * left corner of the image is placed at 0/0 and the size of a pixel is 1.
+     * @param url The image file.
+     * @param subsampling Only every subsampling-th pixel is read in both
+     * directions. 1 to read all pixels.
+     * @param maxCacheBytes The maximum size of the decoded tiles kept in
+     * memory.
+     */
+    public TiledRasterSource(URL url, int subsampling, long maxCacheBytes)
+            throws IOException {
+        if (subsampling < 1 || maxCacheBytes <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.reader = ImageUtils.findImageReader(url);
+        if (this.reader == null) {
+            throw new IOException("The image is not readable.");
+        }
+        // read local files directly, a stream from a URL is copied to a
+        // temporary cache file
+        if (url.getProtocol().equals("file")) {
+            this.input = ImageIO.createImageInputStream(new File(url.getFile()));
+        } else {
+            this.input = ImageIO.createImageInputStream(url.openStream());
+        }
+        if (this.input == null) {
+            this.reader.dispose();
+            throw new IOException("The image is not readable.");
+        }
+        this.reader.setInput(this.input, false, true);
+        this.imageIndex = this.reader.getMinIndex();
+        this.subsampling = subsampling;
+        this.maxCacheBytes = maxCacheBytes;
+
+        final int w, h;
+        final boolean tiled;
+        int fileTileWidth = 0, fileTileHeight = 0;
+        try {
+            w = this.reader.getWidth(this.imageIndex);
+            h = this.reader.getHeight(this.imageIndex);
+            tiled = this.reader.isImageTiled(this.imageIndex);
+            if (tiled) {
+                fileTileWidth = this.reader.getTileWidth(this.imageIndex);
+                fileTileHeight = this.reader.getTileHeight(this.imageIndex);
+            }
+        } catch (IOException exc) {
+            this.reader.dispose();
+            this.input.close();
+            throw exc;
+        }
+        this.cols = (w + subsampling - 1) / subsampling;
+        this.rows = (h + subsampling - 1) / subsampling;
+
+        if (tiled) {
+            // combine tiles of the file to tiles of at least MIN_TILE_SIZE
+            this.tileWidth = multipleOf(fileTileWidth, subsampling);
+            this.tileHeight = multipleOf(fileTileHeight, subsampling);
+        } else {
+            // the cache holds at least four strips, as bicubic interpolation
+            // alternates between neighboring strips
+            final long stripBytes = Math.min(STRIP_BYTES, maxCacheBytes / 4);
+            this.tileWidth = this.cols;
+            this.tileHeight = (int) Math.max(1, Math.min(this.rows,
+                    stripBytes / (4L * this.cols)));
+            if (this.tileHeight < this.rows && !canReadStrips(this.reader)) {
+                this.reader.dispose();
+                this.input.close();
+                throw new IOException("The image is too large to be read "
+                        + "at once. Please convert it to TIFF, which "
+                        + "can be read in parts.");
+            }
+        }
+        this.tilesPerRow = (this.cols + this.tileWidth - 1) / this.tileWidth;
+
+        this.cellSize = 1;
+        this.west = 0;
+        this.north = this.rows;
+        URL worldFileURL = WorldFileImporter.searchWorldFile(url);
+        this.georeferenced = worldFileURL != null;
+        if (worldFileURL != null) {
+            WorldFileImporter.readWorldFile(this, worldFileURL);
+            this.cellSize *= subsampling;
+        }
+    }
+
+    /**
+     * Returns true if a reader can decode a strip of rows without decoding
+     * the rows above the strip. This is the case for TIFF files, which store
+     * the rows in strips or tiles.
+     */
+    private static boolean canReadStrips(ImageReader reader) {
+        ImageReaderSpi provider = reader.getOriginatingProvider();
+        if (provider == null) {
+            return false;
+        }
+        for (String formatName : provider.getFormatNames()) {
+            if ("tif".equalsIgnoreCase(formatName)
+                    || "tiff".equalsIgnoreCase(formatName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of subsampled pixels covering a whole number of
+     * tiles of the file and at least MIN_TILE_SIZE subsampled pixels.
+     */
+    private static int multipleOf(int fileTileSize, int subsampling) {
+        final int minFileSize = MIN_TILE_SIZE * subsampling;
+        final int fileSize = ((minFileSize + fileTileSize - 1) / fileTileSize) * fileTileSize;
+        return Math.max(1, fileSize / subsampling);
+    }
+
+    /**
+     * Returns true if a world file with georeferencing information was found.
+     */
+    public boolean isGeoreferenced() {
+        return georeferenced;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public double getWest() {
+        return west;
+    }
+
+    public void setWest(double west) {
+        this.west = west;
+    }
+
+    public double getNorth() {
+        return north;
+    }
+
+    public void setNorth(double north) {
+        this.north = north;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public void setCellSize(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Nothing to prepare, tiles are read when they are needed.
+     */
+    public void prepareInterpolation() {
+    }
+
+    /**
+     * Returns the share of tile changes that found the tile in the cache
+     * and did not require decoding the tile.
+     */
+    public synchronized double getCacheHitRate() {
+        return tileRequests == 0 ? 1 : 1 - (double) tilesRead / tileRequests;
+    }
+
+    /**
+     * Closes the image file. Pixels cannot be read afterwards.
+     */
+    public void close() throws IOException {
+        synchronized (readerLock) {
+            synchronized (this) {
+                cache.clear();
+                cacheBytes = 0;
+                reader.dispose();
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a tile, reads the tile if it is not in the cache.
+     */
+    private Tile getTile(final int tileCol, final int tileRow) throws IOException {
+        Tile tile = lastTile.get();
+        if (tile != null && tile.tileCol == tileCol && tile.tileRow == tileRow) {
+            return tile;
+        }
+
+        // look up the tile, or register this thread for decoding it
+        final Integer key = tileRow * tilesPerRow + tileCol;
+        FutureTask<Tile> future = null;
+        boolean decode = false;
+        synchronized (this) {
+            ++tileRequests;
+            tile = cache.get(key);
+            if (tile == null) {
+                future = pendingTiles.get(key);
+                if (future == null) {
+                    future = new FutureTask<Tile>(new Callable<Tile>() {
+                        @Override
+                        public Tile call() throws IOException {
+                            synchronized (readerLock) {
+                                return readTile(tileCol, tileRow);
+                            }
+                        }
+                    });
+                    pendingTiles.put(key, future);
+                    decode = true;
+                }
+            }
+        }
+
+        if (tile == null) {
+            // decode without locking the cache, or wait for the thread
+            // decoding the same tile
+            if (decode) {
+                future.run();
+            }
+            try {
+                tile = waitForTile(future);
+            } finally {
+                if (decode) {
+                    publishTile(key, tile);
+                }
+            }
+        }
+        lastTile.set(tile);
+        return tile;
+    }
+
+    /**
+     * Returns the tile decoded by a FutureTask.
+     */
+    private static Tile waitForTile(FutureTask<Tile> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException exc) {
+            final Throwable cause = exc.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Adds a decoded tile to the cache and removes the least recently used
+     * tiles if the cache is full.
+     * @param key The key of the tile.
+     * @param tile The decoded tile, or null if decoding failed.
+     */
+    private synchronized void publishTile(Integer key, Tile tile) {
+        pendingTiles.remove(key);
+        if (tile == null) {
+            return;
+        }
+        ++tilesRead;
+        cache.put(key, tile);
+        cacheBytes += tile.bytes;
+
+        // remove the least recently used tiles
+        Iterator<Map.Entry<Integer, Tile>> iterator = cache.entrySet().iterator();
+        while (cacheBytes > maxCacheBytes && cache.size() > 1) {
+            cacheBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Decodes a tile.
+     */
+    private Tile readTile(int tileCol, int tileRow) throws IOException {
+        final int col0 = tileCol * tileWidth;
+        final int row0 = tileRow * tileHeight;
+        final int w = reader.getWidth(imageIndex);
+        final int h = reader.getHeight(imageIndex);
+        final int x = col0 * subsampling;
+        final int y = row0 * subsampling;
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y,
+                Math.min(tileWidth * subsampling, w - x),
+                Math.min(tileHeight * subsampling, h - y)));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        BufferedImage image = reader.read(imageIndex, param);
+        return new Tile(tileCol, tileRow, col0, row0, image);
+    }
+
+    /**
+     * Returns the argb value of a pixel inside the image.
+     */
+    private int getPixel(int col, int row) {
+        try {
+            final Tile tile = getTile(col / tileWidth, row / tileHeight);
+            return tile.pixels.get((row - tile.row0) * tile.width + col - tile.col0);
+        } catch (IOException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    public int getNearestNeighbor(double x, double y) {
+        int col = (int) ((x - this.west) / this.cellSize);
+        int row = (int) ((this.north - y) / this.cellSize);
+
+        // same border handling as GeoImage
+        if (col == cols) {
+            col = cols - 1;
+        } else if (col < 0 || col > cols) {
+            return 0;
+        }
+        if (row == rows) {
+            row = rows - 1;
+        } else if (row < 0 || row > rows) {
+            return 0;
+        }
+        return getPixel(col, row);
+    }
+
+    public int getBicubicInterpol(double x, double y) {
+        // column and row of the top left corner
+        final int col1 = (int) ((x - this.west) / this.cellSize);
+        final int row1 = (int) ((this.north - y) / this.cellSize);
+
+        // outside of the image, same border handling as GeoImage
+        if (col1 < 0 || col1 > cols || row1 < 0 || row1 > rows) {
+            return 0;
+        }
+
+        final double u = ((x - this.west) - col1 * this.cellSize) / cellSize;
+        final double v = ((this.north - y) - row1 * this.cellSize) / cellSize;
+
+        // the 4 x 4 neighborhood is usually inside a single tile
+        final int col0 = col1 - 1;
+        final int row0 = row1 - 1;
+        final boolean inside = col0 >= 0 && col0 + 3 < cols
+                && row0 >= 0 && row0 + 3 < rows;
+        final int tileCol = col0 / tileWidth;
+        final int tileRow = row0 / tileHeight;
+        if (inside && tileCol == (col0 + 3) / tileWidth
+                && tileRow == (row0 + 3) / tileHeight) {
+            final Tile tile;
+            try {
+                tile = getTile(tileCol, tileRow);
+            } catch (IOException exc) {
+                throw new IllegalStateException(exc);
+            }
+            final int i0 = (row0 - tile.row0) * tile.width + col0 - tile.col0;
+            return GeoImage.bicubic(tile.pixels, i0, tile.width, u, v);
+        }
+
+        // the neighborhood crosses the border of a tile or of the image.
+        // Pixels outside of the image are replaced by the closest pixel on
+        // the border of the image.
+        final int[] neighborhood = new int[16];
+        for (int r = 0; r < 4; r++) {
+            final int row = Math.min(Math.max(row0 + r, 0), rows - 1);
+            for (int c = 0; c < 4; c++) {
+                final int col = Math.min(Math.max(col0 + c, 0), cols - 1);
+                neighborhood[r * 4 + c] = getPixel(col, row);
+            }
+        }
+        return GeoImage.bicubic(new GeoImage.PixelStore(neighborhood, null, null), 0, 4, u, v);
+    }
+}
@@ -98,9 +98,10 @@ public class ImageImporter extends GeoImporter {
             this.getProgressIndicator().disableCancel();
         }
 
-        // optimize the image for fast display
+        // optimize the image for fast display. Grayscale and indexed images
+        // are not converted, as this would quadruple the required memory.
         BufferedImage bufferedImage;
-        if (optimizeForDisplay) {
+        if (optimizeForDisplay && !GeoImage.isCompact(metaBufferedImage.image)) {
             bufferedImage =
                     ImageUtils.optimizeForGraphicsHardware(metaBufferedImage.image);
         } else {
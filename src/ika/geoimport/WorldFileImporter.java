@@ -6,7 +6,7 @@
  */
 package ika.geoimport;
 
-import ika.geo.GeoImage;
+import ika.geo.ImageSource;
 import ika.utils.FileUtils;
 import ika.utils.URLUtils;
 import java.io.BufferedReader;
@@ -99,12 +99,12 @@ public class WorldFileImporter {
 
     /**
      * Reads georeferencing information for a raster image from a World file and
-     * configures a GeoImage accordingly.
-     * @param geoImage The GeoImage that will be georeferenced.
+     * configures a GeoImage or another ImageSource accordingly.
+     * @param image The image that will be georeferenced.
      * @param worldFile The World file containing the georeferencing information.
      * @throws java.io.IOException Throws an IOException if any error related to the file occurs.
      */
-    public static void readWorldFile(GeoImage geoImage, URL worldFile)
+    public static void readWorldFile(ImageSource image, URL worldFile)
             throws java.io.IOException {
 
         InputStreamReader isr = new InputStreamReader(worldFile.openStream());
@@ -128,10 +128,10 @@ public class WorldFileImporter {
                         " image rotation.");
             }
             
-            geoImage.setCellSize(pixelSizeHorizontal);
+            image.setCellSize(pixelSizeHorizontal);
 
-            geoImage.setWest(west);
-            geoImage.setNorth(north);
+            image.setWest(west);
+            image.setNorth(north);
         } finally {
             if (in != null) {
                 try {
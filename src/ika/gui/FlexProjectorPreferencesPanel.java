@@ -32,6 +32,11 @@ public class FlexProjectorPreferencesPanel extends JPanel
      * bicubic spline interpolation for grids and images.
      */
     public static final int INTERPOLATION_BICUBIC = 1;
+    /**
+     * key to store the tolerance for the approximate projection of grids and
+     * images in cells of the source raster. 0 for exact projection.
+     */
+    public static final String APPROXIMATION_TOLERANCE_PREFS = "approximation_tolerance";
     private static final String FLEX_R = "flexr";
     private static final String FLEX_G = "flexg";
     private static final String FLEX_B = "flexb";
@@ -99,6 +104,15 @@ public class FlexProjectorPreferencesPanel extends JPanel
         return interpol == INTERPOLATION_NEAREST;
     }
 
+    /**
+     * Returns the tolerance for the approximate projection of grids and images
+     * in cells of the source raster. 0 for exact projection.
+     */
+    public static double getApproximationTolerance() {
+        Preferences prefs = getPreferences();
+        return Math.max(0, prefs.getDouble(APPROXIMATION_TOLERANCE_PREFS, 0));
+    }
+
     public static boolean isAreaAcceptanceRelativeTo1() {
         Preferences prefs = getPreferences();
         return prefs.getBoolean(ACCEPTANCE_RELATIVE_TO_1, true);
@@ -126,6 +140,7 @@ public class FlexProjectorPreferencesPanel extends JPanel
             default:
                 this.nearestNeighborRadioButton.setSelected(true);
         }
+        this.toleranceSpinner.setValue(getApproximationTolerance());
 
         // init color buttons
         this.flexColorButton.setColor(getFlexColor());
@@ -211,6 +226,8 @@ public class FlexProjectorPreferencesPanel extends JPanel
         javax.swing.JLabel interpolationLabel = new javax.swing.JLabel();
         nearestNeighborRadioButton = new javax.swing.JRadioButton();
         bicubicRadioButton = new javax.swing.JRadioButton();
+        javax.swing.JLabel toleranceLabel = new javax.swing.JLabel();
+        toleranceSpinner = new javax.swing.JSpinner();
         javax.swing.JLabel areaDistortionLabel = new javax.swing.JLabel();
         qAreaEqualRadioButton = new javax.swing.JRadioButton();
         qAreaMinRadioButton = new javax.swing.JRadioButton();
@@ -423,6 +440,22 @@ public class FlexProjectorPreferencesPanel extends JPanel
         gridBagConstraints.insets = new java.awt.Insets(0, 40, 0, 0);
         extrasPanelContent.add(bicubicRadioButton, gridBagConstraints);
 
+        toleranceLabel.setText("Approximation Tolerance in Pixels (0 = Exact):");
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+        gridBagConstraints.insets = new java.awt.Insets(12, 40, 0, 0);
+        extrasPanelContent.add(toleranceLabel, gridBagConstraints);
+
+        toleranceSpinner.setModel(new javax.swing.SpinnerNumberModel(0.0d, 0.0d, 10.0d, 0.125d));
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+        gridBagConstraints.insets = new java.awt.Insets(4, 40, 0, 0);
+        extrasPanelContent.add(toleranceSpinner, gridBagConstraints);
+
         areaDistortionLabel.setText("Acceptance Index");
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
@@ -512,6 +545,10 @@ public class FlexProjectorPreferencesPanel extends JPanel
         }
         prefs.putInt(INTERPOLATION_PREFS, interpolation);
 
+        // read approximation tolerance
+        double tolerance = ((Number) this.toleranceSpinner.getValue()).doubleValue();
+        prefs.putDouble(APPROXIMATION_TOLERANCE_PREFS, tolerance);
+
         // read area acceptance
         final boolean relTo1 = this.qAreaEqualRadioButton.isSelected();
         prefs.putBoolean(ACCEPTANCE_RELATIVE_TO_1, relTo1);
@@ -598,5 +635,6 @@ public class FlexProjectorPreferencesPanel extends JPanel
     private javax.swing.JButton selectDefaultProjectionsButton;
     private javax.swing.JButton selectNoProjectionButton;
     private javax.swing.JTabbedPane tabbedPane;
+    private javax.swing.JSpinner toleranceSpinner;
     // End of variables declaration//GEN-END:variables
 }
@@ -1894,7 +1894,8 @@ minimizeMenuItem.addActionListener(new java.awt.event.ActionListener() {
                 null, null, null);
         if (res == JOptionPane.OK_OPTION) {
             if (jcb.getSelectedIndex() == projNames.size() - 1) {
-                proj = projectionBrewerPanel.getModel().getDesignProjection();
+                // the projection is used by another thread
+                proj = projectionBrewerPanel.getModel().getDesignProjection().snapshot();
                 proj = cloneAndNormalizeIfFlexProjection(proj);
             } else {
                 proj = ProjectionsManager.getProjection((String) (jcb.getSelectedItem()));
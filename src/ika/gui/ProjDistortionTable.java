@@ -178,8 +178,10 @@ public class ProjDistortionTable extends JTable implements QModel.QListener,
                 int column) {
             
             synchronized (model.getDisplayModel().distParams) {
-                Projection proj = model.getDisplayModel().distParams.get(row).getProjection();
-                isSelected |= proj == model.getDesignProjection();
+                // the parameters of the design projection are computed with
+                // a snapshot of the design projection
+                ProjectionDistortionParameters params = model.getDisplayModel().distParams.get(row);
+                isSelected |= params == model.getDisplayModel().foreDist;
             }
             
             Component comp = super.getTableCellRendererComponent(table,value,
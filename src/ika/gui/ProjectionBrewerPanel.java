@@ -44,6 +44,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.*;
@@ -96,6 +97,11 @@ public class ProjectionBrewerPanel extends javax.swing.JPanel {
      * guaranteed to be executed sequentially.
      */
     private final ExecutorService asynchTableUpdater = Executors.newSingleThreadExecutor();
+    /**
+     * Incremented for each update of the distortion indices. A computation
+     * of the indices is cancelled when this changes.
+     */
+    private final AtomicLong distortionIndicesGeneration = new AtomicLong();
     /**
      * listeners that are informed whenever the design projection changes.
      */
@@ -451,22 +457,51 @@ public class ProjectionBrewerPanel extends javax.swing.JPanel {
         // Update the distortion parameters of the foreground projection.
         // These parameters are displayed in a table and are used for
         // distortion visualizations.
-        // This is done in another thread to keep the GUI responsive.
-        // FIXME concurrent access to foreProj, dist and qModel
+        // This is done in another thread to keep the GUI responsive. The
+        // other thread uses snapshots of the design projection, the
+        // distortion parameters and the Q model, which are not changed by the
+        // event dispatching thread. The result of each refinement is copied
+        // and handed to the event dispatching thread, which swaps it into
+        // the display model.
+        // A coarse estimate of the indices is displayed first and then
+        // refined. A new update cancels the refinement of older updates,
+        // which stop after the row that is currently computed.
         final Projection foreProj = model.getDesignProjection();
+        final Projection foreProjSnapshot = model.getDesignProjection().snapshot();
+        final ProjectionDistortionParameters foreDist = model.getDisplayModel().foreDist;
+        final ProjectionDistortionParameters dist = foreDist.copy();
+        final QModel qModel = new QModel(model.getDisplayModel().qModel);
+        final long generation = distortionIndicesGeneration.incrementAndGet();
         asynchTableUpdater.execute(new Runnable() {
             @Override
             public void run() {
 
-                ProjectionDistortionParameters dist = model.getDisplayModel().foreDist;
-                QModel qModel = model.getDisplayModel().qModel;
-                dist.computeDistortionIndices(qModel, foreProj);
+                dist.computeDistortionIndicesProgressively(qModel, foreProjSnapshot,
+                        ProjectionDistortionParameters.PROGRESSIVE_SAMPLING_DIST_DEG,
+                        new ProjectionDistortionParameters.RefinementListener() {
+                    @Override
+                    public boolean isCancelled() {
+                        return distortionIndicesGeneration.get() != generation;
+                    }
 
-                // inform listeners in event dispatching thread
-                SwingUtilities.invokeLater(new Runnable() {
                     @Override
-                    public void run() {
-                        designProjectionChangeListeners.announce().designProjectionChanged(foreProj);
+                    public void indicesRefined(ProjectionDistortionParameters params,
+                            boolean isFinal) {
+                        // the next refinement changes params
+                        final ProjectionDistortionParameters refined = params.copy();
+                        // update the display model and inform listeners in
+                        // event dispatching thread
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (distortionIndicesGeneration.get() == generation) {
+                                    foreDist.set(refined);
+                                    // the Q model may have changed meanwhile
+                                    foreDist.qModelChanged(model.getDisplayModel().qModel);
+                                    designProjectionChangeListeners.announce().designProjectionChanged(foreProj);
+                                }
+                            }
+                        });
                     }
                 });
 
@@ -3,6 +3,7 @@ package ika.proj;
 import com.jhlabs.map.proj.MillerCylindrical1Projection;
 import com.jhlabs.map.proj.MollweideProjection;
 import com.jhlabs.map.proj.Projection;
+import java.awt.geom.Point2D;
 
 /**
  *
@@ -13,6 +14,67 @@ public abstract class AbstractMixerProjection extends DesignProjection {
     protected Projection p1 = new MollweideProjection();
     protected Projection p2 = new MillerCylindrical1Projection();
 
+    /**
+     * Initial guesses for the inverse projection, or null if they need to be
+     * computed. Shared by clones until one of them changes.
+     */
+    private volatile SeedIndexEntry seedIndexEntry;
+
+    /**
+     * An InverseSeedIndex with the modification counts of the mixed
+     * projections.
+     */
+    private static final class SeedIndexEntry {
+
+        final InverseSeedIndex index;
+        final long count1;
+        final long count2;
+
+        SeedIndexEntry(InverseSeedIndex index, long count1, long count2) {
+            this.index = index;
+            this.count1 = count1;
+            this.count2 = count2;
+        }
+    }
+
+    /**
+     * Returns the modification count of a mixed projection, or 0 for 
+     * projections that do not change once they are mixed.
+     */
+    private static long modificationCount(Projection p) {
+        return p instanceof DesignProjection
+                ? ((DesignProjection) p).getModificationCount() : 0;
+    }
+
+    /**
+     * Finds an initial guess for an iterative inverse projection. The guess
+     * is interpolated in a lattice of projected points, which is computed 
+     * when this is first called after a change of this projection.
+     * @param x The projected X coordinate.
+     * @param y The projected Y coordinate.
+     * @param lp Receives the longitude and latitude in radians.
+     * @return True if a guess was found, false if x/y is not inside the
+     * projected lattice.
+     */
+    protected boolean seedInverse(double x, double y, Point2D.Double lp) {
+        final long count1 = modificationCount(p1);
+        final long count2 = modificationCount(p2);
+        SeedIndexEntry entry = seedIndexEntry;
+        if (entry == null || entry.count1 != count1 || entry.count2 != count2) {
+            entry = new SeedIndexEntry(new InverseSeedIndex(this), count1, count2);
+            seedIndexEntry = entry;
+        }
+        return entry.index.seed(x, y, lp);
+    }
+
+    /**
+     * Must be called by derived classes when a parameter changes the shape of 
+     * this projection.
+     */
+    protected void invalidateInverseSeed() {
+        seedIndexEntry = null;
+    }
+
     public Projection getProjection1() {
         return p1;
     }
@@ -22,6 +84,7 @@ public abstract class AbstractMixerProjection extends DesignProjection {
             throw new IllegalArgumentException("cannot mix projection " + p);
         }
         this.p1 = p;
+        invalidateInverseSeed();
     }
 
     public Projection getProjection2() {
@@ -33,6 +96,7 @@ public abstract class AbstractMixerProjection extends DesignProjection {
             throw new IllegalArgumentException("cannot mix projection " + p);
         }
         this.p2 = p;
+        invalidateInverseSeed();
     }
 
     public boolean canMix(Projection p) {
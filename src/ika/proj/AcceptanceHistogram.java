@@ -0,0 +1,243 @@
+package ika.proj;
+
+import java.util.Arrays;
+
+/**
+ * A cumulative two-dimensional histogram of area-weighted distortion values,
+ * used to compute the acceptance index Q for any pair of thresholds without
+ * scanning all cells of the distortion grids.
+ *
+ * Cells are ranked by their areal and by their angular distortion. The ranks
+ * are grouped into blocks of BLOCK_SIZE ranks, and a table stores the summed
+ * weight of all cells below each pair of block boundaries. A query locates
+ * the thresholds with a binary search, reads the table, and adds the few cells
+ * in the partially covered blocks. The result equals the sum of the weights of
+ * all cells with acceptable distortion. Cells with NaN values are never
+ * accepted.
+ *
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
+ */
+final class AcceptanceHistogram {
+
+    /**
+     * The number of ranks in a block of the cumulative table.
+     */
+    private static final int BLOCK_SIZE = 128;
+
+    /**
+     * Areal distortion values in increasing order. NaN values are last.
+     */
+    private final double[] sortedAreas;
+
+    /**
+     * Angular distortion values in increasing order. NaN values are last.
+     */
+    private final double[] sortedAngles;
+
+    /**
+     * The rank of the areal distortion of the cell with the angle rank i.
+     */
+    private final int[] areaRankByAngleRank;
+
+    /**
+     * The rank of the angular distortion of the cell with the area rank i.
+     */
+    private final int[] angleRankByAreaRank;
+
+    /**
+     * The weight of the cell with the angle rank i.
+     */
+    private final double[] weightByAngleRank;
+
+    /**
+     * The weight of the cell with the area rank i.
+     */
+    private final double[] weightByAreaRank;
+
+    /**
+     * The number of block boundaries along each axis of the cumulative table.
+     */
+    private final int tableSize;
+
+    /**
+     * Entry [i * tableSize + j] is the summed weight of all cells with an
+     * angle rank smaller than i * BLOCK_SIZE and an area rank smaller than
+     * j * BLOCK_SIZE.
+     */
+    private final double[] table;
+
+    /**
+     * Builds the histogram.
+     * @param areas Areal distortion of each cell.
+     * @param angles Angular distortion of each cell.
+     * @param weights Weight of each cell.
+     */
+    AcceptanceHistogram(double[] areas, double[] angles, double[] weights) {
+        final int n = areas.length;
+
+        // rank the cells
+        final Integer[] areaOrder = order(areas);
+        final Integer[] angleOrder = order(angles);
+        final int[] areaRank = new int[n];
+        final int[] angleRank = new int[n];
+        sortedAreas = new double[n];
+        sortedAngles = new double[n];
+        for (int i = 0; i < n; i++) {
+            areaRank[areaOrder[i]] = i;
+            angleRank[angleOrder[i]] = i;
+            sortedAreas[i] = areas[areaOrder[i]];
+            sortedAngles[i] = angles[angleOrder[i]];
+        }
+        areaRankByAngleRank = new int[n];
+        angleRankByAreaRank = new int[n];
+        weightByAngleRank = new double[n];
+        weightByAreaRank = new double[n];
+        for (int i = 0; i < n; i++) {
+            areaRankByAngleRank[i] = areaRank[angleOrder[i]];
+            angleRankByAreaRank[i] = angleRank[areaOrder[i]];
+            weightByAngleRank[i] = weights[angleOrder[i]];
+            weightByAreaRank[i] = weights[areaOrder[i]];
+        }
+
+        // histogram of blocks, then cumulate along both axes
+        tableSize = (n + BLOCK_SIZE - 1) / BLOCK_SIZE + 1;
+        table = new double[tableSize * tableSize];
+        for (int k = 0; k < n; k++) {
+            final int i = angleRank[k] / BLOCK_SIZE + 1;
+            final int j = areaRank[k] / BLOCK_SIZE + 1;
+            table[i * tableSize + j] += weights[k];
+        }
+        for (int i = 1; i < tableSize; i++) {
+            for (int j = 1; j < tableSize; j++) {
+                table[i * tableSize + j] += table[(i - 1) * tableSize + j]
+                        + table[i * tableSize + j - 1]
+                        - table[(i - 1) * tableSize + j - 1];
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of the values in increasing order of the values.
+     */
+    private static Integer[] order(final double[] values) {
+        final Integer[] indices = new Integer[values.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(values[i1], values[i2]);
+            }
+        });
+        return indices;
+    }
+
+    /**
+     * Returns the number of sorted values that are smaller than or equal to
+     * a threshold. NaN values are never counted.
+     */
+    private static int countNotLarger(double[] sorted, double threshold) {
+        if (Double.isNaN(threshold)) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= threshold) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the number of sorted values that are smaller than a threshold.
+     */
+    private static int countSmaller(double[] sorted, double threshold) {
+        if (Double.isNaN(threshold)) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < threshold) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the summed weight of all cells with an angle rank smaller than
+     * angleRank and an area rank smaller than areaRank.
+     */
+    private double cumulativeWeight(int angleRank, int areaRank) {
+        final int i = angleRank / BLOCK_SIZE;
+        final int j = areaRank / BLOCK_SIZE;
+        double w = table[i * tableSize + j];
+
+        // cells in the partial block of angle ranks
+        for (int r = i * BLOCK_SIZE; r < angleRank; r++) {
+            if (areaRankByAngleRank[r] < areaRank) {
+                w += weightByAngleRank[r];
+            }
+        }
+
+        // cells in the partial block of area ranks, excluding cells counted above
+        final int angleBlockStart = i * BLOCK_SIZE;
+        for (int r = j * BLOCK_SIZE; r < areaRank; r++) {
+            if (angleRankByAreaRank[r] < angleBlockStart) {
+                w += weightByAreaRank[r];
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Returns the summed weight of all cells with an areal distortion in
+     * [minArea..maxArea] and an angular distortion not larger than maxAngle.
+     * @param minArea The smallest acceptable areal distortion.
+     * @param maxArea The largest acceptable areal distortion.
+     * @param maxAngle The largest acceptable angular distortion.
+     * @return The weight of the accepted cells.
+     */
+    double acceptedWeight(double minArea, double maxArea, double maxAngle) {
+        final int angleRank = countNotLarger(sortedAngles, maxAngle);
+        final int areaEnd = countNotLarger(sortedAreas, maxArea);
+        final int areaStart = Math.min(countSmaller(sortedAreas, minArea), areaEnd);
+        return cumulativeWeight(angleRank, areaEnd)
+                - cumulativeWeight(angleRank, areaStart);
+    }
+
+    /**
+     * Returns the summed weight of all cells with an areal distortion in
+     * [minArea..maxArea], ignoring angular distortion.
+     * @param minArea The smallest acceptable areal distortion.
+     * @param maxArea The largest acceptable areal distortion.
+     * @return The weight of the accepted cells.
+     */
+    double acceptedAreaWeight(double minArea, double maxArea) {
+        final int n = sortedAngles.length;
+        final int areaEnd = countNotLarger(sortedAreas, maxArea);
+        final int areaStart = Math.min(countSmaller(sortedAreas, minArea), areaEnd);
+        return cumulativeWeight(n, areaEnd) - cumulativeWeight(n, areaStart);
+    }
+
+    /**
+     * Returns the summed weight of all cells with an angular distortion not
+     * larger than maxAngle, ignoring areal distortion.
+     * @param maxAngle The largest acceptable angular distortion.
+     * @return The weight of the accepted cells.
+     */
+    double acceptedAngleWeight(double maxAngle) {
+        final int n = sortedAreas.length;
+        return cumulativeWeight(countNotLarger(sortedAngles, maxAngle), n);
+    }
+}
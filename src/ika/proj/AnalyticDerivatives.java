@@ -0,0 +1,25 @@
+package ika.proj;
+
+/**
+ * A projection that computes the first derivatives of its projected
+ * coordinates analytically. Distortion parameters are computed with these
+ * derivatives instead of finite differences, which requires four forward
+ * projections per location.
+ */
+public interface AnalyticDerivatives {
+
+    /**
+     * Computes the first derivatives of the projected coordinates. Uses the
+     * same units as project(double, double, Point2D.Double): longitude and
+     * latitude in radians relative to the central meridian, X and Y on the
+     * unary sphere.
+     *
+     * @param lam Longitude in radians.
+     * @param phi Latitude in radians.
+     * @param der Receives dx/dlam, dx/dphi, dy/dlam and dy/dphi in this order.
+     * Must have at least four elements.
+     * @return True if the derivatives could be computed, false otherwise. If
+     * false is returned, the derivatives must be approximated numerically.
+     */
+    public boolean derivatives(double lam, double phi, double[] der);
+}
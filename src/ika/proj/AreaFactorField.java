@@ -0,0 +1,222 @@
+package ika.proj;
+
+import com.jhlabs.map.proj.Projection;
+import java.util.Arrays;
+
+/**
+ * Areal scale factors of a projection sampled at the points used for the Dar
+ * index by Canters and Decleir. The factors are stored for a projection scale
+ * of 1. The areal scale factor grows with the square of the projection scale,
+ * so the Dar index for any scale can be computed from the stored factors
+ * without projecting any point again.
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
+ */
+public final class AreaFactorField {
+
+    /**
+     * Areal scale factors for a projection scale of 1 in increasing order.
+     */
+    private final double[] factors;
+
+    /**
+     * Area on the unary sphere represented by each factor.
+     */
+    private final double[] weights;
+
+    /**
+     * Entry i is the sum of weights[k] * factors[k] for k >= i.
+     */
+    private final double[] weightedFactorSums;
+
+    /**
+     * Entry i is the sum of weights[k] / factors[k] for k < i.
+     */
+    private final double[] weightedInverseSums;
+
+    /**
+     * The sum of all weights.
+     */
+    private final double totalWeight;
+
+    /**
+     * Samples the areal scale factors of a projection.
+     * @param normalProjection An initialized projection with a central
+     * meridian of 0.
+     * @param scale The current scale of the projection. The sampled factors
+     * are divided by the square of this scale.
+     */
+    public AreaFactorField(Projection normalProjection, double scale) {
+
+        final double d_rad = Math.toRadians(ProjectionDistortionParameters.INDEX_SAMPLING_DIST_DEG);
+        final int nh = (int) Math.round(180. / ProjectionDistortionParameters.INDEX_SAMPLING_DIST_DEG);
+        final int nv = (int) Math.round(90. / ProjectionDistortionParameters.INDEX_SAMPLING_DIST_DEG);
+
+        // sample the north-east quadrant and multiply by four for projections
+        // that are symmetric about the equator and the central meridian
+        final boolean symmetric = DesignProjection.isSymmetric(normalProjection);
+        final int rows = symmetric ? nv : 2 * nv;
+        final int cols = symmetric ? nh : 2 * nh;
+        final int vStart = symmetric ? 0 : -nv;
+        final int hStart = symmetric ? 0 : -nh;
+        final double scaleSq = scale * scale;
+
+        final double[][] rowFactors = new double[rows][cols];
+        ThreadedProjectionOperator.operate(normalProjection, rows,
+                new ThreadedProjectionOperator.RowOperator() {
+            @Override
+            public void operate(Projection proj, int startRow, int endRow) {
+                for (int row = startRow; row < endRow; row++) {
+                    final double phi = (row + vStart + 0.5) * d_rad;
+                    final double cosphi_inv = 1. / Math.cos(phi);
+                    for (int col = 0; col < cols; col++) {
+                        final double lam = (col + hStart + 0.5) * d_rad;
+                        ProjectionDerivatives der = ProjectionDerivatives.compute(proj,
+                                lam, phi, ProjectionDistortionParameters.DERIVATIVE_INC_RAD);
+                        final double axb = (der.y_p * der.x_l - der.x_p * der.y_l) * cosphi_inv;
+                        rowFactors[row][col] = axb / scaleSq;
+                    }
+                }
+            }
+        });
+
+        // sort the factors with their weights. Samples without a valid
+        // factor are ignored.
+        final int n = rows * cols;
+        final double[] sampleFactors = new double[n];
+        final double[] sampleWeights = new double[n];
+        int validCount = 0;
+        for (int row = 0; row < rows; row++) {
+            final double phi = (row + vStart + 0.5) * d_rad;
+
+            // area of infinitesimal patch on sphere
+            final double patchArea = Math.cos(phi) * d_rad * d_rad * (symmetric ? 4. : 1.);
+            for (int col = 0; col < cols; col++) {
+                final double a = rowFactors[row][col];
+                if (!Double.isNaN(a) && !Double.isInfinite(a) && a != 0) {
+                    sampleFactors[validCount] = a;
+                    sampleWeights[validCount] = patchArea;
+                    validCount++;
+                }
+            }
+        }
+        Integer[] indices = new Integer[validCount];
+        for (int i = 0; i < validCount; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(sampleFactors[i1], sampleFactors[i2]);
+            }
+        });
+        factors = new double[validCount];
+        weights = new double[validCount];
+        for (int i = 0; i < validCount; i++) {
+            factors[i] = sampleFactors[indices[i]];
+            weights[i] = sampleWeights[indices[i]];
+        }
+
+        // cumulative sums for evaluating the Dar index
+        weightedFactorSums = new double[validCount + 1];
+        weightedInverseSums = new double[validCount + 1];
+        for (int i = validCount - 1; i >= 0; i--) {
+            weightedFactorSums[i] = weightedFactorSums[i + 1] + weights[i] * factors[i];
+        }
+        double w = 0;
+        for (int i = 0; i < validCount; i++) {
+            weightedInverseSums[i + 1] = weightedInverseSums[i] + weights[i] / factors[i];
+            w += weights[i];
+        }
+        totalWeight = w;
+    }
+
+    /**
+     * Returns the number of factors smaller than 1 / c, that is, the number
+     * of samples with an areal scale factor smaller than 1 when the factors
+     * are multiplied by c.
+     */
+    private int countShrunk(double c) {
+        int lo = 0;
+        int hi = factors.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (factors[mid] * c < 1.) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the sum of the weighted areal distortion for factors that are
+     * multiplied by c.
+     */
+    private double weightedDistortion(double c) {
+        final int i = countShrunk(c);
+        return c * weightedFactorSums[i] + weightedInverseSums[i] / c - totalWeight;
+    }
+
+    /**
+     * Returns the Dar index by Canters and Decleir for a projection scale.
+     * @param scale The scale of the projection.
+     * @return The Dar index.
+     */
+    public double getDarIndex(double scale) {
+        final double sphereArea = 4. * Math.PI;
+        return weightedDistortion(scale * scale) / sphereArea;
+    }
+
+    /**
+     * Returns the projection scale that minimizes the Dar index. Between two
+     * consecutive factors, the weighted distortion is c * A + B / c, where c
+     * is the square of the scale, A the weighted sum of the factors larger
+     * than 1 / c, and B the weighted sum of the inverse factors smaller than
+     * 1 / c. Its minimum is at c = sqrt(B / A). The minimum is searched among
+     * these points, the factors and the limits of the scale.
+     * @param minScale The smallest acceptable scale.
+     * @param maxScale The largest acceptable scale.
+     * @return The scale with the smallest Dar index.
+     */
+    public double getAreaDistortionMinimizingScale(double minScale, double maxScale) {
+        final double cMin = minScale * minScale;
+        final double cMax = maxScale * maxScale;
+        double bestC = cMin;
+        double bestDistortion = weightedDistortion(cMin);
+        final double d = weightedDistortion(cMax);
+        if (d < bestDistortion) {
+            bestC = cMax;
+            bestDistortion = d;
+        }
+        for (int i = 0; i <= factors.length; i++) {
+
+            // the factor separating two intervals
+            if (i < factors.length && factors[i] > 0) {
+                final double c = 1. / factors[i];
+                if (c > cMin && c < cMax) {
+                    final double dist = weightedDistortion(c);
+                    if (dist < bestDistortion) {
+                        bestC = c;
+                        bestDistortion = dist;
+                    }
+                }
+            }
+
+            // the minimum inside an interval
+            final double a = weightedFactorSums[i];
+            final double b = weightedInverseSums[i];
+            if (a > 0 && b > 0) {
+                final double c = Math.sqrt(b / a);
+                if (c > cMin && c < cMax) {
+                    final double dist = weightedDistortion(c);
+                    if (dist < bestDistortion) {
+                        bestC = c;
+                        bestDistortion = dist;
+                    }
+                }
+            }
+        }
+        return Math.sqrt(bestC);
+    }
+}
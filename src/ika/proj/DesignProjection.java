@@ -2,7 +2,9 @@ package ika.proj;
 
 import com.jhlabs.map.Ellipsoid;
 import com.jhlabs.map.proj.Projection;
+import com.jhlabs.map.proj.ProjectionException;
 import ika.geo.FlexProjectorModel;
+import java.awt.geom.Point2D;
 
 /**
  * Abstract base class for projections that can be designed with Flex Projector.
@@ -31,43 +33,33 @@ public abstract class DesignProjection extends Projection implements Serializabl
     }
 
     /** Compute a scale factor that minimizes total areal distortion.
-     * This is using a "Bisection method" search to find the
-     * minimum of the total areal distortion, which changes with scale.
-     * Faster methods could be used here (Newton-Raphson does not work,
-     * however, because the first or second derivative of the
-     * total areal distortion function behaves badly).
+     * The areal scale factors are sampled once, and the minimum of the
+     * total areal distortion is then found with the sampled factors.
+     * The scale is between 0.5 and 1.5.
      */
     public void computeAreaDistortionMinimizingScale() {
 
-        double eps = 1e-5; // iterate until the fourth digit after the coma is stable.
-        double s1 = 0.5; // lower boundary of possible scale values.
-        double s2 = 1.5; // upper boundary of possible scale values.
-        double s = 1; // the new scale
-        double diff; // difference between the previous and the new scale.
+        final double s = getAreaFactorField().getAreaDistortionMinimizingScale(0.5, 1.5);
+        
+        // set the scale of this projection
+        if (!Double.isNaN(s)) {
+            setScale(s);
+        }
+    }
 
+    /**
+     * Samples the areal scale factors of this projection at the points used
+     * for computing the Dar index. The returned field does not change when
+     * this projection changes.
+     * @return The areal scale factors.
+     */
+    public AreaFactorField getAreaFactorField() {
+        
         // work with a clone to make sure nothing is changed
         DesignProjection projClone = (DesignProjection) this.clone();
         projClone.setProjectionLongitude(0);
         projClone.initialize();
-
-        do {
-            projClone.setScale(s - 1e-6);
-            final double d1 = ProjectionDistortionParameters.getDarIndex(projClone);
-
-            projClone.setScale(s + 1e-6);
-            final double d2 = ProjectionDistortionParameters.getDarIndex(projClone);
-            if (d1 < d2) {
-                s2 = s; // change upper boundary
-            } else {
-                s1 = s; // adjust lower boundary
-            }
-            double s_ = (s1 + s2) / 2;
-            diff = Math.abs(s - s_);
-            s = s_;
-        } while (diff > eps);
-
-        // set the scale of this projection
-        setScale(s);
+        return new AreaFactorField(projClone, getScale());
     }
 
     /**
@@ -99,8 +91,10 @@ public abstract class DesignProjection extends Projection implements Serializabl
     /**
      * Adjusts the scale factor of this projection such that the areal scale
      * factor equals 1 at the position lam / phi. In other words, the scale factor
-     * is adjusted, such that there is no areal distortion at lam / phi. This
-     * uses an iterative procedure that may take some time.
+     * is adjusted, such that there is no areal distortion at lam / phi. 
+     * The areal scale factor grows with the square of the scale factor, so the
+     * areal scale factor is only computed once. The new scale factor is 
+     * between 0.1 and 1.9.
      * @param lam The longitude at which areal distortion will be eliminated. In radians.
      * @param phi The latitude at which areal distortion will be eliminated. In radians.
      */
@@ -110,32 +104,12 @@ public abstract class DesignProjection extends Projection implements Serializabl
         final double initialScale = getScale();
 
         try {
-
-            final double EPS = 1e-5; // iterate until the fourth digit after the coma is stable.
-            double s1 = 0.1; // lower boundary of possible scale values.
-            double s2 = 1.9; // upper boundary of possible scale values.
-            double s = (s1 + s2) / 2; // the new scale
-            double diff; // difference between the previous and the new scale.
-            int iterationCounter = 0;
-            do {
-                final double d = localArealDist(s, lam, phi);
-                if (d > 1) {
-                    s2 = s;
-                } // change upper boundary
-                else {
-                    s1 = s;
-                } // adjust lower boundary
-                double s_ = (s1 + s2) / 2;
-                diff = Math.abs(s - s_);
-                s = s_;
-                iterationCounter++;
-                if (iterationCounter > 1000) {
-                    break;
-                }
-            } while (diff > EPS);
-
-            setScale(s);
-
+            final double d = localArealDist(lam, phi);
+            final double s = initialScale / Math.sqrt(d);
+            if (Double.isNaN(s) || Double.isInfinite(s)) {
+                return;
+            }
+            setScale(Math.max(0.1, Math.min(1.9, s)));
         } catch (Throwable t) {
             // reset to inital scale.
             setScale(initialScale);
@@ -144,19 +118,15 @@ public abstract class DesignProjection extends Projection implements Serializabl
 
     /**
      * Returns the areal scale factor at point lon/lat
-     * @param scale The scale factor of the projection. This scale factor
-     * temporarily replaces the current scale factor of this projection for
-     * computing the areal scale factor.
      * @param lon Longitude where the areal scale factor is computed in radians.
      * @param lat Latitude where the areal scale factor is computed in radians.
      * @return The areal scale factor at lam/phi
      */
-    private double localArealDist(double scale, double lon, double lat) {
+    private double localArealDist(double lon, double lat) {
 
         final double d = 1e-5;
 
         DesignProjection proj = (DesignProjection)this.clone();
-        proj.setScale(scale);
         proj.initialize();
 
         ProjectionFactors f = new ProjectionFactors();
@@ -165,6 +135,148 @@ public abstract class DesignProjection extends Projection implements Serializabl
 
     }
 
+    /**
+     * Projects a block of points from longitude/latitude to X/Y. This is the
+     * array version of project(double, double, Point2D.Double) and uses the
+     * same units: longitude and latitude in radians relative to the central
+     * meridian, X and Y on the unary sphere. No object is allocated per point.
+     * Points that cannot be projected are set to NaN.
+     * Derived classes should override this with a specialized loop.
+     * @param lon Longitudes in radians.
+     * @param lat Latitudes in radians.
+     * @param x Receives the projected X coordinates. Can be the same array as lon.
+     * @param y Receives the projected Y coordinates. Can be the same array as lat.
+     * @param offset Index of the first point to project.
+     * @param n Number of points to project.
+     */
+    public void projectArray(double[] lon, double[] lat, double[] x, double[] y,
+            int offset, int n) {
+        Point2D.Double pt = new Point2D.Double();
+        final int end = offset + n;
+        for (int i = offset; i < end; i++) {
+            try {
+                project(lon[i], lat[i], pt);
+                x[i] = pt.x;
+                y[i] = pt.y;
+            } catch (ProjectionException exc) {
+                x[i] = y[i] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Inverse projection of a block of points from X/Y to longitude/latitude.
+     * This is the array version of projectInverse(double, double, Point2D.Double)
+     * and uses the same units. No object is allocated per point. Points that
+     * cannot be projected are set to NaN.
+     * Derived classes should override this with a specialized loop.
+     * @param x X coordinates on the unary sphere.
+     * @param y Y coordinates on the unary sphere.
+     * @param lon Receives the longitudes in radians. Can be the same array as x.
+     * @param lat Receives the latitudes in radians. Can be the same array as y.
+     * @param offset Index of the first point to project.
+     * @param n Number of points to project.
+     */
+    public void projectInverseArray(double[] x, double[] y, double[] lon, double[] lat,
+            int offset, int n) {
+        Point2D.Double pt = new Point2D.Double();
+        final int end = offset + n;
+        for (int i = offset; i < end; i++) {
+            try {
+                projectInverse(x[i], y[i], pt);
+                lon[i] = pt.x;
+                lat[i] = pt.y;
+            } catch (ProjectionException exc) {
+                lon[i] = lat[i] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this projection for background threads. The copy
+     * does not share any mutable state with this projection, so it can be
+     * used while this projection is changed. Must be called by the thread
+     * that changes this projection, usually the event dispatching thread.
+     * @return An independent copy.
+     */
+    public DesignProjection snapshot() {
+        return (DesignProjection) clone();
+    }
+
+    /**
+     * Returns a count that changes whenever a parameter defining the shape of
+     * this projection changes. Derived data, such as the outline or distortion
+     * grids, can be cached against this count. Two projections with the same
+     * count have identical shape parameters.
+     * @return The modification count, or -1 if changes are not tracked.
+     */
+    public long getModificationCount() {
+        return -1;
+    }
+
+    /**
+     * Returns true if this projection is symmetric about the equator and
+     * about the central meridian, that is, if x(-lon, lat) = -x(lon, lat) and
+     * y(lon, -lat) = -y(lon, lat). Distortion of symmetric projections only
+     * needs to be computed for one quadrant. The default implementation
+     * tests a few points; derived classes that are symmetric by construction
+     * should override this.
+     * @return True if the projection is symmetric.
+     */
+    public boolean isSymmetric() {
+        return probeSymmetry(this);
+    }
+
+    /**
+     * Returns true if a projection is symmetric about the equator and about
+     * the central meridian. Uses isSymmetric() for design projections and
+     * tests a few points for other projections.
+     * @param projection An initialized projection with a central meridian
+     * of 0.
+     * @return True if the projection is symmetric.
+     */
+    public static boolean isSymmetric(Projection projection) {
+        if (projection instanceof DesignProjection) {
+            return ((DesignProjection) projection).isSymmetric();
+        }
+        return probeSymmetry(projection);
+    }
+
+    /**
+     * Projects a few points mirrored on the equator and the central meridian
+     * and compares their coordinates.
+     */
+    private static boolean probeSymmetry(Projection projection) {
+        final double[] lons = {0.3, 1.1, 2.3, 3.0};
+        final double[] lats = {0.2, 0.7, 1.3};
+        final double tol = 1e-9;
+        Point2D.Double pt = new Point2D.Double();
+        try {
+            for (double lon : lons) {
+                for (double lat : lats) {
+                    projection.project(lon, lat, pt);
+                    final double x = pt.x;
+                    final double y = pt.y;
+                    if (Double.isNaN(x) || Double.isNaN(y)) {
+                        return false;
+                    }
+                    final double t = tol * Math.max(1., Math.max(Math.abs(x), Math.abs(y)));
+                    projection.project(-lon, lat, pt);
+                    if (!(Math.abs(pt.x + x) <= t && Math.abs(pt.y - y) <= t)) {
+                        return false;
+                    }
+                    projection.project(lon, -lat, pt);
+                    if (!(Math.abs(pt.x - x) <= t && Math.abs(pt.y + y) <= t)) {
+                        return false;
+                    }
+                }
+            }
+        } catch (ProjectionException exc) {
+            return false;
+        }
+        return true;
+    }
+
     /**
      * @return the scale
      */
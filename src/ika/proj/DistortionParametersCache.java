@@ -0,0 +1,195 @@
+/*
+ * DistortionParametersCache.java
+ *
+ */
+
+package ika.proj;
+
+import com.jhlabs.map.proj.Projection;
+import ika.app.ApplicationInfo;
+import ika.utils.Sys;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A file in the user's preferences directory that stores the distortion
+ * parameters of the projections in the distortion table. The parameters of
+ * library projections do not change, so they only need to be computed once.
+ * Entries are identified by ProjectionDistortionParameters.cacheKey(),
+ * which includes the name used to create the projection. The
+ * file is ignored if it was written by another version of Flex Projector or
+ * with another file format.
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
+ */
+public class DistortionParametersCache {
+
+    /**
+     * Identifies the file format. Increment when the format changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Name of the cache file.
+     */
+    private static final String FILE_NAME = Sys.isMacOSX()
+            ? "Flex Projector Distortion Cache" : ".flexprojector_distortion_cache";
+
+    /**
+     * Serialized parameters, indexed by cache key.
+     */
+    private final HashMap<String, byte[]> entries = new HashMap<String, byte[]>();
+
+    /**
+     * True if entries were added since the cache was loaded.
+     */
+    private boolean modified = false;
+
+    /**
+     * Loads the cache from the preferences directory. Returns an empty cache
+     * if the file does not exist or cannot be read.
+     */
+    public static DistortionParametersCache load() {
+        DistortionParametersCache cache = new DistortionParametersCache();
+        File file = getFile();
+        if (!file.isFile()) {
+            return cache;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(file))));
+            if (in.readInt() != FORMAT_VERSION
+                    || !ApplicationInfo.getApplicationVersion().equals(in.readUTF())) {
+                return cache;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                cache.entries.put(key, data);
+            }
+        } catch (IOException exc) {
+            // a damaged cache is replaced when it is stored the next time
+            cache.entries.clear();
+            cache.modified = true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException exc) {
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the cache file.
+     */
+    private static File getFile() {
+        return new File(Sys.getPrefsDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Returns the cached distortion parameters for a projection.
+     * @param name The name used to create the projection with
+     * ProjectionFactory.getNamedProjection().
+     * @param projection The projection.
+     * @param qModel The parameters for the computation of the Q index.
+     * @return The distortion parameters or null if they are not in the cache.
+     */
+    public synchronized ProjectionDistortionParameters get(String name,
+            Projection projection, QModel qModel) {
+        byte[] data = entries.get(ProjectionDistortionParameters.cacheKey(name, projection));
+        if (data == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(data));
+            return ProjectionDistortionParameters.read(in, projection, qModel);
+        } catch (IOException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds distortion parameters to the cache.
+     * @param name The name used to create the projection of params with
+     * ProjectionFactory.getNamedProjection().
+     * @param params The parameters to add.
+     */
+    public synchronized void put(String name, ProjectionDistortionParameters params) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            params.write(out);
+            out.close();
+            entries.put(ProjectionDistortionParameters.cacheKey(name, params.getProjection()),
+                    bytes.toByteArray());
+            modified = true;
+        } catch (IOException exc) {
+            // the parameters will be computed again next time
+        }
+    }
+
+    /**
+     * Writes the cache to the preferences directory if entries were added.
+     * Only entries for the passed projections are written, so that the file
+     * does not grow when other projections are selected.
+     * @param projections The projections to keep in the cache, indexed by
+     * the names used to create them.
+     */
+    public synchronized void store(Map<String, Projection> projections) throws IOException {
+        if (!modified) {
+            return;
+        }
+        File file = getFile();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile))));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(ApplicationInfo.getApplicationVersion());
+            HashMap<String, byte[]> kept = new HashMap<String, byte[]>();
+            for (Map.Entry<String, Projection> projection : projections.entrySet()) {
+                String key = ProjectionDistortionParameters.cacheKey(
+                        projection.getKey(), projection.getValue());
+                if (entries.containsKey(key)) {
+                    kept.put(key, entries.get(key));
+                }
+            }
+            out.writeInt(kept.size());
+            for (String key : kept.keySet()) {
+                byte[] data = kept.get(key);
+                out.writeUTF(key);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        } finally {
+            out.close();
+        }
+
+        // replace the old file only after the new file is complete
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace " + file);
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Cannot write " + file);
+        }
+        modified = false;
+    }
+}
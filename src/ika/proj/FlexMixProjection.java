@@ -13,7 +13,8 @@ import java.util.StringTokenizer;
  * blending them to a single Flex projection.
  * @author Bernhard Jenny, Institute of Cartography ETH Zurich
  */
-public class FlexMixProjection extends AbstractMixerProjection {
+public class FlexMixProjection extends AbstractMixerProjection
+        implements AnalyticDerivatives, RowInverse {
 
     public static final String FORMAT_IDENTIFIER = "Flex Projector Format 2.0 - Flex Mixer";
     
@@ -42,6 +43,25 @@ public class FlexMixProjection extends AbstractMixerProjection {
      */
     private double meridiansW = 0.5;
 
+    /**
+     * The maximum number of entries in CONVERSION_CACHE.
+     */
+    private static final int CONVERSION_CACHE_SIZE = 16;
+
+    /**
+     * Flex models converted from other projections by toFlexProjection(),
+     * indexed by conversionKey(). The least recently used model is removed
+     * when the cache is full. The cached models must not be changed.
+     * Synchronization: synchronized (CONVERSION_CACHE) {...}
+     */
+    private static final java.util.LinkedHashMap<String, FlexProjectionModel> CONVERSION_CACHE
+            = new java.util.LinkedHashMap<String, FlexProjectionModel>(CONVERSION_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(java.util.Map.Entry<String, FlexProjectionModel> eldest) {
+            return size() > CONVERSION_CACHE_SIZE;
+        }
+    };
+
     public FlexMixProjection() {
         flexP = new FlexProjection();
         flexP.getModel().setScaleY(0.6);
@@ -54,6 +74,7 @@ public class FlexMixProjection extends AbstractMixerProjection {
         FlexMixProjection clone = (FlexMixProjection) super.clone();
         clone.p1 = (Projection) this.p1.clone();
         clone.p2 = (Projection) this.p2.clone();
+        clone.flexP = this.flexP.clone();
         clone.initialize();
         return clone;
     }
@@ -105,6 +126,39 @@ public class FlexMixProjection extends AbstractMixerProjection {
         return flexP.projectInverse(x, y, lp);
     }
 
+    @Override
+    public boolean hasRowInverse() {
+        return flexP.hasRowInverse();
+    }
+
+    @Override
+    public double projectInverseRow(double[] x, double y, double[] lon,
+            int offset, int n) {
+        return flexP.projectInverseRow(x, y, lon, offset, n);
+    }
+
+    @Override
+    public void projectArray(double[] lon, double[] lat, double[] x, double[] y,
+            int offset, int n) {
+        flexP.projectArray(lon, lat, x, y, offset, n);
+    }
+
+    @Override
+    public void projectInverseArray(double[] x, double[] y, double[] lon, double[] lat,
+            int offset, int n) {
+        flexP.projectInverseArray(x, y, lon, lat, offset, n);
+    }
+
+    @Override
+    public boolean isSymmetric() {
+        return true;
+    }
+
+    @Override
+    public boolean derivatives(double lam, double phi, double[] der) {
+        return flexP.derivatives(lam, phi, der);
+    }
+
     /**
      * Returns true if the parallels are bended, i.e. the b array contains
      * non-zero values.
@@ -125,20 +179,62 @@ public class FlexMixProjection extends AbstractMixerProjection {
 
     /**
      * Returns the flex curves and other flex parameters for any projection.
+     * Converted projections are cached, so that changing a weight only 
+     * requires blending the curves again.
      * @param projection
-     * @return 
+     * @return A new model that can be changed.
      */
     private static FlexProjectionModel toFlexProjection(Projection projection) {
         if (projection == null) {
             return null;
         }
         projection.initialize();
+        final String key = conversionKey(projection);
+        if (key != null) {
+            synchronized (CONVERSION_CACHE) {
+                FlexProjectionModel model = CONVERSION_CACHE.get(key);
+                if (model != null) {
+                    return model.clone();
+                }
+            }
+        }
         FlexProjection flex = new FlexProjection();
         flex.getModel().reset(projection);
         flex.initialize();
+        if (key != null) {
+            synchronized (CONVERSION_CACHE) {
+                CONVERSION_CACHE.put(key, flex.getModel().clone());
+            }
+        }
         return flex.getModel();
     }
 
+    /**
+     * Returns a key identifying the shape of a projection for 
+     * CONVERSION_CACHE, or null if the projection cannot be cached.
+     */
+    private static String conversionKey(Projection projection) {
+        StringBuilder sb = new StringBuilder(projection.getClass().getName());
+        if (projection instanceof DesignProjection) {
+            // design projections are identified by their modification count
+            final long count = ((DesignProjection) projection).getModificationCount();
+            if (count < 0) {
+                return null;
+            }
+            sb.append('#').append(count);
+            return sb.toString();
+        }
+        sb.append('|').append(projection.toString());
+        sb.append('|').append(projection.getProjectionLatitude());
+        sb.append('|').append(projection.getProjectionLongitude());
+        sb.append('|').append(projection.getTrueScaleLatitude());
+        sb.append('|').append(projection.getScaleFactor());
+        sb.append('|').append(projection.getEquatorRadius());
+        sb.append('|').append(projection.getMinLatitude());
+        sb.append('|').append(projection.getMaxLatitude());
+        return sb.toString();
+    }
+
     @Override
     public String toString() {
         return "Flex Mixer: " + p1.toString() + "\u2005\u002B\u2005" + p2.toString();
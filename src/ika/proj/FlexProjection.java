@@ -9,13 +9,22 @@ import java.awt.geom.Point2D;
  *
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich
  */
-public class FlexProjection extends DesignProjection implements SerializableProjection {
+public class FlexProjection extends DesignProjection
+        implements SerializableProjection, AnalyticDerivatives, RowInverse {
 
     public static final String FORMAT_IDENTIFIER = "Flex Projector Format 2.0 - Flex";
     public static final String LEGACY_FORMAT_IDENTIFIER = "Flex Projector Format 1.0";
     private static final int NODES = 18;
     private static final double EPS = 1e-8;
     private static final double RAD15 = Math.toRadians(15);
+    /**
+     * Maximum number of Newton-Raphson iterations for the inverse projection.
+     */
+    private static final int MAX_NEWTON_ITERATIONS = 20;
+    /**
+     * Tolerance for the Newton-Raphson inverse projection in radians.
+     */
+    private static final double NEWTON_EPS = 1e-11;
     private FlexProjectionModel model = null;
 
     /**
@@ -46,72 +55,160 @@ public class FlexProjection extends DesignProjection implements SerializableProj
         return true;
     }
 
+    /**
+     * Projects a point with the compiled kernel of the model.
+     */
     @Override
     public Point2D.Double project(double x, double y, Point2D.Double dst) {
-        /*
-         if (x > Math.PI || x < -Math.PI || y > MapMath.HALFPI || y < -MapMath.HALFPI) {
-         dst.x = dst.y = Double.NaN;
-         return dst;
-         }
-         */
-        final double meridianShift = Math.signum(x) * model.getXDistFactor(x) * RAD15;
-        final double scale = model.getScale();
+        return model.compile().project(x, y, dst);
+    }
 
-        final double longitudeScaleFactor = model.getLongitudeScaleFactor(y);
-        dst.x = scale * longitudeScaleFactor * (x + meridianShift);
+    /**
+     * Projects a block of points. Identical results as project(), but the
+     * kernel is only looked up once per block.
+     */
+    @Override
+    public void projectArray(double[] lon, double[] lat, double[] x, double[] y,
+            int offset, int n) {
+        model.compile().projectArray(lon, lat, x, y, offset, n);
+    }
 
-        dst.y = scale * model.getScaleY() * model.getLatitudeScaleFactor(y) * Math.PI;
-        if (y < 0.0) {
-            dst.y = -dst.y;
+    /**
+     * Returns a copy with its own model and a compiled kernel. The copy can
+     * be used by other threads while this projection is changed.
+     */
+    @Override
+    public FlexProjection snapshot() {
+        FlexProjection copy = clone();
+        copy.model.compile();
+        return copy;
+    }
+
+    /**
+     * Parallels are straight if they are not bent. The meridians must be
+     * equally spaced for computing the longitude without iterations.
+     */
+    @Override
+    public boolean hasRowInverse() {
+        return !model.isAdjustingBending() && !model.isAdjustingMeridians();
+    }
+
+    /**
+     * Inverse projection of a row of points. The latitude is approximated
+     * with the Robinson-style inversion and refined with a Newton-Raphson
+     * iteration for the distance of parallels from the equator. If the
+     * iteration does not converge, the latitude is found by bisection.
+     */
+    @Override
+    public double projectInverseRow(double[] x, double y, double[] lon,
+            int offset, int n) {
+
+        final int end = offset + n;
+        Point2D.Double lp = new Point2D.Double();
+        projectInverseRobinson(model.getNormalizedModel(), 0, y, lp);
+        if (Double.isNaN(lp.y)) {
+            for (int i = offset; i < end; i++) {
+                lon[i] = Double.NaN;
+            }
+            return Double.NaN;
         }
 
-        // bending
-        double bend = model.getBendFactor(y);
-        if (bend != 0. && bend != -0.) {
-            // Make sure bending is not enlarging the extension of the graticule.
-            switch (model.getCurveShape()) {
-                case FlexProjectionModel.CUBIC_CURVE: {
-                    // cubic curve bending
-                    final double xn = Math.abs(x) / Math.PI;
-                    if (bend < 0) {
-                        dst.y *= 1 + bend * (1 - xn * xn * xn);
-                    } else {
-                        dst.y *= 1 - bend * xn * xn * xn;
-                    }
-                    break;
-                }
-                case FlexProjectionModel.QUADRATIC_CURVE: {
-                    // quadratic curve bending
-                    final double xn = x / Math.PI;
-                    if (bend < 0) {
-                        dst.y *= 1 + bend * (1 - xn * xn);
-                    } else {
-                        dst.y *= 1 - bend * (xn * xn);
-                    }
-                    break;
-                }
-                case FlexProjectionModel.COSINE_CURVE: {
-                    // sine curve bending
-                    if (bend < 0) {
-                        dst.y *= 1 + bend * Math.cos(Math.abs(x * 0.5));
-                    } else {
-                        dst.y *= 1 - bend * Math.abs(Math.cos(x * 0.5));
-                    }
-                    break;
+        // refine the latitude
+        final double scaleY = model.getScale() * model.getScaleY() * Math.PI;
+        final double absY = Math.abs(y);
+        double phi = Math.abs(lp.y);
+        boolean converged = false;
+        for (int i = 0; i < MAX_NEWTON_ITERATIONS; i++) {
+            final double f = scaleY * model.getLatitudeScaleFactor(phi) - absY;
+            final double fder = scaleY * model.getLatitudeScaleFactorFirstDerivative(phi)
+                    * FlexProjectionModel.LAT_INC_INV;
+            if (fder == 0 || Double.isNaN(fder)) {
+                break;
+            }
+            final double d = f / fder;
+            phi = Math.max(0, Math.min(MapMath.HALFPI, phi - d));
+            if (Math.abs(d) < NEWTON_EPS) {
+                converged = true;
+                break;
+            }
+        }
+        if (!converged) {
+            phi = bisectLatitude(scaleY, absY);
+            if (Double.isNaN(phi)) {
+                for (int i = offset; i < end; i++) {
+                    lon[i] = Double.NaN;
                 }
+                return Double.NaN;
             }
         }
+        final double lat = y < 0. ? -phi : phi;
 
-        return dst;
+        // longitude is proportional to the horizontal coordinate
+        final double length = model.getScale() * model.getLongitudeScaleFactor(lat);
+        for (int i = offset; i < end; i++) {
+            lon[i] = x[i] / length;
+        }
+        return lat;
+    }
+
+    /**
+     * Finds the latitude of a parallel by bisection. The distance of parallels
+     * from the equator increases monotonically with the latitude.
+     * @param scaleY The scale factor applied to the distance of parallels.
+     * @param absY The absolute vertical distance from the equator.
+     * @return The latitude in [0..PI/2], or NaN if no parallel has the
+     * distance absY.
+     */
+    private double bisectLatitude(double scaleY, double absY) {
+        double lo = 0;
+        double hi = MapMath.HALFPI;
+        final double fLo = scaleY * model.getLatitudeScaleFactor(lo) - absY;
+        final double fHi = scaleY * model.getLatitudeScaleFactor(hi) - absY;
+        if (Double.isNaN(fLo) || Double.isNaN(fHi) || fLo * fHi > 0) {
+            return Double.NaN;
+        }
+        final boolean increasing = fHi >= fLo;
+        while (hi - lo > NEWTON_EPS) {
+            final double mid = 0.5 * (lo + hi);
+            final double f = scaleY * model.getLatitudeScaleFactor(mid) - absY;
+            if ((f < 0) == increasing) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return 0.5 * (lo + hi);
+    }
+
+    /**
+     * Inverse projection of a block of points.
+     */
+    @Override
+    public void projectInverseArray(double[] x, double[] y, double[] lon, double[] lat,
+            int offset, int n) {
+
+        final FlexProjectionModel normalizedModel = model.getNormalizedModel();
+        Point2D.Double lp = new Point2D.Double();
+        final double[] res = new double[6];
+        final int end = offset + n;
+        for (int i = offset; i < end; i++) {
+            inverse(normalizedModel, x[i], y[i], lp, res);
+            lon[i] = lp.x;
+            lat[i] = lp.y;
+        }
     }
 
     /**
      * Inverse projection from X/Y to longitude/latitude.
-     * Warning: This inverse projection is extremely slow if the projection is
-     * not normalized, that is, if the maximum parallel length and parallel 
-     * distance is not equal to 1. If this is the case, this projection is
-     * cloned before the computations. Call normalize() to bring the values to
-     * 1 before using projectInverse to project an entire data set with many points..
+     * The first approximation is computed with the Robinson-style inversion
+     * of the distance and length of parallels. It is then refined with a
+     * Newton-Raphson iteration using the analytical derivatives of the forward
+     * projection. If the Newton-Raphson iteration does not converge, a slow
+     * binary search is used.
+     * If the model is not normalized, that is, if the maximum parallel length
+     * and parallel distance is not equal to 1, the first approximation is
+     * computed with a normalized copy of the model, which is cached by the
+     * model until it changes.
      * @param x
      * @param y
      * @param lp
@@ -120,108 +217,237 @@ public class FlexProjection extends DesignProjection implements SerializableProj
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double lp) {
 
-        FlexProjection fp = this;
-        if (!model.isNormalized()) {
-            fp = this.clone();
-            fp.model.normalize();
-        }
-        
+        return inverse(model.getNormalizedModel(), x, y, lp, new double[6]);
+    }
+
+    /**
+     * Inverse projection from X/Y to longitude/latitude.
+     * @param normalizedModel The model of this projection or a normalized copy,
+     * used for the first approximation.
+     * @param x
+     * @param y
+     * @param lp Receives the longitude and latitude in radians.
+     * @param res Buffer with 6 elements for projectWithDerivatives.
+     * @return lp
+     */
+    private Point2D.Double inverse(FlexProjectionModel normalizedModel,
+            double x, double y, Point2D.Double lp, double[] res) {
+
         // first approximation
-        fp.projectInverseRobinson(x, y, lp);
+        projectInverseRobinson(normalizedModel, x, y, lp);
+        final double seedLon = lp.x;
+        final double seedLat = lp.y;
+        if (inverseNewtonRaphson(x, y, lp, res)) {
+            return lp;
+        }
 
         // binary search approximation
-        fp.binarySearchInverse(x, y, lp.x, lp.y, lp);
-
-        /* 
-         // Test with multiquadratic interpolation. Does not work!
-         int ptDist = 5;
-         double[][] srcPoints = new double[(180 / ptDist + 1)  * (90 / ptDist + 1)][2];
-         double[][] dstPoints = new double[(180 / ptDist + 1)  * (90 / ptDist + 1)][2];
-         Point2D.Double pt = new Point2D.Double();
-         int ptID = 0;
-        
-         for (int lon = 0; lon <= 180; lon+=ptDist) {
-         for (int lat = 0; lat <= 90; lat+=ptDist) {
-         this.project(Math.toRadians(lon), Math.toRadians(lat), pt);
-         dstPoints[ptID][0] = Math.toRadians(lon);
-         dstPoints[ptID][1] = Math.toRadians(lat);
-         srcPoints[ptID][0] = pt.x;
-         srcPoints[ptID][1] = pt.y;
-         ptID++;
-         }
-         }
-         MultiquadraticInterpolation inter = new MultiquadraticInterpolation();
-         inter.solveCoefficients(dstPoints, srcPoints, 1);
-         double[] p = new double[] {x, y};
-         inter.transform(p, 1);
-        
-         System.out.println("Multiquadratic interpolation: " + Math.toDegrees(p[0]) + " " + Math.toDegrees(p[1]));
-        
-         this.inverseNewtonRaphson(x, y, p[0], p[1], lp);
-         */
-        return lp;
+        return binarySearchInverse(x, y, seedLon, seedLat, lp);
+    }
+
+    /**
+     * Newton-Raphson inversion with the analytical Jacobian of the forward
+     * projection. The derivatives are not continuous at the equator, at the
+     * central meridian, and where the bending factor changes its sign. The
+     * iteration is therefore guarded and gives up if it does not converge.
+     * @param x
+     * @param y
+     * @param lp Contains the first approximation, receives the result.
+     * @param res Buffer with 6 elements for projectWithDerivatives.
+     * @return True if the iteration converged, false otherwise. lp is not
+     * changed if false is returned.
+     */
+    private boolean inverseNewtonRaphson(double x, double y, Point2D.Double lp,
+            double[] res) {
+
+        double lon = lp.x;
+        double lat = lp.y;
+        if (Double.isNaN(lon) || Double.isNaN(lat)) {
+            return false;
+        }
+
+        for (int i = 0; i < MAX_NEWTON_ITERATIONS; i++) {
+            projectWithDerivatives(lon, lat, res);
+            final double x_l = res[0];
+            final double x_p = res[1];
+            final double y_l = res[2];
+            final double y_p = res[3];
+            final double fx = res[4] - x;
+            final double fy = res[5] - y;
+            final double det = x_l * y_p - x_p * y_l;
+            if (det == 0 || Double.isNaN(det)) {
+                return false;
+            }
+
+            // |lon'|   |lon|            |fx|
+            // |    | = |   | - inv(J) * |  |
+            // |lat'|   |lat|            |fy|
+            final double dLon = (y_p * fx - x_p * fy) / det;
+            final double dLat = (x_l * fy - y_l * fx) / det;
+            lon -= dLon;
+            lat -= dLat;
+
+            // the spline curves are only defined between the poles
+            if (lat > MapMath.HALFPI) {
+                lat = MapMath.HALFPI;
+            } else if (lat < -MapMath.HALFPI) {
+                lat = -MapMath.HALFPI;
+            }
+
+            if (Math.abs(dLon) < NEWTON_EPS && Math.abs(dLat) < NEWTON_EPS) {
+                lp.x = lon;
+                lp.y = lat;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Projects a point and computes the first derivatives of the projected
+     * coordinates with the first derivatives of the spline curves.
+     * @param lon Longitude in radians.
+     * @param lat Latitude in radians.
+     * @param res Receives dx/dlon, dx/dlat, dy/dlon and dy/dlat in this
+     * order, followed by x and y if res has six elements.
+     */
+    private void projectWithDerivatives(double lon, double lat, double[] res) {
+
+        final double scale = model.getScale();
+        final double latSign = lat < 0. ? -1. : 1.;
+        final double lonSign = Math.signum(lon);
+
+        // derivatives of the spline curves are relative to the spline
+        // parameter, which is proportional to the absolute latitude
+        final double latFactor = latSign * FlexProjectionModel.LAT_INC_INV;
+
+        // horizontal coordinate
+        final double length = model.getLongitudeScaleFactor(lat);
+        final double lengthDer = model.getLongitudeScaleFactorFirstDerivative(lat) * latFactor;
+        final double shiftedLon = lon + lonSign * model.getXDistFactor(lon) * RAD15;
+        final double shiftedLonDer = 1. + model.getXDistFactorFirstDerivative(lon)
+                * FlexProjectionModel.LON_INC_INV * RAD15;
+        res[0] = scale * length * shiftedLonDer;
+        res[1] = scale * lengthDer * shiftedLon;
+
+        // vertical coordinate of straight parallels
+        final double scaleY = scale * model.getScaleY() * Math.PI;
+        final double y = latSign * scaleY * model.getLatitudeScaleFactor(lat);
+        final double yDer = scaleY * model.getLatitudeScaleFactorFirstDerivative(lat)
+                * FlexProjectionModel.LAT_INC_INV;
+
+        // bending of parallels
+        final double bend = model.getBendFactor(lat);
+        final double bendDer = model.getBendFactorFirstDerivative(lat) * latFactor;
+        final double f; // bending factor
+        final double f_lon; // derivative of bending factor for longitude
+        final double f_bend; // derivative of bending factor for bend
+        switch (bend == 0. ? -1 : model.getCurveShape()) {
+            case FlexProjectionModel.CUBIC_CURVE: {
+                final double xn = Math.abs(lon) / Math.PI;
+                final double xn3 = xn * xn * xn;
+                f_lon = -3. * bend * xn * xn * lonSign / Math.PI;
+                if (bend < 0) {
+                    f = 1 + bend * (1 - xn3);
+                    f_bend = 1 - xn3;
+                } else {
+                    f = 1 - bend * xn3;
+                    f_bend = -xn3;
+                }
+                break;
+            }
+            case FlexProjectionModel.QUADRATIC_CURVE: {
+                final double xn = lon / Math.PI;
+                f_lon = -2. * bend * xn / Math.PI;
+                if (bend < 0) {
+                    f = 1 + bend * (1 - xn * xn);
+                    f_bend = 1 - xn * xn;
+                } else {
+                    f = 1 - bend * (xn * xn);
+                    f_bend = -xn * xn;
+                }
+                break;
+            }
+            case FlexProjectionModel.COSINE_CURVE: {
+                final double cos = Math.cos(lon * 0.5);
+                final double sin = Math.sin(lon * 0.5);
+                if (bend < 0) {
+                    f = 1 + bend * cos;
+                    f_lon = -0.5 * bend * sin;
+                    f_bend = cos;
+                } else {
+                    f = 1 - bend * cos;
+                    f_lon = 0.5 * bend * sin;
+                    f_bend = -cos;
+                }
+                break;
+            }
+            default: {
+                // no bending: the sign of the bending factor is not defined
+                // and the derivative for the bending factor is not continuous.
+                // Use the mean of the two one-sided derivatives.
+                f = 1;
+                f_lon = 0;
+                f_bend = bendDer == 0. ? 0. : meanBendDerivative(lon);
+            }
+        }
+        res[2] = y * f_lon;
+        res[3] = yDer * f + y * f_bend * bendDer;
+        if (res.length > 4) {
+            res[4] = scale * length * shiftedLon;
+            res[5] = y * f;
+        }
+    }
+
+    @Override
+    public boolean derivatives(double lam, double phi, double[] der) {
+        if (Math.abs(phi) > MapMath.HALFPI) {
+            return false;
+        }
+        projectWithDerivatives(lam, phi, der);
+        return !(Double.isNaN(der[0]) || Double.isNaN(der[1])
+                || Double.isNaN(der[2]) || Double.isNaN(der[3]));
     }
 
     /**
-     * Inverse Newton-Raphson does not work, since the forward projection is not
-     * continuous, depending on what curves the user selects, i.e. the first
-     * derivative is not continuous, which is a requirement for this method.
-     * private void inverseNewtonRaphson(double x, double y, double seedLon,
-     * double seedLat, Point2D.Double lp) {
-     *
-     * int counter = 0; final double h = 1e-10; final double h_2 = h / 2;
-     *
-     * double lon = seedLon; double lat = seedLat;
-     *
-     * // derivatives of forward projection Point2D.Double pt1 = new
-     * Point2D.Double(); Point2D.Double pt2 = new Point2D.Double(); for (;;) {
-     *
-     * double lon1 = lon + h_2; double lon2 = lon - h_2; double lat1 = lat +
-     * h_2; double lat2 = lat - h_2; double dv = h; double dh = h;
-     *
-     * if (lat1 > MapMath.HALFPI) { lat1 = MapMath.HALFPI; dv = h_2; } else if
-     * (lat2 < -MapMath.HALFPI) { lat2 = -MapMath.HALFPI; dv = h_2; } if (lon1 >
-     * Math.PI) { lon1 = Math.PI; dh = h_2; } else if (lon2 < -Math.PI) { lon2 =
-     * -Math.PI; dh = h_2; }
-     *
-     * this.project(lon1, lat, pt1); this.project(lon2, lat, pt2); double
-     * xderLon = (pt1.x - pt2.x) / dh; double xderLat = (pt1.y - pt2.y) / dv;
-     *
-     * this.project(lon, lat1, pt1); this.project(lon, lat2, pt2); double
-     * yderLon = (pt1.x - pt2.x) / dh; double yderLat = (pt1.y - pt2.y) / dv;
-     *
-     * double det = xderLon * yderLat - xderLat * yderLon;
-     *
-     *
-     * // Newton: // |lon'| |lon| |x(lon, lat) - x| // | | = | | - inv(D) * | |
-     * // |lat'| |lat| |y(lon, lat) - y| // // |xderLon xderLat| // D = | | //
-     * |yderLon yderLat| // // inv(D) = 1/det(D)*trans(D)
-     *
-     * this.project(lon, lat, pt1); double fx = (pt1.x - x); double fy = (pt1.y
-     * - y);
-     *
-     * double lonDif = (xderLon * fx + yderLon * fy) / det; double latDif =
-     * (xderLat * fx + yderLat * fy) / det; lon -= lonDif; lat -= latDif; if
-     * (Math.abs(lonDif) < EPS && Math.abs(latDif) < EPS) { break; }
-     *
-     * counter++; //System.out.println("#" + (counter) + "\t " + lonDif + "\t "
-     * + latDif); //System.out.println("\t"+ Math.toDegrees(lon) + "\t " +
-     * Math.toDegrees(lat));
-     *
-     * if (counter > 500) { lon = Double.NaN; lat = Double.NaN; break; } }
-     *
-     * lp.x = lon; lp.y = lat;
-     *
-     * }
+     * Returns the mean of the left and right derivatives of the bending factor
+     * for the bending factor at a location where the bending factor is 0.
+     * @param lon Longitude in radians.
+     * @return The mean derivative.
      */
+    private double meanBendDerivative(double lon) {
+        switch (model.getCurveShape()) {
+            case FlexProjectionModel.CUBIC_CURVE: {
+                final double xn = Math.abs(lon) / Math.PI;
+                return 0.5 - xn * xn * xn;
+            }
+            case FlexProjectionModel.QUADRATIC_CURVE: {
+                final double xn = lon / Math.PI;
+                return 0.5 - xn * xn;
+            }
+            case FlexProjectionModel.COSINE_CURVE:
+                return 0;
+        }
+        return 0;
+    }
+
     // inversion without bending or meridians distribution
     public Point2D.Double projectInverseRobinson(double x, double y, Point2D.Double lp) {
+        return projectInverseRobinson(this.model, x, y, lp);
+    }
 
-        assert this.model.getY(NODES) == 1;
+    /**
+     * Inversion without bending or meridians distribution.
+     * @param model A normalized model.
+     */
+    private static Point2D.Double projectInverseRobinson(FlexProjectionModel model,
+            double x, double y, Point2D.Double lp) {
 
-        final double globalScale = this.model.getScale();
+        assert model.getY(NODES) == 1;
+
+        final double globalScale = model.getScale();
         lp.x = x / globalScale;
-        lp.y = Math.abs(y / this.model.getScaleY() / globalScale / Math.PI);
+        lp.y = Math.abs(y / model.getScaleY() / globalScale / Math.PI);
         if (lp.y >= 1.0) { // simple pathologic cases
             if (lp.y > 1.000001) {
                 lp.x = Double.NaN;
@@ -230,30 +456,30 @@ public class FlexProjection extends DesignProjection implements SerializableProj
 //                throw new ProjectionException();
             } else {
                 lp.y = y < 0. ? -MapMath.HALFPI : MapMath.HALFPI;
-                lp.x /= this.model.getX(NODES);
+                lp.x /= model.getX(NODES);
             }
         } else { // general problem
             // in Y space, reduce to table interval
 
             int i;
             for (i = (int) (lp.y * NODES);;) {
-                if (this.model.getY(i) > lp.y) {
+                if (model.getY(i) > lp.y) {
                     i--;
-                } else if (this.model.getY(i + 1) <= lp.y) {
+                } else if (model.getY(i + 1) <= lp.y) {
                     i++;
                 } else {
                     break;
                 }
             }
 
-            final double[] splineCoeffs = this.model.getDistSplineCoeffs(i);
+            final double[] splineCoeffs = model.getDistSplineCoefficients()[i];
             double Tc0 = splineCoeffs[0];
             final double Tc1 = splineCoeffs[1];
             final double Tc2 = splineCoeffs[2];
             final double Tc3 = splineCoeffs[3];
 
             // first guess, linear interpolation
-            final double Yi1 = this.model.getY(i + 1);
+            final double Yi1 = model.getY(i + 1);
             double t1, t = (lp.y - Tc0) / (Yi1 - Tc0);
 
             // make into root: find x for y = 0 of f(x)=spline(x)-Tc0
@@ -280,6 +506,19 @@ public class FlexProjection extends DesignProjection implements SerializableProj
         return model;
     }
 
+    /**
+     * Flex projections are symmetric by construction.
+     */
+    @Override
+    public boolean isSymmetric() {
+        return true;
+    }
+
+    @Override
+    public long getModificationCount() {
+        return model.getModificationCount();
+    }
+
     public void setModel(FlexProjectionModel parameters) {
         this.model = parameters;
     }
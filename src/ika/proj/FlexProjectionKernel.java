@@ -0,0 +1,306 @@
+package ika.proj;
+
+import ika.utils.SplineTable;
+import java.awt.geom.Point2D;
+
+/**
+ * The forward Flex projection for one set of parameters of a
+ * FlexProjectionModel. A kernel is immutable: all parameters are copied to
+ * final fields when the kernel is created, so it can be shared by any number
+ * of threads while the model is changed. There is one subclass for each curve
+ * shape of the bent parallels, which avoids selecting the curve shape for
+ * every point.
+ * Kernels are created with FlexProjectionModel.compile(). The results are
+ * identical to the results of FlexProjection.project().
+ *
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich
+ */
+public abstract class FlexProjectionKernel {
+
+    private static final double RAD15 = Math.toRadians(15);
+
+    /**
+     * The modification count of the model when this kernel was created.
+     */
+    private final long modificationCount;
+
+    /**
+     * Global scale factor.
+     */
+    private final double scale;
+
+    /**
+     * Global scale factor multiplied with the vertical scale factor.
+     */
+    private final double scaleY;
+
+    /**
+     * True if parallels are bent.
+     */
+    private final boolean adjustBending;
+
+    /**
+     * True if the distance between meridians varies.
+     */
+    private final boolean adjustMeridians;
+
+    /**
+     * Polynomial coefficients of the splines, four per segment. Not used if
+     * the model is tabulated.
+     */
+    private final double[] lengthCoeffs, distCoeffs, bendCoeffs, xDistCoeffs;
+
+    /**
+     * Tables of the splines, or null if the model is not tabulated.
+     */
+    private final SplineTable lengthTable, distTable, bendTable, xDistTable;
+
+    /**
+     * Creates a kernel for a curve shape.
+     * @param curveShape One of the curve shapes of FlexProjectionModel.
+     */
+    static FlexProjectionKernel create(int curveShape, long modificationCount,
+            double scale, double scaleY,
+            boolean adjustBending, boolean adjustMeridians,
+            double[] lengthCoeffs, double[] distCoeffs,
+            double[] bendCoeffs, double[] xDistCoeffs,
+            SplineTable lengthTable, SplineTable distTable,
+            SplineTable bendTable, SplineTable xDistTable) {
+
+        switch (curveShape) {
+            case FlexProjectionModel.QUADRATIC_CURVE:
+                return new Quadratic(modificationCount, scale, scaleY,
+                        adjustBending, adjustMeridians,
+                        lengthCoeffs, distCoeffs, bendCoeffs, xDistCoeffs,
+                        lengthTable, distTable, bendTable, xDistTable);
+            case FlexProjectionModel.COSINE_CURVE:
+                return new Cosine(modificationCount, scale, scaleY,
+                        adjustBending, adjustMeridians,
+                        lengthCoeffs, distCoeffs, bendCoeffs, xDistCoeffs,
+                        lengthTable, distTable, bendTable, xDistTable);
+            default:
+                return new Cubic(modificationCount, scale, scaleY,
+                        adjustBending, adjustMeridians,
+                        lengthCoeffs, distCoeffs, bendCoeffs, xDistCoeffs,
+                        lengthTable, distTable, bendTable, xDistTable);
+        }
+    }
+
+    private FlexProjectionKernel(long modificationCount,
+            double scale, double scaleY,
+            boolean adjustBending, boolean adjustMeridians,
+            double[] lengthCoeffs, double[] distCoeffs,
+            double[] bendCoeffs, double[] xDistCoeffs,
+            SplineTable lengthTable, SplineTable distTable,
+            SplineTable bendTable, SplineTable xDistTable) {
+        this.modificationCount = modificationCount;
+        this.scale = scale;
+        this.scaleY = scale * scaleY;
+        this.adjustBending = adjustBending;
+        this.adjustMeridians = adjustMeridians;
+        this.lengthCoeffs = lengthCoeffs;
+        this.distCoeffs = distCoeffs;
+        this.bendCoeffs = bendCoeffs;
+        this.xDistCoeffs = xDistCoeffs;
+        this.lengthTable = lengthTable;
+        this.distTable = distTable;
+        this.bendTable = bendTable;
+        this.xDistTable = xDistTable;
+    }
+
+    /**
+     * Returns the modification count of the model when this kernel was
+     * created.
+     */
+    public final long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Evaluates a spline with the same arithmetic as CubicSpline.eval().
+     * @param coeffs Four coefficients per segment.
+     * @param x The position in spline parameter units.
+     */
+    private static double eval(double[] coeffs, double x) {
+        int i = (int) x;
+        final int segments = coeffs.length / 4;
+        if (i >= segments) {
+            i = segments - 1;
+        }
+        final double t = x - i;
+        final int k = i * 4;
+        return coeffs[k] + t * (coeffs[k + 1] + t * (coeffs[k + 2] + t * coeffs[k + 3]));
+    }
+
+    private double length(double lat) {
+        final double x = Math.abs(lat * FlexProjectionModel.LAT_INC_INV);
+        return lengthTable != null ? lengthTable.eval(x) : eval(lengthCoeffs, x);
+    }
+
+    private double dist(double lat) {
+        final double x = Math.abs(lat * FlexProjectionModel.LAT_INC_INV);
+        return distTable != null ? distTable.eval(x) : eval(distCoeffs, x);
+    }
+
+    private double bendFactor(double lat) {
+        final double x = Math.abs(lat * FlexProjectionModel.LAT_INC_INV);
+        return bendTable != null ? bendTable.eval(x) : eval(bendCoeffs, x);
+    }
+
+    private double xDist(double lon) {
+        final double x = Math.abs(lon * FlexProjectionModel.LON_INC_INV);
+        return xDistTable != null ? xDistTable.eval(x) : eval(xDistCoeffs, x);
+    }
+
+    /**
+     * Bends a parallel.
+     * @param lon The longitude in radians.
+     * @param y The vertical coordinate of the straight parallel.
+     * @param bend The bending factor of the parallel, not 0.
+     * @return The vertical coordinate of the bent parallel.
+     */
+    abstract double bend(double lon, double y, double bend);
+
+    /**
+     * Projects a point.
+     * @param lon Longitude in radians.
+     * @param lat Latitude in radians.
+     * @param dst Receives the projected coordinates.
+     * @return dst
+     */
+    public final Point2D.Double project(double lon, double lat, Point2D.Double dst) {
+        double x = lon;
+        if (adjustMeridians) {
+            x += Math.signum(lon) * xDist(lon) * RAD15;
+        }
+        x *= scale * length(lat);
+
+        double y = scaleY * dist(lat) * Math.PI;
+        if (lat < 0.0) {
+            y = -y;
+        }
+        if (adjustBending) {
+            final double b = bendFactor(lat);
+            if (b != 0.) {
+                y = bend(lon, y, b);
+            }
+        }
+        dst.x = x;
+        dst.y = y;
+        return dst;
+    }
+
+    /**
+     * Projects a block of points.
+     * @param lon Longitudes in radians.
+     * @param lat Latitudes in radians.
+     * @param x Receives the projected horizontal coordinates.
+     * @param y Receives the projected vertical coordinates.
+     * @param offset The index of the first point.
+     * @param n The number of points.
+     */
+    public final void projectArray(double[] lon, double[] lat, double[] x, double[] y,
+            int offset, int n) {
+        final int end = offset + n;
+        for (int i = offset; i < end; i++) {
+            final double lam = lon[i];
+            final double phi = lat[i];
+
+            double xi = lam;
+            if (adjustMeridians) {
+                xi += Math.signum(lam) * xDist(lam) * RAD15;
+            }
+            xi *= scale * length(phi);
+
+            double yi = scaleY * dist(phi) * Math.PI;
+            if (phi < 0.0) {
+                yi = -yi;
+            }
+            if (adjustBending) {
+                final double b = bendFactor(phi);
+                if (b != 0.) {
+                    yi = bend(lam, yi, b);
+                }
+            }
+            x[i] = xi;
+            y[i] = yi;
+        }
+    }
+
+    /**
+     * Parallels bent with a cubic curve.
+     */
+    private static final class Cubic extends FlexProjectionKernel {
+
+        private Cubic(long modificationCount, double scale, double scaleY,
+                boolean adjustBending, boolean adjustMeridians,
+                double[] lengthCoeffs, double[] distCoeffs,
+                double[] bendCoeffs, double[] xDistCoeffs,
+                SplineTable lengthTable, SplineTable distTable,
+                SplineTable bendTable, SplineTable xDistTable) {
+            super(modificationCount, scale, scaleY, adjustBending, adjustMeridians,
+                    lengthCoeffs, distCoeffs, bendCoeffs, xDistCoeffs,
+                    lengthTable, distTable, bendTable, xDistTable);
+        }
+
+        @Override
+        double bend(double lon, double y, double bend) {
+            final double xn = Math.abs(lon) / Math.PI;
+            if (bend < 0) {
+                return y * (1 + bend * (1 - xn * xn * xn));
+            }
+            return y * (1 - bend * xn * xn * xn);
+        }
+    }
+
+    /**
+     * Parallels bent with a quadratic curve.
+     */
+    private static final class Quadratic extends FlexProjectionKernel {
+
+        private Quadratic(long modificationCount, double scale, double scaleY,
+                boolean adjustBending, boolean adjustMeridians,
+                double[] lengthCoeffs, double[] distCoeffs,
+                double[] bendCoeffs, double[] xDistCoeffs,
+                SplineTable lengthTable, SplineTable distTable,
+                SplineTable bendTable, SplineTable xDistTable) {
+            super(modificationCount, scale, scaleY, adjustBending, adjustMeridians,
+                    lengthCoeffs, distCoeffs, bendCoeffs, xDistCoeffs,
+                    lengthTable, distTable, bendTable, xDistTable);
+        }
+
+        @Override
+        double bend(double lon, double y, double bend) {
+            final double xn = lon / Math.PI;
+            if (bend < 0) {
+                return y * (1 + bend * (1 - xn * xn));
+            }
+            return y * (1 - bend * (xn * xn));
+        }
+    }
+
+    /**
+     * Parallels bent with a cosine curve.
+     */
+    private static final class Cosine extends FlexProjectionKernel {
+
+        private Cosine(long modificationCount, double scale, double scaleY,
+                boolean adjustBending, boolean adjustMeridians,
+                double[] lengthCoeffs, double[] distCoeffs,
+                double[] bendCoeffs, double[] xDistCoeffs,
+                SplineTable lengthTable, SplineTable distTable,
+                SplineTable bendTable, SplineTable xDistTable) {
+            super(modificationCount, scale, scaleY, adjustBending, adjustMeridians,
+                    lengthCoeffs, distCoeffs, bendCoeffs, xDistCoeffs,
+                    lengthTable, distTable, bendTable, xDistTable);
+        }
+
+        @Override
+        double bend(double lon, double y, double bend) {
+            if (bend < 0) {
+                return y * (1 + bend * Math.cos(Math.abs(lon * 0.5)));
+            }
+            return y * (1 - bend * Math.abs(Math.cos(lon * 0.5)));
+        }
+    }
+}
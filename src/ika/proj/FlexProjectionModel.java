@@ -9,9 +9,11 @@ package ika.proj;
 import com.jhlabs.map.MapMath;
 import com.jhlabs.map.proj.Projection;
 import ika.utils.CubicSpline;
+import ika.utils.SplineTable;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -66,8 +68,8 @@ public final class FlexProjectionModel implements Cloneable {
     /**
      * The distance between parallels for which a reference value is defined.
      */
-    private static final double LAT_INC_INV = 1. / Math.toRadians(90. / 18.);
-    private static final double LON_INC_INV = 1. / Math.toRadians(180. / 12.);
+    static final double LAT_INC_INV = 1. / Math.toRadians(90. / 18.);
+    static final double LON_INC_INV = 1. / Math.toRadians(180. / 12.);
     public static final int CUBIC_CURVE = 0;
     public static final int QUADRATIC_CURVE = 1;
     public static final int COSINE_CURVE = 2;
@@ -75,6 +77,10 @@ public final class FlexProjectionModel implements Cloneable {
     public static final double MIN_BENDING = -MAX_BENDING;
     public static final double MAX_MERIDIANS_DIST = 1d;
     public static final double MIN_MERIDIANS_DIST = -MAX_MERIDIANS_DIST;
+    /**
+     * Default distance between samples of the spline tables in degrees.
+     */
+    public static final double DEFAULT_TABLE_STEP = 0.01;
     private int curveShape = CUBIC_CURVE;
     /**
      * Global scale factor applied to the graticule.
@@ -115,6 +121,67 @@ public final class FlexProjectionModel implements Cloneable {
      * True if meridians are smooth at the equator.
      */
     private boolean meridiansSmoothAtEquator = true;
+    /**
+     * Source of modification counts. Every change to any model draws a new
+     * count, so two models with equal counts have identical parameters.
+     */
+    private static final AtomicLong modificationCounter = new AtomicLong();
+    /**
+     * The modification count of this model. Derived data is cached against
+     * this count and rebuilt when it changes.
+     */
+    private long modificationCount = modificationCounter.incrementAndGet();
+    /**
+     * Cached normalized copy of this model, valid for normalizedModelCount.
+     */
+    private FlexProjectionModel normalizedModel;
+    private long normalizedModelCount;
+    /**
+     * Cached coefficients of the distance spline, valid for
+     * distSplineCoeffsCount. Used to seed the inverse projection.
+     */
+    private double[][] distSplineCoeffs;
+    private long distSplineCoeffsCount;
+    /**
+     * If true, the splines are evaluated with dense tables instead of the
+     * spline polynomials.
+     */
+    private boolean tabulated = false;
+    /**
+     * Distance between samples of the spline tables in degrees.
+     */
+    private double tableStep = DEFAULT_TABLE_STEP;
+    /**
+     * Cached spline tables, rebuilt when the model changes.
+     */
+    private SplineTables splineTables;
+    /**
+     * Cached kernel for the forward projection, rebuilt when the model changes.
+     */
+    private FlexProjectionKernel kernel;
+
+    /**
+     * Dense tables sampled from the four splines for one modification count.
+     */
+    private static final class SplineTables {
+
+        final long modificationCount;
+        final SplineTable length;
+        final SplineTable dist;
+        final SplineTable bend;
+        final SplineTable xDist;
+
+        SplineTables(FlexProjectionModel model) {
+            modificationCount = model.modificationCount;
+            // knots are 5 degrees apart for latitude, and 15 for longitude
+            final int latSamples = (int) Math.max(1, Math.round(5. / model.tableStep));
+            final int lonSamples = (int) Math.max(1, Math.round(15. / model.tableStep));
+            length = new SplineTable(model.lengthSpline, latSamples);
+            dist = new SplineTable(model.distSpline, latSamples);
+            bend = new SplineTable(model.bendSpline, latSamples);
+            xDist = new SplineTable(model.xDistSpline, lonSamples);
+        }
+    }
 
     /** Creates a new instance of FlexProjectionModel */
     public FlexProjectionModel() {
@@ -158,6 +225,7 @@ public final class FlexProjectionModel implements Cloneable {
         ProjectionFactors pf = new ProjectionFactors();
         pf.compute(proj, 0, 0, 1e-5);
         scaleY *= pf.k / pf.h;
+        modified();
 
     }
 
@@ -186,18 +254,23 @@ public final class FlexProjectionModel implements Cloneable {
         scaleY = height / width;
 
         // length and distance of parallels
+        final double[] length = new double[lengthSpline.getKnotsCount()];
+        final double[] dist = new double[distSpline.getKnotsCount()];
         for (int i = 0; i <= 90; i += 5) {
             final double lat = Math.toRadians(i);
             proj.project(Math.PI, lat, pt);
-            lengthSpline.setKnot(i / 5, pt.x / Math.PI);
-            distSpline.setKnot(i / 5, pt.y / (scaleY * Math.PI));
+            length[i / 5] = pt.x / Math.PI;
+            dist[i / 5] = pt.y / (scaleY * Math.PI);
         }
+        lengthSpline.setKnots(length);
+        distSpline.setKnots(dist);
 
         adjustPoleDirection = false;
 
         scale = 1;
 
         // bending of parallels
+        final double[] bend = new double[bendSpline.getKnotsCount()];
         for (int i = 5; i <= 90; i += 5) {
             // test whether there is some bending
             final double lat = Math.toRadians(i);
@@ -205,25 +278,26 @@ public final class FlexProjectionModel implements Cloneable {
             final double y180 = proj.project(Math.PI, lat, pt).y;
             final double b_i = y0 / y180 - 1;
             final double bending = Math.abs(b_i) < 0.0001 ? 0 : b_i;
-            bendSpline.setKnot(i / 5, bending);
+            bend[i / 5] = bending;
         }
-        bendSpline.setKnot(0, bendSpline.getKnot(1));
+        bend[0] = bend[1];
+        bendSpline.setKnots(bend);
 
         // distribution of meridians
         final int hDistKnotsCount = xDistSpline.getKnotsCount();
-        // first value is 0, i.e. the central meridian cannot be moved.
-        xDistSpline.setKnot(0, 0d);
-        // last value is 0, i.e. the bounding meridian cannot be moved.
-        xDistSpline.setKnot(hDistKnotsCount - 1, 0d);
+        // first and last values are 0, i.e. the central meridian and the
+        // bounding meridian cannot be moved.
+        final double[] xDist = new double[hDistKnotsCount];
         final double meridDist = Math.PI / (hDistKnotsCount - 1);
         for (int i = 1; i < hDistKnotsCount - 1; i++) {
             final double lon = i * meridDist;
             final double xRef = proj.project(lon, 0, pt).x;
-            final double xDist = (xRef - width / Math.PI * lon) / (width / Math.PI * meridDist);
-            final double knot = (Math.abs(xDist) < 0.0001) ? 0 : xDist;
-            xDistSpline.setKnot(i, knot);
+            final double d = (xRef - width / Math.PI * lon) / (width / Math.PI * meridDist);
+            xDist[i] = (Math.abs(d) < 0.0001) ? 0 : d;
         }
+        xDistSpline.setKnots(xDist);
 
+        modified();
         normalize();
 
     }
@@ -271,9 +345,150 @@ public final class FlexProjectionModel implements Cloneable {
             endSlope = Double.NaN;
         }
 
+        this.lengthSpline.beginUpdate();
         this.lengthSpline.setStartSlope(startSlope);
         this.lengthSpline.setEndSlope(endSlope);
+        this.lengthSpline.endUpdate();
+
+    }
+
+    /**
+     * Call this each time any parameter of the model changes.
+     */
+    private void modified() {
+        modificationCount = modificationCounter.incrementAndGet();
+    }
+
+    /**
+     * Returns the modification count of this model. The count changes
+     * whenever a parameter of the model changes. Copies made with clone()
+     * share the count until one of them is changed.
+     * @return The modification count.
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Returns a normalized version of this model. Returns this model if it is
+     * normalized, otherwise a normalized copy that is cached until this model
+     * changes. The returned model must not be changed.
+     * @return A normalized model.
+     */
+    synchronized FlexProjectionModel getNormalizedModel() {
+        if (isNormalized()) {
+            return this;
+        }
+        if (normalizedModel == null || normalizedModelCount != modificationCount) {
+            FlexProjectionModel m = clone();
+            m.normalizedModel = null;
+            m.distSplineCoeffs = null;
+            m.normalize();
+            normalizedModel = m;
+            normalizedModelCount = modificationCount;
+        }
+        return normalizedModel;
+    }
+
+    /**
+     * Returns the spline tables for the current parameters. The tables are
+     * built when first needed after a change to the model. The tables are
+     * immutable, so concurrent callers may at worst build them twice.
+     */
+    private SplineTables tables() {
+        SplineTables t = splineTables;
+        if (t == null || t.modificationCount != modificationCount) {
+            t = new SplineTables(this);
+            splineTables = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns an immutable kernel for the forward projection with the current
+     * parameters of this model. The kernel is not affected by later changes
+     * to this model and can be used by any number of threads. It is cached
+     * until this model changes.
+     * This method must not be called while another thread changes this model.
+     * @return The kernel.
+     */
+    public FlexProjectionKernel compile() {
+        FlexProjectionKernel k = kernel;
+        if (k == null || k.getModificationCount() != modificationCount) {
+            final SplineTables t = tabulated ? tables() : null;
+            k = FlexProjectionKernel.create(curveShape, modificationCount,
+                    scale, scaleY, isAdjustingBending(), isAdjustingMeridians(),
+                    coefficients(lengthSpline), coefficients(distSpline),
+                    coefficients(bendSpline), coefficients(xDistSpline),
+                    t == null ? null : t.length, t == null ? null : t.dist,
+                    t == null ? null : t.bend, t == null ? null : t.xDist);
+            kernel = k;
+        }
+        return k;
+    }
 
+    /**
+     * Returns the coefficients of all segments of a spline, four per segment.
+     */
+    private static double[] coefficients(CubicSpline spline) {
+        final int n = spline.getKnotsCount() - 1;
+        final double[] coeffs = new double[n * 4];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(spline.getCoefficientsClone(i), 0, coeffs, i * 4, 4);
+        }
+        return coeffs;
+    }
+
+    /**
+     * Returns true if the splines are evaluated with dense tables.
+     */
+    public boolean isTabulated() {
+        return tabulated;
+    }
+
+    /**
+     * Sets whether the splines are evaluated with dense tables of values and
+     * first derivatives. The tables are linearly interpolated, which is faster
+     * than evaluating the spline polynomials. The error of the interpolated
+     * values is at most h*h/8 times the maximum absolute second derivative of
+     * the spline, and the error of the first derivatives is at most h*h/8
+     * times the maximum absolute third derivative, where h is the table step
+     * in spline parameter units (the step in degrees divided by 5 for parallels
+     * and by 15 for meridians). The bounds are reported by
+     * ika.utils.SplineTable. The inverse projection also uses the tables, as
+     * it is computed iteratively from the tabulated scale factors and their
+     * derivatives.
+     * @param tabulated If true, use tables. If false, evaluate the splines.
+     */
+    public void setTabulated(boolean tabulated) {
+        if (this.tabulated == tabulated) {
+            return;
+        }
+        this.tabulated = tabulated;
+        this.modified();
+    }
+
+    /**
+     * Returns the distance between samples of the spline tables in degrees.
+     */
+    public double getTableStep() {
+        return tableStep;
+    }
+
+    /**
+     * Sets the distance between samples of the spline tables in degrees.
+     * @param tableStep The distance in degrees. The step is rounded such that
+     * the knots of the splines coincide with samples.
+     */
+    public void setTableStep(double tableStep) {
+        if (!(tableStep > 0)) {
+            throw new IllegalArgumentException("table step must be positive");
+        }
+        if (this.tableStep == tableStep) {
+            return;
+        }
+        this.tableStep = tableStep;
+        this.modified();
     }
 
     /**
@@ -283,6 +498,9 @@ public final class FlexProjectionModel implements Cloneable {
      * @return The scale factor.
      */
     public double getLongitudeScaleFactor(double lat) {
+        if (tabulated) {
+            return tables().length.eval(Math.abs(lat * LAT_INC_INV));
+        }
         return this.lengthSpline.eval(Math.abs(lat * LAT_INC_INV));
     }
 
@@ -291,6 +509,9 @@ public final class FlexProjectionModel implements Cloneable {
     }
 
     public double getLongitudeScaleFactorFirstDerivative(double lat) {
+        if (tabulated) {
+            return tables().length.firstDerivative(Math.abs(lat * LAT_INC_INV));
+        }
         return this.lengthSpline.firstDerivative(Math.abs(lat * LAT_INC_INV));
     }
 
@@ -301,14 +522,23 @@ public final class FlexProjectionModel implements Cloneable {
      * @return The scale factor.
      */
     public double getLatitudeScaleFactor(double lat) {
+        if (tabulated) {
+            return tables().dist.eval(Math.abs(lat * LAT_INC_INV));
+        }
         return this.distSpline.eval(Math.abs(lat * LAT_INC_INV));
     }
 
     public double getLatitudeScaleFactorFirstDerivative(double lat) {
+        if (tabulated) {
+            return tables().dist.firstDerivative(Math.abs(lat * LAT_INC_INV));
+        }
         return this.distSpline.firstDerivative(Math.abs(lat * LAT_INC_INV));
     }
 
     public double getBendFactor(double lat) {
+        if (tabulated) {
+            return tables().bend.eval(Math.abs(lat * LAT_INC_INV));
+        }
         return this.bendSpline.eval(Math.abs(lat * LAT_INC_INV));
     }
 
@@ -319,6 +549,9 @@ public final class FlexProjectionModel implements Cloneable {
      * @return The scale factor.
      */
     public double getBendFactorFirstDerivative(double lat) {
+        if (tabulated) {
+            return tables().bend.firstDerivative(Math.abs(lat * LAT_INC_INV));
+        }
         return this.bendSpline.firstDerivative(Math.abs(lat * LAT_INC_INV));
     }
 
@@ -329,10 +562,16 @@ public final class FlexProjectionModel implements Cloneable {
      * @return The scale factor.
      */
     public double getXDistFactor(double lon) {
+        if (tabulated) {
+            return tables().xDist.eval(Math.abs(lon * LON_INC_INV));
+        }
         return this.xDistSpline.eval(Math.abs(lon * LON_INC_INV));
     }
 
     public double getXDistFactorFirstDerivative(double lon) {
+        if (tabulated) {
+            return tables().xDist.firstDerivative(Math.abs(lon * LON_INC_INV));
+        }
         return this.xDistSpline.firstDerivative(Math.abs(lon * LON_INC_INV));
     }
 
@@ -356,6 +595,24 @@ public final class FlexProjectionModel implements Cloneable {
         return this.distSpline.getCoefficientsClone(i);
     }
 
+    /**
+     * Returns the coefficients of all segments of the distance spline. The
+     * table is cached until this model changes and must not be changed.
+     * @return The coefficients for each segment.
+     */
+    synchronized double[][] getDistSplineCoefficients() {
+        if (distSplineCoeffs == null || distSplineCoeffsCount != modificationCount) {
+            final int n = distSpline.getKnotsCount() - 1;
+            double[][] coeffs = new double[n][];
+            for (int i = 0; i < n; i++) {
+                coeffs[i] = distSpline.getCoefficientsClone(i);
+            }
+            distSplineCoeffs = coeffs;
+            distSplineCoeffsCount = modificationCount;
+        }
+        return distSplineCoeffs;
+    }
+
     public void setX(int id, double x) {
         if (this.lengthSpline.getKnot(id) == x) {
             return;
@@ -368,6 +625,7 @@ public final class FlexProjectionModel implements Cloneable {
         } else {
             this.lengthSpline.setKnot(id, x);
         }
+        this.modified();
         this.updateSplineTables();
     }
 
@@ -385,63 +643,67 @@ public final class FlexProjectionModel implements Cloneable {
         } else if (y < 0) {
             y = 0;
         }
-        this.distSpline.setKnot(id, y);
+        final double[] dist = this.distSpline.getKnotsClone();
+        dist[id] = y;
         
         // make sure the values in the distance array are increasing.
         if (increasing) {
-            for (int i = 0; i < this.distSpline.getKnotsCount() - 1; i++) {
-                final double v = this.distSpline.getKnot(i);
-                if (v > this.distSpline.getKnot(i + 1)) {
-                    this.distSpline.setKnot(i + 1, v);
+            for (int i = 0; i < dist.length - 1; i++) {
+                if (dist[i] > dist[i + 1]) {
+                    dist[i + 1] = dist[i];
                 }
             }
         } else {
-            for (int i = this.distSpline.getKnotsCount() - 1; i > 0; i--) {
-                final double v = this.distSpline.getKnot(i);
-                if (v < this.distSpline.getKnot(i - 1)) {
-                    this.distSpline.setKnot(i - 1, v);
+            for (int i = dist.length - 1; i > 0; i--) {
+                if (dist[i] < dist[i - 1]) {
+                    dist[i - 1] = dist[i];
                 }
             }
         }
+        this.distSpline.setKnots(dist);
 
+        this.modified();
         this.updateSplineTables();
     }
 
     public void linearYDistribution() {
-        this.distSpline.setKnot(0, 0);
         final int nKnots = this.distSpline.getKnotsCount();
+        final double[] dist = new double[nKnots];
         for (int i = 1; i < nKnots; i++) {
-            this.distSpline.setKnot(i, i / (nKnots - 1d));
+            dist[i] = i / (nKnots - 1d);
         }
+        this.distSpline.setKnots(dist);
+        this.modified();
         this.updateSplineTables();
     }
 
     public void setBending(int id, double b) {
         b = Math.min(Math.max(b, MIN_BENDING), MAX_BENDING);
         this.bendSpline.setKnot(id, b);
+        this.modified();
     }
 
     public void resetBending() {
-        for (int i = 0; i < this.bendSpline.getKnotsCount(); i++) {
-            this.bendSpline.setKnot(i, 0d);
-        }
+        this.bendSpline.setKnots(new double[this.bendSpline.getKnotsCount()]);
+        this.modified();
     }
 
     public void setXDist(int id, double xd) {
         xd = Math.min(Math.max(xd, MIN_MERIDIANS_DIST), MAX_MERIDIANS_DIST);
         this.xDistSpline.setKnot(id, xd);
+        this.modified();
     }
 
     public void resetMeridiansDistribution() {
-        for (int i = 0; i < xDistSpline.getKnotsCount(); i++) {
-            xDistSpline.setKnot(i, 0d);
-        }
+        xDistSpline.setKnots(new double[xDistSpline.getKnotsCount()]);
+        this.modified();
     }
 
     public void resetLengthDistribution() {
-        for (int i = 0; i < lengthSpline.getKnotsCount(); i++) {
-            lengthSpline.setKnot(i, 1d);
-        }
+        final double[] length = new double[lengthSpline.getKnotsCount()];
+        java.util.Arrays.fill(length, 1d);
+        lengthSpline.setKnots(length);
+        this.modified();
     }
 
     public double getX(int id) {
@@ -469,6 +731,7 @@ public final class FlexProjectionModel implements Cloneable {
             return;
         }
         this.scaleY = scaleY;
+        this.modified();
         this.updateSplineTables();
     }
 
@@ -590,8 +853,9 @@ public final class FlexProjectionModel implements Cloneable {
 
         // overread "Length of Parallels"
         tokenizer.nextToken();
-        for (int i = 0; i < this.lengthSpline.getKnotsCount(); i++) {
-            lengthSpline.setKnot(i, Double.parseDouble(tokenizer.nextToken()));
+        final double[] length = new double[this.lengthSpline.getKnotsCount()];
+        for (int i = 0; i < length.length; i++) {
+            length[i] = Double.parseDouble(tokenizer.nextToken());
         }
 
         // overread "Adjust Meridians Pole Direction:"
@@ -616,8 +880,9 @@ public final class FlexProjectionModel implements Cloneable {
 
         // overread "Distance of Parallels from Equator"
         tokenizer.nextToken();
-        for (int i = 0; i < distSpline.getKnotsCount(); i++) {
-            distSpline.setKnot(i, Double.parseDouble(tokenizer.nextToken()));
+        final double[] dist = new double[distSpline.getKnotsCount()];
+        for (int i = 0; i < dist.length; i++) {
+            dist[i] = Double.parseDouble(tokenizer.nextToken());
         }
 
         // overread "Bending"
@@ -630,16 +895,25 @@ public final class FlexProjectionModel implements Cloneable {
         } else if ("cosine".equals(shape)) {
             this.curveShape = COSINE_CURVE;
         }
-        for (int i = 0; i < this.bendSpline.getKnotsCount(); i++) {
-            this.bendSpline.setKnot(i, Double.parseDouble(tokenizer.nextToken()));
+        final double[] bend = new double[this.bendSpline.getKnotsCount()];
+        for (int i = 0; i < bend.length; i++) {
+            bend[i] = Double.parseDouble(tokenizer.nextToken());
         }
 
         // overread "Meridians Distribution:\n"
         tokenizer.nextToken();
-        for (int i = 0; i < this.xDistSpline.getKnotsCount(); i++) {
-            this.xDistSpline.setKnot(i, Double.parseDouble(tokenizer.nextToken()));
+        final double[] xDist = new double[this.xDistSpline.getKnotsCount()];
+        for (int i = 0; i < xDist.length; i++) {
+            xDist[i] = Double.parseDouble(tokenizer.nextToken());
         }
 
+        // compute each spline once
+        this.lengthSpline.setKnots(length);
+        this.distSpline.setKnots(dist);
+        this.bendSpline.setKnots(bend);
+        this.xDistSpline.setKnots(xDist);
+
+        this.modified();
         this.updateSplineTables();
     }
 
@@ -652,6 +926,7 @@ public final class FlexProjectionModel implements Cloneable {
             return;
         }
         this.curveShape = curveShape;
+        this.modified();
         this.updateSplineTables();
     }
 
@@ -664,9 +939,11 @@ public final class FlexProjectionModel implements Cloneable {
         // force maximum length to 1
         double maxLength = lengthSpline.getKnotMaximum();
         if (maxLength != 1.) {
+            final double[] length = lengthSpline.getKnotsClone();
             for (int i = 0; i <= 18; i++) {
-                lengthSpline.setKnot(i, lengthSpline.getKnot(i) / maxLength);
+                length[i] /= maxLength;
             }
+            lengthSpline.setKnots(length);
             // adjust vertical scale, such that the length/height proportions don't change.
             scaleY /= maxLength;
 
@@ -677,16 +954,19 @@ public final class FlexProjectionModel implements Cloneable {
         // force pole at distance 1
         final double maxDist = distSpline.getKnot(18);
         if (maxDist != 1) {
-            for (int i = 0; i < distSpline.getKnotsCount() - 1; i++) {
-                distSpline.setKnot(i, distSpline.getKnot(i) / maxDist);
+            final double[] dist = distSpline.getKnotsClone();
+            for (int i = 0; i < dist.length - 1; i++) {
+                dist[i] /= maxDist;
             }
-            distSpline.setKnot(18, 1d);
+            dist[18] = 1d;
+            distSpline.setKnots(dist);
 
             // adjust vertical scale, no need to adjust the global scale
             scaleY *= maxDist;
         }
 
         if (maxLength != 1 || maxDist != 1) {
+            modified();
             updateSplineTables();
         }
     }
@@ -709,7 +989,11 @@ public final class FlexProjectionModel implements Cloneable {
     }
 
     public void setScale(double scale) {
+        if (this.scale == scale) {
+            return;
+        }
         this.scale = scale;
+        this.modified();
     }
 
     public double getMeridiansPoleDirection() {
@@ -722,6 +1006,7 @@ public final class FlexProjectionModel implements Cloneable {
         }
 
         this.meridiansPoleDirection = meridiansPoleDirection;
+        this.modified();
         this.updateSplineTables();
     }
 
@@ -735,6 +1020,7 @@ public final class FlexProjectionModel implements Cloneable {
         }
 
         this.adjustPoleDirection = adjustPoleDirection;
+        this.modified();
         this.updateSplineTables();
     }
 
@@ -748,40 +1034,33 @@ public final class FlexProjectionModel implements Cloneable {
         }
 
         this.meridiansSmoothAtEquator = meridiansSmoothAtEquator;
+        this.modified();
         this.updateSplineTables();
     }
 
     public void mixCurves(FlexProjectionModel flexProjectionModel,
             double lengthW, double distanceW, double bendingW, double meridiansW) {
 
-        for (int i = 0; i < this.lengthSpline.getKnotsCount(); i++) {
-            final double k1 = this.lengthSpline.getKnot(i);
-            final double k2 = flexProjectionModel.lengthSpline.getKnot(i);
-            final double knot = (1d - lengthW) * k1 + lengthW * k2;
-            this.lengthSpline.setKnot(i, knot);
-        }
-
-        for (int i = 0; i < this.distSpline.getKnotsCount(); i++) {
-            final double k1 = this.distSpline.getKnot(i);
-            final double k2 = flexProjectionModel.distSpline.getKnot(i);
-            final double knot = (1d - distanceW) * k1 + distanceW * k2;
-            this.distSpline.setKnot(i, knot);
-        }
+        mixKnots(this.lengthSpline, flexProjectionModel.lengthSpline, lengthW);
+        mixKnots(this.distSpline, flexProjectionModel.distSpline, distanceW);
+        mixKnots(this.bendSpline, flexProjectionModel.bendSpline, bendingW);
+        mixKnots(this.xDistSpline, flexProjectionModel.xDistSpline, meridiansW);
 
-        for (int i = 0; i < this.bendSpline.getKnotsCount(); i++) {
-            final double k1 = this.bendSpline.getKnot(i);
-            final double k2 = flexProjectionModel.bendSpline.getKnot(i);
-            final double knot = (1d - bendingW) * k1 + bendingW * k2;
-            this.bendSpline.setKnot(i, knot);
-        }
+        this.modified();
+        this.updateSplineTables();
+    }
 
-        for (int i = 0; i < this.xDistSpline.getKnotsCount(); i++) {
-            final double k1 = this.xDistSpline.getKnot(i);
-            final double k2 = flexProjectionModel.xDistSpline.getKnot(i);
-            final double knot = (1d - meridiansW) * k1 + meridiansW * k2;
-            this.xDistSpline.setKnot(i, knot);
+    /**
+     * Replaces the knots of spline1 with the weighted mean of the knots of
+     * spline1 and spline2.
+     */
+    private static void mixKnots(CubicSpline spline1, CubicSpline spline2, double w) {
+        final double[] knots = spline1.getKnotsClone();
+        for (int i = 0; i < knots.length; i++) {
+            final double k1 = knots[i];
+            final double k2 = spline2.getKnot(i);
+            knots[i] = (1d - w) * k1 + w * k2;
         }
-        
-        this.updateSplineTables();
+        spline1.setKnots(knots);
     }
 }
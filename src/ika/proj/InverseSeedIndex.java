@@ -0,0 +1,308 @@
+package ika.proj;
+
+import com.jhlabs.map.proj.Projection;
+import com.jhlabs.map.proj.ProjectionException;
+import java.awt.geom.Point2D;
+
+/**
+ * Initial guesses for iterative inverse projections. A regular lattice of
+ * longitude/latitude nodes is projected once, and the projected nodes are
+ * stored in a uniform spatial hash. For a projected point, the nearest node is
+ * searched, and the position inside one of the four adjacent lattice cells is
+ * found by inverting the bilinear interpolation between the projected corners
+ * of the cell. There is no guess for points outside of the projected lattice.
+ * An index is immutable and can be shared by clones of a projection, as long
+ * as the projection does not change.
+ * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
+ */
+public final class InverseSeedIndex {
+
+    /**
+     * Distance between lattice nodes in degrees.
+     */
+    private static final double LATTICE_STEP_DEG = 5;
+
+    /**
+     * Number of lattice columns.
+     */
+    private static final int LON_NODES = (int) Math.round(360 / LATTICE_STEP_DEG) + 1;
+
+    /**
+     * Number of lattice rows.
+     */
+    private static final int LAT_NODES = (int) Math.round(180 / LATTICE_STEP_DEG) + 1;
+
+    /**
+     * Lattice step in radians.
+     */
+    private static final double LATTICE_STEP_RAD = Math.toRadians(LATTICE_STEP_DEG);
+
+    /**
+     * Projected X coordinates of the nodes, row by row from south to north.
+     * NaN if a node cannot be projected.
+     */
+    private final double[] nodeX;
+
+    /**
+     * Projected Y coordinates of the nodes.
+     */
+    private final double[] nodeY;
+
+    /**
+     * Bounding box of the projected nodes.
+     */
+    private final double west, south;
+
+    /**
+     * Size of a cell of the spatial hash.
+     */
+    private final double hashCellSize;
+
+    /**
+     * Dimension of the spatial hash.
+     */
+    private final int hashCols, hashRows;
+
+    /**
+     * The nodes in hash cell i are bucketNodes[bucketStart[i]] to
+     * bucketNodes[bucketStart[i + 1] - 1].
+     */
+    private final int[] bucketStart;
+
+    /**
+     * Node indices sorted by hash cell.
+     */
+    private final int[] bucketNodes;
+
+    /**
+     * Projects the lattice and builds the spatial hash.
+     * @param projection The projection. Must be initialized.
+     */
+    public InverseSeedIndex(Projection projection) {
+        final int n = LON_NODES * LAT_NODES;
+        double[] lon = new double[n];
+        double[] lat = new double[n];
+        for (int r = 0; r < LAT_NODES; r++) {
+            for (int c = 0; c < LON_NODES; c++) {
+                lon[r * LON_NODES + c] = -Math.PI + c * LATTICE_STEP_RAD;
+                lat[r * LON_NODES + c] = -Math.PI / 2 + r * LATTICE_STEP_RAD;
+            }
+        }
+        nodeX = new double[n];
+        nodeY = new double[n];
+        if (projection instanceof DesignProjection) {
+            ((DesignProjection) projection).projectArray(lon, lat, nodeX, nodeY, 0, n);
+        } else {
+            Point2D.Double pt = new Point2D.Double();
+            for (int i = 0; i < n; i++) {
+                try {
+                    projection.project(lon[i], lat[i], pt);
+                    nodeX[i] = pt.x;
+                    nodeY[i] = pt.y;
+                } catch (ProjectionException exc) {
+                    nodeX[i] = nodeY[i] = Double.NaN;
+                }
+            }
+        }
+
+        // bounding box of valid nodes
+        double xMin = Double.MAX_VALUE, xMax = -Double.MAX_VALUE;
+        double yMin = Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+        int validCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (isValid(i)) {
+                xMin = Math.min(xMin, nodeX[i]);
+                xMax = Math.max(xMax, nodeX[i]);
+                yMin = Math.min(yMin, nodeY[i]);
+                yMax = Math.max(yMax, nodeY[i]);
+                validCount++;
+            }
+        }
+        if (validCount == 0) {
+            xMin = xMax = yMin = yMax = 0;
+        }
+
+        // about one node per hash cell
+        final double w = xMax - xMin;
+        final double h = yMax - yMin;
+        final double area = Math.max(w * h, 1e-12);
+        hashCellSize = Math.max(Math.sqrt(area / Math.max(validCount, 1)),
+                Math.max(w, h) / 1024);
+        hashCols = (int) (w / hashCellSize) + 1;
+        hashRows = (int) (h / hashCellSize) + 1;
+        west = xMin;
+        south = yMin;
+
+        // sort the nodes into buckets
+        bucketStart = new int[hashCols * hashRows + 1];
+        for (int i = 0; i < n; i++) {
+            if (isValid(i)) {
+                bucketStart[bucket(nodeX[i], nodeY[i]) + 1]++;
+            }
+        }
+        for (int i = 0; i < hashCols * hashRows; i++) {
+            bucketStart[i + 1] += bucketStart[i];
+        }
+        bucketNodes = new int[validCount];
+        int[] fill = bucketStart.clone();
+        for (int i = 0; i < n; i++) {
+            if (isValid(i)) {
+                bucketNodes[fill[bucket(nodeX[i], nodeY[i])]++] = i;
+            }
+        }
+    }
+
+    private boolean isValid(int node) {
+        return !Double.isNaN(nodeX[node]) && !Double.isNaN(nodeY[node])
+                && !Double.isInfinite(nodeX[node]) && !Double.isInfinite(nodeY[node]);
+    }
+
+    private int hashCol(double x) {
+        return Math.max(0, Math.min(hashCols - 1, (int) ((x - west) / hashCellSize)));
+    }
+
+    private int hashRow(double y) {
+        return Math.max(0, Math.min(hashRows - 1, (int) ((y - south) / hashCellSize)));
+    }
+
+    private int bucket(double x, double y) {
+        return hashRow(y) * hashCols + hashCol(x);
+    }
+
+    /**
+     * Returns the node closest to x/y, or -1 if there is no valid node.
+     */
+    private int nearestNode(double x, double y) {
+        final int col = hashCol(x);
+        final int row = hashRow(y);
+        int best = -1;
+        double bestDistSq = Double.MAX_VALUE;
+        final int maxRing = Math.max(hashCols, hashRows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+
+            // nodes in rings further out are at least (ring - 1) cells away
+            if (best >= 0) {
+                final double minDist = (ring - 1) * hashCellSize;
+                if (minDist > 0 && minDist * minDist > bestDistSq) {
+                    break;
+                }
+            }
+            final int r0 = row - ring, r1 = row + ring;
+            final int c0 = col - ring, c1 = col + ring;
+            for (int r = Math.max(0, r0); r <= Math.min(hashRows - 1, r1); r++) {
+                final boolean edgeRow = r == r0 || r == r1;
+                for (int c = Math.max(0, c0); c <= Math.min(hashCols - 1, c1); c++) {
+                    if (!edgeRow && c != c0 && c != c1) {
+                        continue;
+                    }
+                    final int b = r * hashCols + c;
+                    for (int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+                        final int node = bucketNodes[k];
+                        final double dx = nodeX[node] - x;
+                        final double dy = nodeY[node] - y;
+                        final double d = dx * dx + dy * dy;
+                        if (d < bestDistSq) {
+                            bestDistSq = d;
+                            best = node;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds an initial guess for the inverse projection of a point.
+     * @param x The projected X coordinate.
+     * @param y The projected Y coordinate.
+     * @param lp Receives the longitude and latitude in radians.
+     * @return True if a guess was found, false if the point is not inside a
+     * projected lattice cell. lp is not changed if false is returned.
+     */
+    public boolean seed(double x, double y, Point2D.Double lp) {
+        final int node = nearestNode(x, y);
+        if (node < 0) {
+            return false;
+        }
+        final int nodeRow = node / LON_NODES;
+        final int nodeCol = node % LON_NODES;
+
+        // search the point in the four cells around the node, then in the
+        // next ring of cells, which is needed where cells are strongly sheared
+        final double[] uv = new double[2];
+        for (int ring = 1; ring <= 2; ring++) {
+            for (int r = nodeRow - ring; r < nodeRow + ring; r++) {
+                for (int c = nodeCol - ring; c < nodeCol + ring; c++) {
+                    if (r < 0 || c < 0 || r >= LAT_NODES - 1 || c >= LON_NODES - 1) {
+                        continue;
+                    }
+                    // cells of the inner ring were tested before
+                    if (ring > 1 && r >= nodeRow - 1 && r <= nodeRow
+                            && c >= nodeCol - 1 && c <= nodeCol) {
+                        continue;
+                    }
+                    if (invertBilinear(r, c, x, y, uv)) {
+                        lp.x = -Math.PI + (c + uv[0]) * LATTICE_STEP_RAD;
+                        lp.y = -Math.PI / 2 + (r + uv[1]) * LATTICE_STEP_RAD;
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inverts the bilinear interpolation between the projected corners of a
+     * lattice cell with a few Newton iterations.
+     * @param row The row of the lower left corner.
+     * @param col The column of the lower left corner.
+     * @param x The projected X coordinate.
+     * @param y The projected Y coordinate.
+     * @param uv Receives the position in the cell in [0..1].
+     * @return True if x/y is inside the cell.
+     */
+    private boolean invertBilinear(int row, int col, double x, double y, double[] uv) {
+        final int i00 = row * LON_NODES + col;
+        final int i10 = i00 + 1;
+        final int i01 = i00 + LON_NODES;
+        final int i11 = i01 + 1;
+        if (!isValid(i00) || !isValid(i10) || !isValid(i01) || !isValid(i11)) {
+            return false;
+        }
+        final double x00 = nodeX[i00], y00 = nodeY[i00];
+        final double x10 = nodeX[i10], y10 = nodeY[i10];
+        final double x01 = nodeX[i01], y01 = nodeY[i01];
+        final double x11 = nodeX[i11], y11 = nodeY[i11];
+        double u = 0.5, v = 0.5;
+        for (int i = 0; i < 8; i++) {
+            final double px = (1 - u) * (1 - v) * x00 + u * (1 - v) * x10 + u * v * x11 + (1 - u) * v * x01;
+            final double py = (1 - u) * (1 - v) * y00 + u * (1 - v) * y10 + u * v * y11 + (1 - u) * v * y01;
+            final double xu = (1 - v) * (x10 - x00) + v * (x11 - x01);
+            final double yu = (1 - v) * (y10 - y00) + v * (y11 - y01);
+            final double xv = (1 - u) * (x01 - x00) + u * (x11 - x10);
+            final double yv = (1 - u) * (y01 - y00) + u * (y11 - y10);
+            final double det = xu * yv - xv * yu;
+            if (det == 0 || Double.isNaN(det)) {
+                return false;
+            }
+            final double dx = x - px;
+            final double dy = y - py;
+            final double du = (dx * yv - dy * xv) / det;
+            final double dv = (dy * xu - dx * yu) / det;
+            u += du;
+            v += dv;
+            if (Math.abs(du) < 1e-9 && Math.abs(dv) < 1e-9) {
+                break;
+            }
+        }
+        final double eps = 1e-6;
+        if (u < -eps || u > 1 + eps || v < -eps || v > 1 + eps) {
+            return false;
+        }
+        uv[0] = Math.max(0, Math.min(1, u));
+        uv[1] = Math.max(0, Math.min(1, v));
+        return true;
+    }
+}
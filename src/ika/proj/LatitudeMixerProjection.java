@@ -156,9 +156,65 @@ public class LatitudeMixerProjection extends AbstractMixerProjection {
         return dst;
     }
 
+    /**
+     * Projects a block of points. The blending zone is only computed once for
+     * the entire block, and a single point object is reused.
+     */
+    @Override
+    public void projectArray(double[] lon, double[] lat, double[] x, double[] y,
+            int offset, int n) {
+
+        final double tolRad = Math.toRadians(tolerance);
+        final double blendLatRad = Math.toRadians(latitude);
+        final double minBlendLat = blendLatRad - tolRad;
+        final double maxBlendLat = blendLatRad + tolRad;
+        Point2D.Double pt = new Point2D.Double();
+
+        final int end = offset + n;
+        for (int i = offset; i < end; i++) {
+            final double lam = lon[i];
+            final double phi = lat[i];
+            final double absLat = Math.abs(phi);
+            final double poleShift = phi > 0 ? poleOffset : -poleOffset;
+            double xi, yi;
+            try {
+                // test for >= and <= below to avoid division by zero if tolRad == 0
+                if (absLat >= maxBlendLat) {
+                    p2.project(lam, phi, pt);
+                    xi = pt.x * poleScale;
+                    yi = pt.y * poleScale + poleShift;
+                } else if (absLat <= minBlendLat) {
+                    p1.project(lam, phi, pt);
+                    xi = pt.x;
+                    yi = pt.y;
+                } else {
+                    final double w2 = (absLat - blendLatRad + tolRad) / (2 * tolRad);
+                    final double w1 = 1D - w2;
+                    p1.project(lam, phi, pt);
+                    final double x1 = pt.x;
+                    final double y1 = pt.y;
+                    p2.project(lam, phi, pt);
+                    xi = pt.x * poleScale * w2 + x1 * w1;
+                    yi = (pt.y * poleScale + poleShift) * w2 + y1 * w1;
+                }
+            } catch (ProjectionException exc) {
+                xi = yi = Double.NaN;
+            }
+            x[i] = xi * scale;
+            y[i] = yi * (scale * vScale);
+        }
+    }
+
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double out) {
 
+        // start with a guess interpolated in a lattice of projected points
+        if (seedInverse(x, y, out)) {
+            binarySearchInverse(x, y, out.x, out.y, out);
+            return out;
+        }
+        
+        // outside of the lattice: start with the inverse of a mixed projection
         try {
             if (p1.hasInverse()) {
                 p1.projectInverse(x, y, out);
@@ -193,6 +249,7 @@ public class LatitudeMixerProjection extends AbstractMixerProjection {
      */
     public void setLatitude(double latitude) {
         this.latitude = latitude;
+        invalidateInverseSeed();
         updateAutomaticPoleScale();
         updatePoleOffset();
     }
@@ -209,6 +266,7 @@ public class LatitudeMixerProjection extends AbstractMixerProjection {
      */
     public void setTolerance(double tolerance) {
         this.tolerance = tolerance;
+        invalidateInverseSeed();
     }
 
     @Override
@@ -236,6 +294,7 @@ public class LatitudeMixerProjection extends AbstractMixerProjection {
      */
     public void setPoleScale(double poleScale) {
         this.poleScale = poleScale;
+        invalidateInverseSeed();
         updatePoleOffset();
     }
 
@@ -253,6 +312,7 @@ public class LatitudeMixerProjection extends AbstractMixerProjection {
     @Override
     public void setScale(double scale) {
         this.scale = scale;
+        invalidateInverseSeed();
     }
 
     /**
@@ -267,6 +327,7 @@ public class LatitudeMixerProjection extends AbstractMixerProjection {
      */
     public void setAutomaticScale(boolean automaticScale) {
         this.automaticPoleScale = automaticScale;
+        invalidateInverseSeed();
         updateAutomaticPoleScale();
     }
 
@@ -278,6 +339,7 @@ public class LatitudeMixerProjection extends AbstractMixerProjection {
     @Override
     public void setVerticalScale(double vScale) {
         this.vScale = vScale;
+        invalidateInverseSeed();
     }
 
     @Override
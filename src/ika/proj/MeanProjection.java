@@ -58,9 +58,52 @@ public class MeanProjection extends AbstractMixerProjection {
         return dst;
     }
 
+    /**
+     * Projects a block of points. A single point object is reused for
+     * projecting with the two mixed projections.
+     */
+    @Override
+    public void projectArray(double[] lon, double[] lat, double[] x, double[] y,
+            int offset, int n) {
+
+        final double w2 = weight;
+        final double w1 = 1D - w2;
+        Point2D.Double pt = new Point2D.Double();
+        final int end = offset + n;
+        for (int i = offset; i < end; i++) {
+            final double lam = lon[i];
+            final double phi = lat[i];
+            try {
+                p1.project(lam, phi, pt);
+                final double x1 = pt.x;
+                final double y1 = pt.y;
+                p2.project(lam, phi, pt);
+                x[i] = (pt.x * w2 + x1 * w1) * scale;
+                y[i] = (pt.y * w2 + y1 * w1) * scale * vScale;
+            } catch (ProjectionException exc) {
+                x[i] = y[i] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * The mean of two symmetric projections is symmetric.
+     */
+    @Override
+    public boolean isSymmetric() {
+        return DesignProjection.isSymmetric(p1) && DesignProjection.isSymmetric(p2);
+    }
+
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double out) {
 
+        // start with a guess interpolated in a lattice of projected points
+        if (seedInverse(x, y, out)) {
+            binarySearchInverse(x, y, out.x, out.y, out);
+            return out;
+        }
+        
+        // outside of the lattice: start with the inverse of a mixed projection
         try {
             if (p1.hasInverse()) {
                 p1.projectInverse(x, y, out);
@@ -95,6 +138,7 @@ public class MeanProjection extends AbstractMixerProjection {
      */
     public void setWeight(double weight) {
         this.weight = weight;
+        invalidateInverseSeed();
     }
 
     @Override
@@ -116,6 +160,7 @@ public class MeanProjection extends AbstractMixerProjection {
     @Override
     public void setScale(double scale) {
         this.scale = scale;
+        invalidateInverseSeed();
     }
 
     @Override
@@ -126,6 +171,7 @@ public class MeanProjection extends AbstractMixerProjection {
     @Override
     public void setVerticalScale(double vScale) {
         this.vScale = vScale;
+        invalidateInverseSeed();
     }
 
     @Override
@@ -194,5 +240,7 @@ public class MeanProjection extends AbstractMixerProjection {
         tokenizer.nextToken();
         String proj2Name = tokenizer.nextToken();
         p2 = ProjectionFactory.getNamedProjection(proj2Name);
+        
+        invalidateInverseSeed();
     }
 }
@@ -31,6 +31,36 @@ public final class ProjectionDerivatives {
      */
     public final double y_p;
 
+    /**
+     * Returns the derivatives for a passed location. The derivatives are
+     * computed analytically if the projection implements AnalyticDerivatives,
+     * and with finite differences otherwise.
+     *
+     * @param projection projection for which derivatives are to be calculated.
+     * Must be initialized.
+     * @param lam longitude in radians.
+     * @param phi latitude in radians.
+     * @param h sampling delta in radians for finite differences.
+     * @return the derivatives.
+     */
+    public static ProjectionDerivatives compute(Projection projection,
+            double lam, double phi, double h) {
+        if (projection instanceof AnalyticDerivatives) {
+            double[] der = new double[4];
+            if (((AnalyticDerivatives) projection).derivatives(lam, phi, der)) {
+                return new ProjectionDerivatives(der[0], der[1], der[2], der[3]);
+            }
+        }
+        return new ProjectionDerivatives(projection, lam, phi, h);
+    }
+
+    private ProjectionDerivatives(double x_l, double x_p, double y_l, double y_p) {
+        this.x_l = x_l;
+        this.x_p = x_p;
+        this.y_l = y_l;
+        this.y_p = y_p;
+    }
+
     /**
      * Constructor computes derivatives for a passed location.
      *
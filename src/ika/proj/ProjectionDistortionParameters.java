@@ -14,11 +14,14 @@ import ika.geo.GeoImage;
 import ika.geo.GeoObject;
 import ika.geo.GeoPath;
 import ika.gui.FlexProjectorPreferencesPanel;
+import ika.utils.ArrayUtils;
 import ika.utils.PropertiesLoader;
 import java.awt.Color;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 import java.util.Properties;
 
 /**
@@ -42,12 +45,37 @@ public class ProjectionDistortionParameters {
      * The default value is 2.5 degree, which is the value used by Canters and
      * Decleir.
      */
-    private static final double INDEX_SAMPLING_DIST_DEG = 2.5;
+    static final double INDEX_SAMPLING_DIST_DEG = 2.5;
+
+    /**
+     * Sampling distances in degrees for computing the indices by Canters and
+     * Decleir progressively, from a fast coarse estimate to the final value.
+     */
+    public static final double[] PROGRESSIVE_SAMPLING_DIST_DEG = {10, 5, INDEX_SAMPLING_DIST_DEG};
+
+    /**
+     * Receives the results of computeDistortionIndicesProgressively().
+     */
+    public interface RefinementListener {
+
+        /**
+         * Returns true if the computation has been superseded and should
+         * stop. Called before each refinement.
+         */
+        public boolean isCancelled();
+
+        /**
+         * Called after each refinement of the indices.
+         * @param params The refined distortion parameters.
+         * @param isFinal True if this is the last refinement.
+         */
+        public void indicesRefined(ProjectionDistortionParameters params, boolean isFinal);
+    }
     
     /**
      * Increment for computing local first derivative. In radians.
      */
-    private static final double DERIVATIVE_INC_RAD = 1e-5;
+    static final double DERIVATIVE_INC_RAD = 1e-5;
     
     /**
      * Continental areas are depicted in the mask image with this color.
@@ -59,6 +87,11 @@ public class ProjectionDistortionParameters {
      */
     private static final java.awt.image.BufferedImage CONTINENTAL_MASK;
 
+    /**
+     * Hash code of the pixels of CONTINENTAL_MASK.
+     */
+    private static final int CONTINENTAL_MASK_HASH;
+
     // load the continental image mask
     static {
         java.awt.image.BufferedImage img;
@@ -74,6 +107,9 @@ public class ProjectionDistortionParameters {
             img = null;
         }
         CONTINENTAL_MASK = img;
+        CONTINENTAL_MASK_HASH = img == null ? 0 
+                : Arrays.hashCode(img.getRGB(0, 0, img.getWidth(), 
+                        img.getHeight(), null, 0, img.getWidth()));
     }
     
     /**
@@ -159,6 +195,35 @@ public class ProjectionDistortionParameters {
      * the Q index according to the original specification of Capek.
      */
     private double qMinArea; 
+
+    /**
+     * Cumulative histogram of qAreaGridQuadrant and qAngleGridQuadrant
+     * weighted by the area of the cells. This is used to compute the Q index
+     * for new parameters without scanning the grids. Initialized together with
+     * the grids.
+     */
+    private AcceptanceHistogram qHistogram;
+
+    /**
+     * Cached image visualizing the acceptance, computed by 
+     * computeAcceptanceImage().
+     */
+    private BufferedImage acceptanceImage;
+
+    /**
+     * The acceptanceIndexGrid used for acceptanceImage.
+     */
+    private ika.geo.GeoGrid acceptanceImageGrid;
+
+    /**
+     * The maximum acceptable angular distortion used for acceptanceImage.
+     */
+    private double acceptanceImageMaxAngle = Double.NaN;
+
+    /**
+     * The maximum acceptable areal distortion used for acceptanceImage.
+     */
+    private double acceptanceImageMaxAreaScale = Double.NaN;
     
     /**
      * A grid in the projected coordinate space (not the geographic space, as 
@@ -179,6 +244,31 @@ public class ProjectionDistortionParameters {
      * The distortion parameters are computed for this projection.
      */
     private Projection projection;
+
+    /**
+     * The modification count of the projection for which the grids and indices
+     * were last computed, or -1 if the projection does not track changes.
+     */
+    private long modificationCount = -1;
+
+    /**
+     * True if the Q grids, the Q index and acceptanceIndexGrid have not been
+     * updated for the current projection. This is the case between the start
+     * of a progressive computation and its final refinement.
+     */
+    private boolean qGridsStale = false;
+
+    /**
+     * The sampling distance in degrees used for the current indices by
+     * Canters and Decleir.
+     */
+    private double indexSamplingDist = INDEX_SAMPLING_DIST_DEG;
+
+    /**
+     * Estimated relative error of the current indices by Canters and
+     * Decleir, or NaN if unknown.
+     */
+    private double indexErrorEstimate = Double.NaN;
     
     /** Creates a new instance of ProjectionDistortionParameters */
     public ProjectionDistortionParameters(Projection projection, QModel qModel) {
@@ -187,25 +277,190 @@ public class ProjectionDistortionParameters {
         computeDistortionIndices(qModel);
         
     }
+
+    /**
+     * Creates a new instance with values read by read().
+     */
+    private ProjectionDistortionParameters(Projection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Returns a key identifying the distortion parameters of a projection
+     * in a cache. The key includes the name of the projection in the list of
+     * projections, which identifies the class-specific parameters set by
+     * ProjectionFactory.getNamedProjection(), the general projection 
+     * parameters, the sampling resolution, and the continental mask.
+     * @param name The name passed to ProjectionFactory.getNamedProjection()
+     * to create the projection.
+     * @param projection The projection.
+     * @return The key.
+     */
+    static String cacheKey(String name, Projection projection) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name);
+        sb.append('|').append(projection.getClass().getName());
+        sb.append('|').append(projection.toString());
+        sb.append('|').append(projection.getProjectionLatitude());
+        sb.append('|').append(projection.getProjectionLongitude());
+        sb.append('|').append(projection.getTrueScaleLatitude());
+        sb.append('|').append(projection.getScaleFactor());
+        sb.append('|').append(projection.getEquatorRadius());
+        sb.append('|').append(projection.getMinLatitude());
+        sb.append('|').append(projection.getMaxLatitude());
+        sb.append('|').append(INDEX_SAMPLING_DIST_DEG);
+        sb.append('|').append(Q_CELLSIZE);
+        sb.append('|').append(DERIVATIVE_INC_RAD);
+        sb.append('|').append(CONTINENTAL_MASK_HASH);
+        return sb.toString();
+    }
+
+    /**
+     * Writes the distortion indices and the grids required to compute the Q
+     * index to a stream.
+     * @param out The destination stream.
+     */
+    void write(java.io.DataOutputStream out) throws java.io.IOException {
+        out.writeDouble(Dan);
+        out.writeDouble(Dar);
+        out.writeDouble(Dab);
+        out.writeDouble(Danc);
+        out.writeDouble(Darc);
+        out.writeDouble(Dabc);
+        out.writeDouble(qMinArea);
+        for (int row = 0; row < Q_GRID_ROWS; row++) {
+            for (int col = 0; col < Q_GRID_COLUMNS; col++) {
+                out.writeDouble(qAreaGridQuadrant[row][col]);
+                out.writeDouble(qAngleGridQuadrant[row][col]);
+            }
+        }
+    }
+
+    /**
+     * Reads distortion parameters written by write(). The grid for the 
+     * acceptance image is computed when the image is first needed.
+     * @param in The source stream.
+     * @param projection The projection that was used for the written 
+     * parameters.
+     * @param qModel The parameters for the computation of the Q index.
+     * @return The new distortion parameters.
+     */
+    static ProjectionDistortionParameters read(java.io.DataInputStream in,
+            Projection projection, QModel qModel) throws java.io.IOException {
+        ProjectionDistortionParameters params 
+                = new ProjectionDistortionParameters(projection);
+        params.Dan = in.readDouble();
+        params.Dar = in.readDouble();
+        params.Dab = in.readDouble();
+        params.Danc = in.readDouble();
+        params.Darc = in.readDouble();
+        params.Dabc = in.readDouble();
+        params.qMinArea = in.readDouble();
+        for (int row = 0; row < Q_GRID_ROWS; row++) {
+            for (int col = 0; col < Q_GRID_COLUMNS; col++) {
+                params.qAreaGridQuadrant[row][col] = in.readDouble();
+                params.qAngleGridQuadrant[row][col] = in.readDouble();
+            }
+        }
+        params.initAcceptanceHistogram();
+        params.computeAcceptanceIndex(qModel);
+        return params;
+    }
     
+    /**
+     * Returns a copy that can be computed by another thread without changing
+     * this instance. The copy has its own grids. The acceptance image of the
+     * copy is created when it is first needed.
+     * @return The copy.
+     */
+    public ProjectionDistortionParameters copy() {
+        ProjectionDistortionParameters copy
+                = new ProjectionDistortionParameters(projection);
+        copy.set(this);
+        copy.qAreaGridQuadrant = ArrayUtils.clone2DArray(qAreaGridQuadrant);
+        copy.qAngleGridQuadrant = ArrayUtils.clone2DArray(qAngleGridQuadrant);
+        return copy;
+    }
+
+    /**
+     * Replaces the projection, the indices and the grids with those of
+     * another instance. The grids are shared afterwards, so the other
+     * instance must not be computed again. Typically used to show a copy()
+     * that has been computed by another thread.
+     * @param params The distortion parameters to adopt.
+     */
+    public void set(ProjectionDistortionParameters params) {
+        this.projection = params.projection;
+        this.Dan = params.Dan;
+        this.Danc = params.Danc;
+        this.Dar = params.Dar;
+        this.Darc = params.Darc;
+        this.Dab = params.Dab;
+        this.Dabc = params.Dabc;
+        this.Q = params.Q;
+        this.qAreaGridQuadrant = params.qAreaGridQuadrant;
+        this.qAngleGridQuadrant = params.qAngleGridQuadrant;
+        this.qMinArea = params.qMinArea;
+        this.qHistogram = params.qHistogram;
+        this.acceptanceIndexGrid = params.acceptanceIndexGrid;
+        this.modificationCount = params.modificationCount;
+        this.qGridsStale = params.qGridsStale;
+        this.indexSamplingDist = params.indexSamplingDist;
+        this.indexErrorEstimate = params.indexErrorEstimate;
+    }
+
     /**
      * The shape or other characteristics of the projection changed. Update the
      * distortion indices and the grids used to compute them.
      * @param qModel The parameters for the computation of the Q index.
      */
     public final void computeDistortionIndices(QModel qModel) {
+
+        computeDistortionIndices(qModel, INDEX_SAMPLING_DIST_DEG, null);
+    }
+
+    /**
+     * Updates the distortion indices and the grids used to compute them.
+     * @param qModel The parameters for the computation of the Q index.
+     * @param samplingDist The sampling distance in degrees for the indices by
+     * Canters and Decleir.
+     * @param listener Polled for cancellation, can be null. A cancelled
+     * computation leaves the indices and grids in an undefined state.
+     */
+    private void computeDistortionIndices(QModel qModel, double samplingDist,
+            RefinementListener listener) {
+
+        // the grids and indices are still valid if the projection did not change
+        final long count = modificationCount(this.projection);
+        if (count >= 0 && count == this.modificationCount
+                && samplingDist == this.indexSamplingDist) {
+            this.computeAcceptanceIndex(qModel);
+            return;
+        }
         
         // update Q grids in spherical coordinates
-        this.initAcceptanceDegreeGrids();
-        
-        // update the Q index based on the Q grids in spherical coordinates
-        this.computeAcceptanceIndex(qModel);
+        this.initAcceptanceDegreeGrids(listener);
+        if (isCancelled(listener)) {
+            return;
+        }
         
         // update Q grid in projected coordinates
-        this.initQProjectedGrid();
+        this.initQProjectedGrid(listener);
+        if (isCancelled(listener)) {
+            return;
+        }
         
         // update indices by Canters & Decleir
-        this.computeCantersDecleirIndices();
+        this.computeCantersDecleirIndices(samplingDist, listener);
+        if (isCancelled(listener)) {
+            return;
+        }
+
+        this.modificationCount = count;
+        this.qGridsStale = false;
+        
+        // update the Q index based on the Q grids in spherical coordinates
+        this.computeAcceptanceIndex(qModel);
         
     }
 
@@ -213,6 +468,106 @@ public class ProjectionDistortionParameters {
         this.projection = projection;
         computeDistortionIndices(qModel);
     }
+
+    /**
+     * Computes the indices by Canters and Decleir with decreasing sampling
+     * distances. The first estimates are available after a fraction of the
+     * time required for the final values, which is useful while the
+     * projection is interactively changed. Only the last refinement updates
+     * the grids and the Q index. Before, Q is NaN and computeAcceptanceImage()
+     * returns null, as the grids still belong to the previous projection.
+     * Each refinement replaces the previous one,
+     * and getIndexErrorEstimate() returns an estimate of its error. The
+     * listener is polled while the rows of a refinement are computed, and the
+     * computation stops without informing the listener as soon as it reports
+     * that it has been cancelled.
+     * @param qModel The parameters for the computation of the Q index.
+     * @param projection The projection.
+     * @param samplingDists The sampling distances in degrees, decreasing, for
+     * example PROGRESSIVE_SAMPLING_DIST_DEG.
+     * @param listener Informed after each refinement.
+     */
+    public void computeDistortionIndicesProgressively(QModel qModel,
+            Projection projection, double[] samplingDists,
+            RefinementListener listener) {
+
+        this.projection = projection;
+        final double finalSamplingDist = samplingDists[samplingDists.length - 1];
+
+        // nothing to refine if the final indices are still valid
+        final long count = modificationCount(projection);
+        if (count >= 0 && count == this.modificationCount
+                && finalSamplingDist == this.indexSamplingDist) {
+            if (!listener.isCancelled()) {
+                computeAcceptanceIndex(qModel);
+                listener.indicesRefined(this, true);
+            }
+            return;
+        }
+
+        // the indices will not match the grids until the final refinement
+        this.modificationCount = -1;
+        this.qGridsStale = true;
+        double[] previous = null;
+        double previousSamplingDist = Double.NaN;
+        for (int i = 0; i < samplingDists.length; i++) {
+            if (listener.isCancelled()) {
+                return;
+            }
+            final boolean isFinal = i == samplingDists.length - 1;
+            if (isFinal) {
+                computeDistortionIndices(qModel, samplingDists[i], listener);
+            } else {
+                computeCantersDecleirIndices(samplingDists[i], listener);
+            }
+            if (listener.isCancelled()) {
+                return;
+            }
+            final double[] indices = {Dan, Dar, Dab, Danc, Darc, Dabc};
+            indexErrorEstimate = previous == null ? Double.NaN
+                    : estimateError(previous, previousSamplingDist,
+                            indices, samplingDists[i]);
+            previous = indices;
+            previousSamplingDist = samplingDists[i];
+            listener.indicesRefined(this, isFinal);
+        }
+    }
+
+    /**
+     * Estimates the relative error of indices computed with a sampling
+     * distance h from indices computed with a larger sampling distance h0.
+     * The error of the midpoint sums decreases with h * h, so the error of
+     * the finer indices is approximately |I(h) - I(h0)| / ((h0 / h)^2 - 1).
+     * @return The largest relative error of the six indices.
+     */
+    private static double estimateError(double[] coarse, double h0,
+            double[] fine, double h) {
+        final double r = h0 / h;
+        double maxError = 0;
+        for (int i = 0; i < fine.length; i++) {
+            if (fine[i] != 0 && !Double.isNaN(fine[i])) {
+                final double err = Math.abs(fine[i] - coarse[i]) / (r * r - 1);
+                maxError = Math.max(maxError, err / Math.abs(fine[i]));
+            }
+        }
+        return maxError;
+    }
+
+    /**
+     * Returns whether a computation has been cancelled.
+     * @param listener The listener to poll, can be null.
+     */
+    private static boolean isCancelled(RefinementListener listener) {
+        return listener != null && listener.isCancelled();
+    }
+
+    /**
+     * Returns the modification count of a design projection, or -1.
+     */
+    private static long modificationCount(Projection projection) {
+        return projection instanceof DesignProjection
+                ? ((DesignProjection) projection).getModificationCount() : -1;
+    }
     
     /**
      * Parameters for the computation of Q changed. Recompute the Q index.
@@ -226,8 +581,13 @@ public class ProjectionDistortionParameters {
     /**
      * Computes the 6 distortion indices defined by Canters and Decleir, 
      * i.e. Dan, Dar, Dab, Danc, Darc, Dabc
+     * @param samplingDist The distance between samples in degrees. Must
+     * divide 90.
+     * @param listener Polled for cancellation after each row, can be null.
+     * The indices are not changed if the computation is cancelled.
      */
-    private void computeCantersDecleirIndices() {
+    private void computeCantersDecleirIndices(double samplingDist,
+            final RefinementListener listener) {
         
         try {
             Projection normalAspectProj = (Projection)this.projection.clone();
@@ -236,10 +596,61 @@ public class ProjectionDistortionParameters {
                     
             final int continentARGB = continentalColor.getRGB();
             
-            final double d_rad = Math.toRadians(INDEX_SAMPLING_DIST_DEG);
-            int nh = (int)Math.round(180. / INDEX_SAMPLING_DIST_DEG);
-            int nv = (int)Math.round(90. / INDEX_SAMPLING_DIST_DEG);
+            final double d_rad = Math.toRadians(samplingDist);
+            final int nh = (int)Math.round(180. / samplingDist);
+            final int nv = (int)Math.round(90. / samplingDist);
+
+            // the size of a cell of the continental mask in degrees
+            final double maskCellSize = 360. / CONTINENTAL_MASK.getWidth();
+            
+            // only the north-east quadrant is sampled for projections that are
+            // symmetric about the equator and the central meridian
+            final boolean symmetric = DesignProjection.isSymmetric(normalAspectProj);
+            final int rows = symmetric ? nv : 2 * nv;
+            final int cols = symmetric ? nh : 2 * nh;
+            final int rowOffset = symmetric ? 0 : nv;
+            final int colOffset = symmetric ? 0 : nh;
+
+            // compute the distortion of all patches in parallel
+            final double[][] anGrid = new double[rows][cols];
+            final double[][] arGrid = new double[rows][cols];
+            final double[][] abGrid = new double[rows][cols];
+            ThreadedProjectionOperator.operate(normalAspectProj, rows,
+                    new ThreadedProjectionOperator.RowOperator() {
+                @Override
+                public void operate(Projection proj, int startRow, int endRow) {
+                    ProjectionFactors f = new ProjectionFactors();
+                    for (int row = startRow; row < endRow; row++) {
+                        if (isCancelled(listener)) {
+                            return;
+                        }
+                        final double phi = (row - rowOffset + 0.5) * d_rad;
+
+                        // area of infinitesimal patch on sphere
+                        final double patchArea = Math.cos(phi) * d_rad * d_rad;
+
+                        for (int col = 0; col < cols; col++) {
+                            final double lam = (col - colOffset + 0.5) * d_rad;
+                            f.compute(proj, lam, phi, DERIVATIVE_INC_RAD);
+
+                            anGrid[row][col] = f.omega * patchArea;
+
+                            final double axb = f.a * f.b;
+                            arGrid[row][col] = ((axb < 1. ? 1./axb : axb) - 1.) * patchArea;
+
+                            final double a_b = (f.a < 1. ? 1./f.a : f.a) + (f.b < 1. ? 1./f.b : f.b);
+                            abGrid[row][col] = (a_b * 0.5 - 1.) * patchArea;
+                        }
+                    }
+                }
+            });
+            if (isCancelled(listener)) {
+                return;
+            }
             
+            // sum in a fixed order, such that the result does not depend on
+            // the number of threads. Patches outside the sampled quadrant of a
+            // symmetric projection use the values of the mirrored patch.
             Dan = 0;
             Dar = 0;
             Dab = 0;
@@ -247,31 +658,28 @@ public class ProjectionDistortionParameters {
             Darc = 0;
             Dabc = 0;
             double continentalArea = 0;
-            ProjectionFactors f = new ProjectionFactors();
-            
             for (int v = -nv; v < nv; v++) {
                 final double phi = (v + 0.5) * d_rad;
                 
                 // area of infinitesimal patch on sphere
                 final double patchArea = Math.cos(phi) * d_rad * d_rad;
                 
+                final int row = symmetric ? (v < 0 ? -v - 1 : v) : v + nv;
                 for (int h = -nh; h < nh; h++) {
+                    final int col = symmetric ? (h < 0 ? -h - 1 : h) : h + nh;
                     
-                    final double lam = (h + 0.5) * d_rad;
-                    f.compute(normalAspectProj, lam, phi, DERIVATIVE_INC_RAD);
-                    
-                    final double an = f.omega * patchArea;
+                    final double an = anGrid[row][col];
                     Dan += an;
                     
-                    final double axb = f.a * f.b;
-                    final double ar = ((axb < 1. ? 1./axb : axb) - 1.) * patchArea;
+                    final double ar = arGrid[row][col];
                     Dar += ar;
                     
-                    final double a_b = (f.a < 1. ? 1./f.a : f.a) + (f.b < 1. ? 1./f.b : f.b);
-                    final double ab = (a_b * 0.5 - 1.) * patchArea;
+                    final double ab = abGrid[row][col];
                     Dab += ab;
                     
-                    if (CONTINENTAL_MASK.getRGB(h+nh, v+nv) == continentARGB) {
+                    final int maskCol = (int) (((h + 0.5) * samplingDist + 180.) / maskCellSize);
+                    final int maskRow = (int) (((v + 0.5) * samplingDist + 90.) / maskCellSize);
+                    if (CONTINENTAL_MASK.getRGB(maskCol, maskRow) == continentARGB) {
                         Danc += an;
                         Darc += ar;
                         Dabc += ab;
@@ -302,6 +710,7 @@ public class ProjectionDistortionParameters {
             Darc = Double.NaN;
             Dabc = Double.NaN;
         }
+        this.indexSamplingDist = samplingDist;
     }
 
     /**
@@ -313,25 +722,32 @@ public class ProjectionDistortionParameters {
         final int nh = (int) Math.round(180. / INDEX_SAMPLING_DIST_DEG);
         final int nv = (int) Math.round(90. / INDEX_SAMPLING_DIST_DEG);
 
-
+        // sample the north-east quadrant and multiply by four for projections
+        // that are symmetric about the equator and the central meridian
+        final boolean symmetric = DesignProjection.isSymmetric(normalProjection);
+        final int vStart = symmetric ? 0 : -nv;
+        final int hStart = symmetric ? 0 : -nh;
         
         double Dar = 0;
-        for (int v = -nv; v < nv; v++) {
+        for (int v = vStart; v < nv; v++) {
             final double phi = (v + 0.5) * d_rad;
             final double cosphi_inv = 1. / Math.cos(phi);
 
             // area of infinitesimal patch on sphere
             final double patchArea = Math.cos(phi) * d_rad * d_rad;
 
-            for (int h = -nh; h < nh; h++) {
+            for (int h = hStart; h < nh; h++) {
                 final double lam = (h + 0.5) * d_rad;
                 ProjectionDerivatives der;
-                der = new ProjectionDerivatives(normalProjection, lam, phi, DERIVATIVE_INC_RAD);
+                der = ProjectionDerivatives.compute(normalProjection, lam, phi, DERIVATIVE_INC_RAD);
                 final double axb = (der.y_p * der.x_l - der.x_p * der.y_l) * cosphi_inv;
                 final double ar = ((axb < 1. ? 1. / axb : axb) - 1.) * patchArea;
                 Dar += ar;
             }
         }
+        if (symmetric) {
+            Dar *= 4.;
+        }
         final double sphereArea = 4. * Math.PI;
         return Dar / sphereArea;
 
@@ -341,32 +757,45 @@ public class ProjectionDistortionParameters {
      * Q acceptance index according to R. Capek or A acceptance index according
      * to Jenny.
      * This uses precomputed grids with areal and angular distortion values. The
-     * grids are initialized by initAcceptanceDegreeGrids().
+     * grids are initialized by initAcceptanceDegreeGrids(). Q is NaN if the
+     * grids are stale.
      */
     private void computeAcceptanceIndex(QModel qModel) {
         
-        if (qModel == null) {
+        if (qModel == null || qGridsStale) {
             this.Q = Double.NaN;
             return;
         }
         
         final boolean qRelativeTo1 
                 = FlexProjectorPreferencesPanel.isAreaAcceptanceRelativeTo1();
-            
-        double acceptableArea = 0;
-
-        // loop over rows of grids for topleft quadrant
-        for (int row = 0; row < Q_GRID_ROWS; row++) {
-            
-            // area of infinitesimal patch on sphere
-            final double phi = Math.PI / 2. - (row + 0.5) * Q_CELLSIZE_RAD;
-            final double patchArea = Math.cos(phi) * Q_CELLSIZE_RAD * Q_CELLSIZE_RAD;
-
-            // loop over colums of grid for topleft quadrant
-            for (int col = 0; col < Q_GRID_COLUMNS; col++) {
-                if (isDistortionAcceptable(row, col, qModel, qRelativeTo1)) {
-                    acceptableArea += patchArea * 4.; // * 4 for 4 quadrants
+        final double maxQAngleDist = qModel.getQMaxAngle();
+        double maxQAreaDist = qModel.getQMaxAreaScale();
+        
+        // the acceptable area is the summed area of all cells in the 
+        // histogram with acceptable distortion. The tests are identical to 
+        // isDistortionAcceptable().
+        final double acceptableArea;
+        if (maxQAngleDist == 0 && maxQAreaDist == 1) {
+            acceptableArea = 0; // conformal and equal-area are not possible
+        } else {
+            final double minArea;
+            if (qRelativeTo1) {
+                if (maxQAreaDist < 1d) {
+                    maxQAreaDist = 1d / maxQAreaDist;
                 }
+                minArea = 1d / maxQAreaDist;
+            } else {
+                minArea = Double.NEGATIVE_INFINITY;
+                maxQAreaDist *= this.qMinArea;
+            }
+            if (maxQAngleDist < 0.00001 && this.projection.isConformal()) {
+                acceptableArea = qHistogram.acceptedAreaWeight(minArea, maxQAreaDist);
+            } else if (this.projection.isEqualArea()) {
+                acceptableArea = qHistogram.acceptedAngleWeight(maxQAngleDist);
+            } else {
+                acceptableArea = qHistogram.acceptedWeight(minArea, 
+                        maxQAreaDist, maxQAngleDist);
             }
         }
         
@@ -389,36 +818,58 @@ public class ProjectionDistortionParameters {
      * smallest areal distortion value in qMinArea.
      * The grids are in unprojected spherical coordinates. The top left cell is
      * centered on 0.5/89.5.
+     * @param listener Polled for cancellation after each row, can be null.
      */
-    private void initAcceptanceDegreeGrids() {
+    private void initAcceptanceDegreeGrids(final RefinementListener listener) {
         
         Projection normalAspectProj = (Projection)projection.clone();
         normalAspectProj.setProjectionLongitude(0);
         normalAspectProj.initialize();
             
-        ProjectionFactors f = new ProjectionFactors();
-        this.qMinArea = Double.MAX_VALUE;
         final boolean equalArea = normalAspectProj.isEqualArea();
         final boolean conformal = normalAspectProj.isConformal();
+        final double[][] areaGrid = this.qAreaGridQuadrant;
+        final double[][] angleGrid = this.qAngleGridQuadrant;
+        
+        ThreadedProjectionOperator.operate(normalAspectProj, Q_GRID_ROWS,
+                new ThreadedProjectionOperator.RowOperator() {
+            @Override
+            public void operate(Projection proj, int startRow, int endRow) {
+                ProjectionFactors f = new ProjectionFactors();
+                for (int row = startRow; row < endRow; row++) {
+                    if (isCancelled(listener)) {
+                        return;
+                    }
+                    final double phi = Math.PI / 2. - (row + 0.5) * Q_CELLSIZE_RAD;
+                    for (int col = 0; col < Q_GRID_COLUMNS; col++) {
+                        try {
+                            final double lam = (col + 0.5) * Q_CELLSIZE_RAD;
+                            f.compute(proj, lam, phi, DERIVATIVE_INC_RAD);
+
+                            // area distortion
+                            areaGrid[row][col] = equalArea ? 1. : f.s;
+
+                            // angular distortion
+                            angleGrid[row][col] = conformal ? 0. : f.omega;
+                        } catch (Exception exc) {
+                            areaGrid[row][col] = Double.NaN;
+                            angleGrid[row][col] = Double.NaN;
+                        }
+                    }
+                }
+            }
+        });
+        if (isCancelled(listener)) {
+            return;
+        }
         
+        // smallest areal distortion
+        this.qMinArea = Double.MAX_VALUE;
         for (int row = 0; row < Q_GRID_ROWS; row++) {
-            final double phi = Math.PI / 2. - (row + 0.5) * Q_CELLSIZE_RAD;
             for (int col = 0; col < Q_GRID_COLUMNS; col++) {
-                try {
-                    final double lam = (col + 0.5) * Q_CELLSIZE_RAD;
-                    f.compute(normalAspectProj, lam, phi, DERIVATIVE_INC_RAD);
-                    
-                    // area distortion
-                    qAreaGridQuadrant[row][col] = equalArea ? 1. : f.s;
-                    if (f.s < qMinArea) {
-                        this.qMinArea = f.s;
-                    }
-                    
-                    // angular distortion
-                    qAngleGridQuadrant[row][col] = conformal ? 0. : f.omega;
-                } catch (Exception exc) {
-                    qAreaGridQuadrant[row][col] = Double.NaN;
-                    qAngleGridQuadrant[row][col] = Double.NaN;
+                final double s = areaGrid[row][col];
+                if (s < qMinArea) {
+                    this.qMinArea = s;
                 }
             }
         }
@@ -426,21 +877,45 @@ public class ProjectionDistortionParameters {
         if (equalArea) {
             qMinArea = 1.;
         }
+        
+        this.initAcceptanceHistogram();
+    }
+
+    /**
+     * Initializes the cumulative histogram for computing the Q index from
+     * qAreaGridQuadrant and qAngleGridQuadrant.
+     */
+    private void initAcceptanceHistogram() {
+        final int cellsCount = Q_GRID_ROWS * Q_GRID_COLUMNS;
+        final double[] areas = new double[cellsCount];
+        final double[] angles = new double[cellsCount];
+        final double[] weights = new double[cellsCount];
+        for (int row = 0; row < Q_GRID_ROWS; row++) {
+            // area of infinitesimal patch on sphere, * 4 for 4 quadrants
+            final double phi = Math.PI / 2. - (row + 0.5) * Q_CELLSIZE_RAD;
+            final double patchArea = Math.cos(phi) * Q_CELLSIZE_RAD * Q_CELLSIZE_RAD * 4.;
+            System.arraycopy(qAreaGridQuadrant[row], 0, areas, row * Q_GRID_COLUMNS, Q_GRID_COLUMNS);
+            System.arraycopy(qAngleGridQuadrant[row], 0, angles, row * Q_GRID_COLUMNS, Q_GRID_COLUMNS);
+            Arrays.fill(weights, row * Q_GRID_COLUMNS, (row + 1) * Q_GRID_COLUMNS, patchArea);
+        }
+        this.qHistogram = new AcceptanceHistogram(areas, angles, weights);
     }
 
     /**
      * Initializes the acceptanceIndexGrid, which holds pointers to cells in 
      * qAreaGridQuadrant and qAngleGridQuadrant.
      * acceptanceIndexGrid covers the top-right quarter of the projected graticule.
+     * The grid is filled by rasterizing forward projected cells for design 
+     * projections, which have slow iterative inverse projections, and for 
+     * projections without inverse. Otherwise, the grid is filled by inverse 
+     * projecting each cell.
+     * @param listener Polled for cancellation after each row, can be null.
+     * acceptanceIndexGrid is not changed if the computation is cancelled.
      */
-    private void initQProjectedGrid() {
+    private void initQProjectedGrid(final RefinementListener listener) {
 
         Projection normalAspectProj = (Projection)this.projection.clone();
         normalAspectProj.setProjectionLongitude(0);
-        // normalize the flex projection before projecting in the inverse direction.
-        if (normalAspectProj instanceof FlexProjection) {
-            ((FlexProjection)normalAspectProj).getModel().normalize();
-        }
         normalAspectProj.initialize();
         
         // find the bounding box of the projected grid
@@ -457,113 +932,268 @@ public class ProjectionDistortionParameters {
         final int projRows = (int)Math.ceil(projBB.getHeight() / projCellSize / 2.);
         
         // create the projected grid
-        this.acceptanceIndexGrid = new ika.geo.GeoGrid(projCols, projRows, projCellSize, -1f);
+        final ika.geo.GeoGrid grid = new ika.geo.GeoGrid(projCols, projRows, projCellSize, -1f);
         // position it a half cell size from the origin
-        this.acceptanceIndexGrid.setWest(projCellSize / 2);
-        this.acceptanceIndexGrid.setNorth(projNorth - projCellSize / 2);
-        if (!normalAspectProj.hasInverse()) {
+        grid.setWest(projCellSize / 2);
+        grid.setNorth(projNorth - projCellSize / 2);
+        if (normalAspectProj instanceof DesignProjection
+                || !normalAspectProj.hasInverse()) {
+            rasterizeQProjectedGrid(grid, normalAspectProj, projNorth, maxLat, listener);
+            if (!isCancelled(listener)) {
+                this.acceptanceIndexGrid = grid;
+            }
             return;
         }
         
         // store indices into qAreaGridQuadrant and qAngleGridQuadrant in the grid
         // only a quarter of the sphere is computed
-        Point2D.Double dstPt = new Point2D.Double();
         final double sphereRadius = normalAspectProj.getEquatorRadius();
-        for (int r = 0; r < projRows; r++) {
-            double y = (projNorth - (r + 0.5) * projCellSize) / sphereRadius;
-            for (int c = 0; c < projCols; c++) {
-                double x = (c + 0.5) * projCellSize / sphereRadius;
-                normalAspectProj.projectInverse(x, y, dstPt);
-                if (Double.isNaN(dstPt.x) || Double.isNaN(dstPt.y)) {
-                    continue;
+        ThreadedProjectionOperator.operate(normalAspectProj, projRows,
+                new ThreadedProjectionOperator.RowOperator() {
+            @Override
+            public void operate(Projection proj, int startRow, int endRow) {
+                Point2D.Double dstPt = new Point2D.Double();
+                for (int r = startRow; r < endRow; r++) {
+                    if (isCancelled(listener)) {
+                        return;
+                    }
+                    double y = (projNorth - (r + 0.5) * projCellSize) / sphereRadius;
+                    for (int c = 0; c < projCols; c++) {
+                        double x = (c + 0.5) * projCellSize / sphereRadius;
+                        proj.projectInverse(x, y, dstPt);
+                        if (Double.isNaN(dstPt.x) || Double.isNaN(dstPt.y)) {
+                            continue;
+                        }
+                        if (dstPt.x > Math.PI || dstPt.x < -Math.PI
+                                || dstPt.y > MapMath.HALFPI || dstPt.y < -MapMath.HALFPI) {
+                            continue;
+                        }
+                        int lon = (int)Math.abs(Math.toDegrees(dstPt.x));
+                        int lat = (int)Math.abs(Math.toDegrees(dstPt.y));
+                        if (lon >= 180) {
+                            lon = 179;
+                        }
+                        if (lat > maxLat) {
+                            lat = maxLat;
+                        }
+                        int cellID = lon + (maxLat - lat - 1) * 180;
+                        grid.setValue(cellID, c, r);
+                    }
                 }
-                if (dstPt.x > Math.PI || dstPt.x < -Math.PI 
-                        || dstPt.y > MapMath.HALFPI || dstPt.y < -MapMath.HALFPI) {
-                    continue;
+            }
+        });
+        if (!isCancelled(listener)) {
+            this.acceptanceIndexGrid = grid;
+        }
+
+    }
+    
+    /**
+     * Fills the acceptance index grid with forward projections only. The corners of
+     * the 1 x 1 degree cells of qAreaGridQuadrant and qAngleGridQuadrant are
+     * projected, and each projected cell is then scan converted to the grid.
+     * The sides of the projected cells are approximated by straight lines.
+     * A grid cell is assigned to a projected cell if the center of the grid 
+     * cell is inside.
+     * @param grid The grid to fill.
+     * @param proj The projection with a central meridian of 0.
+     * @param projNorth The northern border of the graticule.
+     * @param maxLat The largest latitude in degrees.
+     * @param listener Polled for cancellation after each row, can be null.
+     */
+    private void rasterizeQProjectedGrid(ika.geo.GeoGrid grid, Projection proj,
+            double projNorth, final int maxLat, final RefinementListener listener) {
+        
+        final double projCellSize = grid.getCellSize();
+        final float[][] cellIDs = grid.getGrid();
+        final int projCols = grid.getCols();
+        final int projRows = grid.getRows();
+        final double sphereRadius = proj.getEquatorRadius();
+        
+        // project cell corners and convert to columns and rows in the grid.
+        // Cell centers are at integer positions.
+        final int cornerCols = Q_GRID_COLUMNS + 1;
+        final int cornerRows = maxLat + 1;
+        final double[][] cornerX = new double[cornerRows][cornerCols];
+        final double[][] cornerY = new double[cornerRows][cornerCols];
+        final double scale = sphereRadius / projCellSize;
+        final double rowOffset = projNorth / projCellSize - 0.5;
+        ThreadedProjectionOperator.operate(proj, cornerRows,
+                new ThreadedProjectionOperator.RowOperator() {
+            @Override
+            public void operate(Projection proj, int startRow, int endRow) {
+                Point2D.Double pt = new Point2D.Double();
+                for (int lat = startRow; lat < endRow; lat++) {
+                    if (isCancelled(listener)) {
+                        return;
+                    }
+                    final double phi = Math.toRadians(lat);
+                    for (int lon = 0; lon < cornerCols; lon++) {
+                        try {
+                            proj.project(Math.toRadians(lon), phi, pt);
+                            cornerX[lat][lon] = pt.x * scale - 0.5;
+                            cornerY[lat][lon] = rowOffset - pt.y * scale;
+                        } catch (Exception exc) {
+                            cornerX[lat][lon] = cornerY[lat][lon] = Double.NaN;
+                        }
+                    }
                 }
-                int lon = (int)Math.abs(Math.toDegrees(dstPt.x));
-                int lat = (int)Math.abs(Math.toDegrees(dstPt.y));
-                if (lon >= 180) {
-                    lon = 179;
+            }
+        });
+        
+        // scan convert the projected cells
+        final double[] xs = new double[4];
+        final double[] ys = new double[4];
+        final double[] intersections = new double[4];
+        for (int lat = 0; lat < maxLat; lat++) {
+            if (isCancelled(listener)) {
+                return;
+            }
+            for (int lon = 0; lon < Q_GRID_COLUMNS; lon++) {
+                xs[0] = cornerX[lat][lon];
+                ys[0] = cornerY[lat][lon];
+                xs[1] = cornerX[lat][lon + 1];
+                ys[1] = cornerY[lat][lon + 1];
+                xs[2] = cornerX[lat + 1][lon + 1];
+                ys[2] = cornerY[lat + 1][lon + 1];
+                xs[3] = cornerX[lat + 1][lon];
+                ys[3] = cornerY[lat + 1][lon];
+                
+                double minY = Double.MAX_VALUE;
+                double maxY = -Double.MAX_VALUE;
+                boolean valid = true;
+                for (int i = 0; i < 4; i++) {
+                    valid &= !Double.isNaN(xs[i]) && !Double.isNaN(ys[i]);
+                    minY = Math.min(minY, ys[i]);
+                    maxY = Math.max(maxY, ys[i]);
                 }
-                if (lat > maxLat) {
-                    lat = maxLat;
+                if (!valid) {
+                    continue;
+                }
+                
+                final float cellID = lon + (maxLat - lat - 1) * Q_GRID_COLUMNS;
+                final int firstRow = Math.max(0, (int) Math.ceil(minY));
+                final int lastRow = Math.min(projRows - 1, (int) Math.ceil(maxY) - 1);
+                for (int r = firstRow; r <= lastRow; r++) {
+                    
+                    // intersections of the row with the sides of the cell.
+                    // A side includes its upper end point and excludes its 
+                    // lower end point.
+                    int n = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int j = (i + 1) % 4;
+                        final double y1 = ys[i];
+                        final double y2 = ys[j];
+                        if ((y1 <= r && r < y2) || (y2 <= r && r < y1)) {
+                            final double t = (r - y1) / (y2 - y1);
+                            intersections[n++] = xs[i] + t * (xs[j] - xs[i]);
+                        }
+                    }
+                    Arrays.sort(intersections, 0, n);
+                    
+                    // fill cells with centers between pairs of intersections
+                    final float[] row = cellIDs[r];
+                    for (int k = 0; k + 1 < n; k += 2) {
+                        final int c1 = Math.max(0, (int) Math.ceil(intersections[k]));
+                        final int c2 = Math.min(projCols, (int) Math.ceil(intersections[k + 1]));
+                        for (int c = c1; c < c2; c++) {
+                            row[c] = cellID;
+                        }
+                    }
                 }
-                int cellID = lon + (maxLat - lat - 1) * 180;
-                this.acceptanceIndexGrid.setValue(cellID, c, r);
             }
         }
-
+        
     }
     
     /**
      * Generate a GeoImage that visualizes the acceptance according to the 
-     * passed acceptance parameters.
+     * passed acceptance parameters. The image is cached and only recomputed
+     * when the projection or the acceptance parameters change. A recomputed
+     * image does not replace the pixels of images returned earlier.
      * @param qModel The parameters for computing the acceptance.
+     * @return The image, or null while the grids are refined progressively
+     * and still belong to the previous projection.
      */
     public GeoImage computeAcceptanceImage(QModel qModel) {
         
-//        ika.utils.NanoTimer timer = new ika.utils.NanoTimer();
-//        long start = timer.nanoTime();
-        
-        int cols = acceptanceIndexGrid.getCols();
-        int rows = acceptanceIndexGrid.getRows();
-        
-        // clear blue for accepted areas
-        int acceptColor = new Color (147/255f, 196/255f, 251/255f, 0.5f).getRGB();
+        if (qGridsStale) {
+            return null;
+        }
         
-        // transparent white for rejected areas.
-        int rejectColor = new Color(1f, 1f, 1f, 0f).getRGB();
+        // the grid is not initialized for parameters read from a cache
+        if (this.acceptanceIndexGrid == null) {
+            this.initQProjectedGrid(null);
+        }
+        final ika.geo.GeoGrid grid = this.acceptanceIndexGrid;
+        final int cols = grid.getCols();
+        final int rows = grid.getRows();
+        final int width = cols * 2;
+        final int height = rows * 2;
+        final double maxAngle = qModel.getQMaxAngle();
+        final double maxAreaScale = qModel.getQMaxAreaScale();
         
-        BufferedImage img = new BufferedImage(cols * 2, rows * 2, 
-                BufferedImage.TYPE_INT_ARGB);
-                           
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                final int cellID = (int)acceptanceIndexGrid.getValue(c, r);
-                
-                // outside of graticule
-                if (cellID < 0) {
-                    img.setRGB(cols + c, r, rejectColor);
-                    // top-left quadrant
-                    img.setRGB(cols - c - 1, r, rejectColor);
-                    // bottom-left quadrant
-                    img.setRGB(cols - c - 1, 2 * rows - r - 1, rejectColor);
-                    // bottom-right quadrant
-                    img.setRGB(cols + c, 2 * rows - r - 1, rejectColor);
+        // acceptanceIndexGrid is replaced when the projection changes
+        if (grid != acceptanceImageGrid
+                || maxAngle != acceptanceImageMaxAngle
+                || maxAreaScale != acceptanceImageMaxAreaScale) {
+            
+            // clear blue for accepted areas
+            final int acceptColor = new Color (147/255f, 196/255f, 251/255f, 0.5f).getRGB();
 
-                    continue;
+            // transparent white for rejected areas.
+            final int rejectColor = new Color(1f, 1f, 1f, 0f).getRGB();
+
+            // color of each cell in qAreaGridQuadrant and qAngleGridQuadrant.
+            // Compute acceptance of areal distortion for visualization 
+            // always relative to 1 to compare the visualization with an
+            // equal-area projection
+            final int[] cellColors = new int[Q_GRID_ROWS * Q_GRID_COLUMNS];
+            for (int row = 0; row < Q_GRID_ROWS; row++) {
+                for (int col = 0; col < Q_GRID_COLUMNS; col++) {
+                    final boolean accept = isDistortionAcceptable(row, col, qModel, true);
+                    cellColors[row * Q_GRID_COLUMNS + col] = accept ? acceptColor : rejectColor;
                 }
-                
-                final int accCol = cellID % 180;
-                final int accRow = cellID / 180;
-                
-                // compute acceptance of areal distortion for visualization 
-                // always relative to 1 to compare the visualization with an
-                // equal-area projection
-                boolean accept = isDistortionAcceptable(accRow, accCol, qModel, true);
-                final int color = accept ? acceptColor : rejectColor;
-                
-                // top-righ quadrant
-                img.setRGB(cols + c, r, color);
-                // top-left quadrant
-                img.setRGB(cols - c - 1, r, color);
-                // bottom-left quadrant
-                img.setRGB(cols - c - 1, 2 * rows - r - 1, color);
-                // bottom-right quadrant
-                img.setRGB(cols + c, 2 * rows - r - 1, color);
             }
+
+            // a new image, as GeoImages returned earlier share the old image
+            acceptanceImage = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_ARGB);
+            final int[] pixels = ((DataBufferInt) acceptanceImage.getRaster()
+                    .getDataBuffer()).getData();
+
+            // fill the top half, then copy rows to the mirrored bottom half
+            final float[][] cellIDs = grid.getGrid();
+            for (int r = 0; r < rows; r++) {
+                final float[] cellIDRow = cellIDs[r];
+                final int rowStart = r * width;
+                for (int c = 0; c < cols; c++) {
+                    final int cellID = (int) cellIDRow[c];
+
+                    // outside of graticule
+                    final int color = cellID < 0 ? rejectColor : cellColors[cellID];
+
+                    // top-right quadrant
+                    pixels[rowStart + cols + c] = color;
+                    // top-left quadrant
+                    pixels[rowStart + cols - c - 1] = color;
+                }
+                // bottom-left and bottom-right quadrants
+                System.arraycopy(pixels, rowStart, pixels, 
+                        (height - r - 1) * width, width);
+            }
+            
+            acceptanceImageGrid = grid;
+            acceptanceImageMaxAngle = maxAngle;
+            acceptanceImageMaxAreaScale = maxAreaScale;
         }
         
-        double cellSize = this.acceptanceIndexGrid.getCellSize();
-        double west = -this.acceptanceIndexGrid.getEast() - cellSize / 2;
-        double north = this.acceptanceIndexGrid.getNorth() + cellSize / 2;
-        GeoImage geoImage = new GeoImage(img, west, north, cellSize);
-        
-//        long end = timer.nanoTime();
-//        System.out.println("Computing Q image: " + (end - start) / 1000 / 1000 + "ms");
-        
-        return geoImage;
+        // a new GeoImage for every call, as GeoObjects cannot be shared by 
+        // multiple GeoSets
+        double cellSize = grid.getCellSize();
+        double west = -grid.getEast() - cellSize / 2;
+        double north = grid.getNorth() + cellSize / 2;
+        return new GeoImage(acceptanceImage, west, north, cellSize);
         
     }
     
@@ -666,6 +1296,23 @@ public class ProjectionDistortionParameters {
         return Dabc;
     }
 
+    /**
+     * Returns the sampling distance in degrees used for the current indices
+     * by Canters and Decleir.
+     */
+    public double getIndexSamplingDistance() {
+        return indexSamplingDist;
+    }
+
+    /**
+     * Returns the estimated relative error of the current indices by Canters
+     * and Decleir, or NaN if no estimate is available. An estimate is only
+     * available after a refinement by computeDistortionIndicesProgressively().
+     */
+    public double getIndexErrorEstimate() {
+        return indexErrorEstimate;
+    }
+
     public double getQ() {
         return Q;
     }
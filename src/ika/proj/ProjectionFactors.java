@@ -46,6 +46,11 @@ public class ProjectionFactors {
      */
     public double b;
 
+    /**
+     * Buffer for analytical derivatives.
+     */
+    private final double[] der = new double[4];
+
     /**
      * Initialize the values.
      *
@@ -94,7 +99,21 @@ public class ProjectionFactors {
                     fac->der.y_p = der.y_p;
                 }*/
 
-        ProjectionDerivatives der = new ProjectionDerivatives(projection, lam, phi, dh);
+        // use analytical derivatives if available, otherwise finite differences
+        final double x_l, x_p, y_l, y_p;
+        if (projection instanceof AnalyticDerivatives
+                && ((AnalyticDerivatives) projection).derivatives(lam, phi, der)) {
+            x_l = der[0];
+            x_p = der[1];
+            y_l = der[2];
+            y_p = der[3];
+        } else {
+            ProjectionDerivatives d = new ProjectionDerivatives(projection, lam, phi, dh);
+            x_l = d.x_l;
+            x_p = d.x_p;
+            y_l = d.y_l;
+            y_p = d.y_p;
+        }
         cosphi = Math.cos(phi);
         /*
             if (!(fac->code & IS_ANAL_HK)) {
@@ -119,9 +138,9 @@ public class ProjectionFactors {
 
         // h = sqrt(E) = sqrt(dx/dphi*dx/dphi + dy/dphi*dy/dphi)
         // Math.hypot is computing the square root of the sum of the squared numbers.
-        this.h = Math.hypot(der.x_p, der.y_p);
+        this.h = Math.hypot(x_p, y_p);
         // k = sqrt(G)/cosphi = sqrt(dx/dlam*dx/dlam + dy/dlam*dy/dlam)/cosphi
-        this.k = Math.hypot(der.x_l, der.y_l) / cosphi;
+        this.k = Math.hypot(x_l, y_l) / cosphi;
 
         /* FIXME
                 // convergence
@@ -140,7 +159,7 @@ public class ProjectionFactors {
         // Here, R = 1.
         // This can be simplified to the single line of code below.
         // Thanks to Bojan Savric for his help with this!
-        this.s = Math.abs(der.x_p * der.y_l - der.y_p * der.x_l) / cosphi;
+        this.s = Math.abs(x_p * y_l - y_p * x_l) / cosphi;
 
         // meridian-parallel angle theta prime
         this.thetap = Math.asin(s / (h * k));
@@ -0,0 +1,36 @@
+package ika.proj;
+
+/**
+ * A projection that can invert a row of projected points with equal Y
+ * coordinates at once. If parallels are straight horizontal lines, the
+ * latitude only depends on the Y coordinate, and the longitude follows from
+ * the X coordinate and the length of the parallel. The latitude is therefore
+ * computed once per row, and the longitude of each point without iterations.
+ * This accelerates the inverse projection of rasters.
+ */
+public interface RowInverse {
+
+    /**
+     * Returns true if projectInverseRow() can be used with the current
+     * parameters of the projection.
+     */
+    public boolean hasRowInverse();
+
+    /**
+     * Inverse projection of a row of points with equal Y coordinates. Uses
+     * the same units as projectInverse(double, double, Point2D.Double): X and
+     * Y on the unary sphere, longitude and latitude in radians relative to
+     * the central meridian. Must only be called if hasRowInverse() returns
+     * true.
+     *
+     * @param x The X coordinates of the points.
+     * @param y The Y coordinate of all points.
+     * @param lon Receives the longitudes. Can be outside of [-PI..+PI] for
+     * points outside of the graticule.
+     * @param offset The index of the first point.
+     * @param n The number of points.
+     * @return The latitude of the row, or NaN if y is outside of the graticule.
+     */
+    public double projectInverseRow(double[] x, double y, double[] lon,
+            int offset, int n);
+}
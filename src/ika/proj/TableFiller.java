@@ -11,11 +11,20 @@ import com.jhlabs.map.proj.ProjectionFactory;
 import com.jhlabs.map.proj.Projection;
 import ika.geo.FlexProjectorModel;
 import ika.gui.ProjDistortionTable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.SwingWorker;
 
 /**
- *
+ * Fills the distortion table with the distortion parameters of the selected
+ * projections. Parameters of library projections are cached in a file by
+ * DistortionParametersCache.
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
 public class TableFiller extends SwingWorker {
@@ -35,31 +44,85 @@ public class TableFiller extends SwingWorker {
     }
     
     /**
-     * compute the distortion parameters for all supported projections
+     * compute the distortion parameters for all supported projections.
+     * Parameters are read from the cache if possible, otherwise they are 
+     * computed in parallel. The table is updated whenever a projection is 
+     * added.
      */
     private void initializeTable() {
-        List<String> projNames = ProjectionsManager.getSelectedProjectionNames();
-        for (String name : projNames) {
-            try {
-                Projection projection = ProjectionFactory.getNamedProjection(name);
-                projection.initialize();
-                QModel qModel = this.model.getDisplayModel().qModel;
-                ProjectionDistortionParameters params;
-                params = new ProjectionDistortionParameters(projection, qModel);
-                
-                synchronized (model.getDisplayModel().distParams) {
-                    model.getDisplayModel().distParams.add(params);
+        final DistortionParametersCache cache = DistortionParametersCache.load();
+        final QModel qModel = this.model.getDisplayModel().qModel;
+        final int nThreads = Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        final Map<String, Projection> projections = new LinkedHashMap<String, Projection>();
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            List<String> projNames = ProjectionsManager.getSelectedProjectionNames();
+            for (final String name : projNames) {
+                try {
+                    final Projection projection = ProjectionFactory.getNamedProjection(name);
+                    projection.initialize();
+                    projections.put(name, projection);
+                    ProjectionDistortionParameters params = cache.get(name, projection, qModel);
+                    if (params != null) {
+                        addParameters(params);
+                        continue;
+                    }
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                ProjectionDistortionParameters params;
+                                params = new ProjectionDistortionParameters(projection, qModel);
+                                cache.put(name, params);
+                                addParameters(params);
+                            } catch (Exception e) {
+                                System.err.println("Could not initialize " + name + " projection.");
+                                e.printStackTrace();
+                            }
+                        }
+                    }));
+                } catch (Exception e) {
+                    System.err.println("Could not initialize " + name + " projection.");
+                    e.printStackTrace();
+                }
+            }
+            
+            // wait for all computations
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
                 }
-                
-                // this will call process() in the Event Dispatch Thread to
-                // update the table.
-                this.publish();
-                
-            } catch (Exception e) {
-                System.err.println("Could not initialize " + name + " projection.");
-                e.printStackTrace();
             }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        try {
+            cache.store(projections);
+        } catch (Exception e) {
+            System.err.println("Could not write the distortion cache.");
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Adds distortion parameters to the table. This can be called by any 
+     * thread.
+     */
+    private void addParameters(ProjectionDistortionParameters params) {
+        synchronized (model.getDisplayModel().distParams) {
+            model.getDisplayModel().distParams.add(params);
         }
+
+        // this will call process() in the Event Dispatch Thread to
+        // update the table.
+        this.publish();
     }
     
     /**
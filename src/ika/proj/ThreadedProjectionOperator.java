@@ -0,0 +1,98 @@
+package ika.proj;
+
+import com.jhlabs.map.proj.Projection;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a loop over rows into chunks that are processed in parallel by a
+ * shared ForkJoinPool. Projections are not thread-safe, so every chunk
+ * receives its own clone of the projection. The clones are created by the
+ * calling thread before the work is distributed.
+ */
+public final class ThreadedProjectionOperator {
+
+    /**
+     * Operates on a range of rows.
+     */
+    public interface RowOperator {
+
+        /**
+         * Operate on rows startRow to endRow - 1. Different chunks are
+         * processed concurrently, so implementations must only write to
+         * locations that belong to their rows.
+         * @param projection A clone of the projection that is only used by
+         * this chunk.
+         * @param startRow The index of the first row.
+         * @param endRow The index after the last row.
+         */
+        public void operate(Projection projection, int startRow, int endRow);
+    }
+
+    /**
+     * The pool shared by all computations.
+     */
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+    private ThreadedProjectionOperator() {
+    }
+
+    /**
+     * Calls the operator for all rows and returns when all rows are done.
+     * An exception thrown by the operator is rethrown by this method.
+     * @param projection The projection to clone for each chunk. Must not be
+     * changed by another thread during this call.
+     * @param rows The number of rows.
+     * @param operator The operator.
+     */
+    public static void operate(Projection projection, int rows, RowOperator operator) {
+        if (rows <= 0) {
+            return;
+        }
+
+        // a few chunks per thread help balancing the load
+        final int chunks = Math.min(rows, POOL.getParallelism() * 2);
+        if (chunks <= 1) {
+            operator.operate((Projection) projection.clone(), 0, rows);
+            return;
+        }
+        final ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int startRow = (int) ((long) rows * i / chunks);
+            final int endRow = (int) ((long) rows * (i + 1) / chunks);
+            tasks.add(new RowTask((Projection) projection.clone(), startRow, endRow, operator));
+        }
+        POOL.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Task for a chunk of rows.
+     */
+    private static final class RowTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -3871960493812763385L;
+
+        private final Projection projection;
+        private final int startRow;
+        private final int endRow;
+        private final RowOperator operator;
+
+        RowTask(Projection projection, int startRow, int endRow, RowOperator operator) {
+            this.projection = projection;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.operator = operator;
+        }
+
+        @Override
+        protected void compute() {
+            operator.operate(projection, startRow, endRow);
+        }
+    }
+}
@@ -1,9 +1,9 @@
 package ika.utils;
 
-import Jama.Matrix;
-
 /**
  * A piecewise regular cubic spline.
+ * The knots and slopes must only be changed by one thread at a time. Other
+ * threads may evaluate the spline while it is changed.
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
 public class CubicSpline implements Cloneable {
@@ -14,9 +14,11 @@ public class CubicSpline implements Cloneable {
      */
     private double[] t;
     /**
-     * Spline coefficients for each spline segment.
+     * Spline coefficients for each spline segment. The coefficients are never
+     * changed in place. A new array is built and then assigned, so that a
+     * thread evaluating the spline sees either the old or the new curve.
      */
-    private double[][] abcd;
+    private volatile double[][] abcd;
     /**
      * Slope of the interpolated curve at the start in radians.
      * If startSlope is NaN, the second derivative at the start of the curve is
@@ -29,6 +31,20 @@ public class CubicSpline implements Cloneable {
      * to 0.
      */
     private double endSlope = Double.NaN;
+    /**
+     * Number of nested beginUpdate() calls without matching endUpdate().
+     */
+    private int updateLevel = 0;
+    /**
+     * True if the coefficients must be recomputed when the update ends.
+     */
+    private boolean updatePending = false;
+    /**
+     * Work arrays for the tridiagonal solver. Only used by the thread that
+     * changes the knots or slopes.
+     */
+    private double[] cPrime;
+    private double[] slopes;
 
     /**
      * Create a new instance of CubicSpline.
@@ -68,6 +84,8 @@ public class CubicSpline implements Cloneable {
             CubicSpline copy = (CubicSpline) super.clone();
             copy.t = (double[]) this.t.clone();
             copy.abcd = ika.utils.ArrayUtils.clone2DArray(this.abcd);
+            copy.cPrime = new double[this.t.length];
+            copy.slopes = new double[this.t.length];
             return copy;
         } catch (CloneNotSupportedException exc) {
             return null;
@@ -96,6 +114,43 @@ public class CubicSpline implements Cloneable {
         }
     }
 
+    /**
+     * Sets all knot values. The spline coefficients are computed once.
+     * @param knots The new knot values. The number of values must equal
+     * getKnotsCount().
+     */
+    public void setKnots(double[] knots) {
+        if (knots.length != this.t.length) {
+            throw new IllegalArgumentException("wrong number of knots");
+        }
+        System.arraycopy(knots, 0, this.t, 0, knots.length);
+        this.computeCubicSpline();
+    }
+
+    /**
+     * Starts a series of changes to the knots or slopes. The spline
+     * coefficients are not recomputed until the matching endUpdate() is
+     * called. In the meantime, the spline evaluates to the curve that was
+     * valid before beginUpdate() was called. Calls can be nested.
+     */
+    public void beginUpdate() {
+        this.updateLevel++;
+    }
+
+    /**
+     * Ends a series of changes started with beginUpdate(), and recomputes the
+     * spline coefficients if anything changed.
+     */
+    public void endUpdate() {
+        if (this.updateLevel == 0) {
+            throw new IllegalStateException("endUpdate without beginUpdate");
+        }
+        this.updateLevel--;
+        if (this.updateLevel == 0 && this.updatePending) {
+            this.computeCubicSpline();
+        }
+    }
+
     /**
      * Returns the knot value at position i. An exception is thrown if i is smaller
      * than 0 or equal or larger than getKnotsCount().
@@ -203,84 +258,85 @@ public class CubicSpline implements Cloneable {
     /**
      * Compute the spline coefficients for a cubic spline. Call this after every
      * change to the knots vector t or changes to the start or end slopes.
-     * The spline coefficients are computed with a system of linear
-     * equations. See http://mathworld.wolfram.com/CubicSpline.html
+     * The slopes at the knots are the solution of a tridiagonal system of
+     * linear equations, which is solved with the Thomas algorithm.
+     * See http://mathworld.wolfram.com/CubicSpline.html
      * The coefficients are a, b, c, d for Yi(t)=ai+bi*t+ci*t*t+di*t*t*t
      * and stored in this.abcd
      */
     private void computeCubicSpline() {
 
+        if (this.updateLevel > 0) {
+            this.updatePending = true;
+            return;
+        }
+        this.updatePending = false;
+
         // solve the system A * D = B
         // see http://mathworld.wolfram.com/CubicSpline.html
+        // A is tridiagonal with 1 on the sub- and super-diagonal and 4 on the
+        // main diagonal, except for the first and last rows.
 
         final int n = t.length;
         final int n_1 = n - 1;
+        if (this.cPrime == null) {
+            this.cPrime = new double[n];
+            this.slopes = new double[n];
+        }
+        final double[] c = this.cPrime;
+        final double[] d = this.slopes;
 
-        // setup matrix A
-        double[][] A = new double[n][n];
+        // first row
         if (Double.isNaN(startSlope)) {
             // the second derivative at the start is 0 if no start slope is provided
-            A[0][0] = 2;
-            A[0][1] = 1;
+            // 2 * D0 + D1 = 3 * (y1 - y0)
+            c[0] = 0.5;
+            d[0] = 1.5 * (t[1] - t[0]);
         } else {
             // use equation 7 of http://mathworld.wolfram.com/CubicSpline.html to fix
             // the start and end slopes
             // Y0'(0) = 0 -> 1 * D0 = b0 = 0
-            A[0][0] = 1;
+            c[0] = 0;
+            d[0] = startSlope;
         }
+
+        // forward sweep for the inner rows: Di-1 + 4 * Di + Di+1 = 3 * (yi+1 - yi-1)
         for (int i = 1; i < n_1; i++) {
-            A[i][i - 1] = 1;
-            A[i][i] = 4;
-            A[i][i + 1] = 1;
+            final double m = 1. / (4. - c[i - 1]);
+            c[i] = m;
+            d[i] = (3 * (t[i + 1] - t[i - 1]) - d[i - 1]) * m;
         }
+
+        // last row
         if (Double.isNaN(endSlope)) {
             // the second derivative at the end is 0 if no end slope is provided
-            A[n_1][n_1 - 1] = 1;
-            A[n_1][n_1] = 2;
+            // Dn-2 + 2 * Dn-1 = 3 * (yn-1 - yn-2)
+            d[n_1] = (3 * (t[n_1] - t[n_1 - 1]) - d[n_1 - 1]) / (2. - c[n_1 - 1]);
         } else {
-            A[n_1][n_1] = 1;
+            d[n_1] = endSlope;
         }
-        Matrix mat_a = new Matrix(A);
 
-        // setup matrix B, which is a vector
-        double[] B = new double[n];
-        if (Double.isNaN(startSlope)) {
-            B[0] = 3 * (t[1] - t[0]); // second derivate is 0
-        } else {
-            B[0] = startSlope; // slope at start
-        }
-        for (int i = 1; i < n_1; i++) {
-            B[i] = 3 * (t[i + 1] - t[i - 1]);
-        }
-        if (Double.isNaN(endSlope)) {
-            // the second derivative at the end is 0 if no end slope is provided
-            B[n_1] = 3 * (t[n_1] - t[n_1 - 1]);
-        } else {
-            B[n_1] = endSlope;
+        // back substitution
+        for (int i = n_1 - 1; i >= 0; i--) {
+            d[i] -= c[i] * d[i + 1];
         }
-        Matrix mat_b = new Matrix(B, n);
-        
-        // solve for D
-        Matrix mat_d = mat_a.inverse().times(mat_b);
-        // compute the spline coefficients a, b, c, d
-        double[][] D = mat_d.getArray();
 
         // a = yi
         // b = Di
         // c = 3(yi+1 - yi) - 2dDi - Di+1
         // d = 2(yi - yi+1) + dDi + Di+1 = -2(yi+1 - yi) + dDi + Di+1
-        final int coefCount = this.t.length - 1;
-        this.abcd = new double[coefCount][4];
-        for (int i = 0; i < coefCount; i++) {
-            final double di = D[i][0];
-            final double diplus1 = D[i + 1][0];
-            final double[] abcd_row = this.abcd[i];
+        final double[][] coefficients = new double[n_1][4];
+        for (int i = 0; i < n_1; i++) {
+            final double di = d[i];
+            final double diplus1 = d[i + 1];
+            final double[] abcd_row = coefficients[i];
             final double valDif = this.t[i + 1] - this.t[i];
             abcd_row[0] = this.t[i];
             abcd_row[1] = di;
             abcd_row[2] = 3 * valDif - 2 * di - diplus1;
             abcd_row[3] = -2 * valDif + di + diplus1;
         }
+        this.abcd = coefficients;
     }
 
     /**
@@ -303,12 +359,14 @@ public class CubicSpline implements Cloneable {
      * @return The value defined by the piecewise cubic spline at position x.
      */
     public final double eval(double x) {
+        final double[][] coefficients = this.abcd;
         int i = (int) x;
-        if (i >= this.abcd.length) {
-            i = this.abcd.length - 1;
+        if (i >= coefficients.length) {
+            i = coefficients.length - 1;
         }
+        final double[] abcd_row = coefficients[i];
         final double ti = x - i;
-        return eval(i, ti);
+        return abcd_row[0] + ti * (abcd_row[1] + ti * (abcd_row[2] + ti * abcd_row[3]));
     }
 
     /**
@@ -331,11 +389,13 @@ public class CubicSpline implements Cloneable {
      * @return The first derivative of the piecewise cubic spline at position x.
      */
     public final double firstDerivative(double x) {
+        final double[][] coefficients = this.abcd;
         int i = (int) x;
-        if (i >= this.abcd.length) {
-            i = this.abcd.length - 1;
+        if (i >= coefficients.length) {
+            i = coefficients.length - 1;
         }
+        final double[] abcd_row = coefficients[i];
         final double ti = x - i;
-        return firstDerivative(i, ti);
+        return abcd_row[1] + ti * (2. * abcd_row[2] + ti * 3. * abcd_row[3]);
     }
 }
\ No newline at end of file
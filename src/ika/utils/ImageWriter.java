@@ -27,7 +27,7 @@ public abstract class ImageWriter {
     /**
      * Counts the number of pixels written.
      */
-    private int pixelCounter = 0;
+    private long pixelCounter = 0;
 
     /** 
      * Creates a new instance of ImageWriter and writes the header.
@@ -53,7 +53,7 @@ public abstract class ImageWriter {
      */
     final public void write(int r, int g, int b) throws IOException {
 
-        final int maxPixels = this.cols * this.rows;
+        final long maxPixels = (long) this.cols * this.rows;
 
         if (this.pixelCounter < maxPixels)
             this.writeRGB(r, g, b);
@@ -76,7 +76,7 @@ public abstract class ImageWriter {
      */
     final public void write(int r, int g, int b, int a) throws IOException {
 
-        final int maxPixels = this.cols * this.rows;
+        final long maxPixels = (long) this.cols * this.rows;
 
         if (this.pixelCounter < maxPixels)
             this.writeRGB(r, g, b, a);
@@ -102,6 +102,23 @@ public abstract class ImageWriter {
         this.write(r, g, b, a);
         
     }
+
+    /**
+     * Write argb values to the file. This default implementation calls
+     * write(argb) for each value. The r, g, and b values must be
+     * premultiplied by the a value.
+     * @param argb rgba values packed in integers
+     * @param offset The index of the first value.
+     * @param length The number of values.
+     * @throws java.io.IOException
+     */
+    public void write(int[] argb, int offset, int length) throws java.io.IOException {
+
+        for (int i = offset; i < offset + length; i++) {
+            this.write(argb[i]);
+        }
+
+    }
     
     /**
      * Writes the file header. This is called by the constructor.
@@ -0,0 +1,130 @@
+package ika.utils;
+
+/**
+ * A dense table of values and first derivatives sampled from a CubicSpline.
+ * The table is evaluated by linear interpolation between samples, which
+ * avoids the segment lookup and polynomial evaluation of the spline.
+ * Up to rounding errors, the interpolation error is bounded by getErrorBound()
+ * for values and by getDerivativeErrorBound() for first derivatives. The
+ * table does not change when the spline changes; a new table must be created.
+ */
+public final class SplineTable {
+
+    /**
+     * Values of the spline at regular intervals.
+     */
+    private final double[] values;
+    /**
+     * First derivatives of the spline at the same positions as values.
+     */
+    private final double[] derivatives;
+    /**
+     * Number of samples per spline segment.
+     */
+    private final int samplesPerSegment;
+    /**
+     * Index of the last interval in the tables.
+     */
+    private final int lastInterval;
+    /**
+     * Maximum absolute error of interpolated values.
+     */
+    private final double errorBound;
+    /**
+     * Maximum absolute error of interpolated first derivatives.
+     */
+    private final double derivativeErrorBound;
+
+    /**
+     * Samples a spline.
+     * @param spline The spline to sample.
+     * @param samplesPerSegment The number of table intervals for each spline
+     * segment. Must be at least 1.
+     */
+    public SplineTable(CubicSpline spline, int samplesPerSegment) {
+        if (samplesPerSegment < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.samplesPerSegment = samplesPerSegment;
+        final int segments = spline.getKnotsCount() - 1;
+        final int n = segments * samplesPerSegment + 1;
+        values = new double[n];
+        derivatives = new double[n];
+        lastInterval = n - 2;
+
+        // the second derivative of a cubic segment is linear, the third
+        // derivative is constant. Find their maximum absolute values.
+        double maxSecondDer = 0;
+        double maxThirdDer = 0;
+        for (int i = 0; i < segments; i++) {
+            final double[] abcd = spline.getCoefficientsClone(i);
+            final double d2Start = 2. * abcd[2];
+            final double d2End = 2. * abcd[2] + 6. * abcd[3];
+            maxSecondDer = Math.max(maxSecondDer,
+                    Math.max(Math.abs(d2Start), Math.abs(d2End)));
+            maxThirdDer = Math.max(maxThirdDer, Math.abs(6. * abcd[3]));
+            for (int j = 0; j < samplesPerSegment; j++) {
+                final double t = (double) j / samplesPerSegment;
+                values[i * samplesPerSegment + j] = spline.eval(i, t);
+                derivatives[i * samplesPerSegment + j] = spline.firstDerivative(i, t);
+            }
+        }
+        values[n - 1] = spline.eval(segments - 1, 1.);
+        derivatives[n - 1] = spline.firstDerivative(segments - 1, 1.);
+
+        // error of linear interpolation: h * h / 8 * max|f''|
+        final double h = 1. / samplesPerSegment;
+        errorBound = h * h / 8. * maxSecondDer;
+        derivativeErrorBound = h * h / 8. * maxThirdDer;
+    }
+
+    /**
+     * Evaluates the table at position x.
+     * @param x The position in spline parameter units. Must be in
+     * [0..getKnotsCount()-1] of the sampled spline.
+     * @return The interpolated value.
+     */
+    public double eval(double x) {
+        final double p = x * samplesPerSegment;
+        int i = (int) p;
+        if (i > lastInterval) {
+            i = lastInterval;
+        }
+        final double v0 = values[i];
+        return v0 + (p - i) * (values[i + 1] - v0);
+    }
+
+    /**
+     * Evaluates the first derivative at position x.
+     * @param x The position in spline parameter units. Must be in
+     * [0..getKnotsCount()-1] of the sampled spline.
+     * @return The interpolated first derivative.
+     */
+    public double firstDerivative(double x) {
+        final double p = x * samplesPerSegment;
+        int i = (int) p;
+        if (i > lastInterval) {
+            i = lastInterval;
+        }
+        final double d0 = derivatives[i];
+        return d0 + (p - i) * (derivatives[i + 1] - d0);
+    }
+
+    /**
+     * Returns the maximum absolute difference between eval() and the
+     * sampled spline.
+     * @return The error bound.
+     */
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * Returns the maximum absolute difference between firstDerivative() and
+     * the first derivative of the sampled spline.
+     * @return The error bound.
+     */
+    public double getDerivativeErrorBound() {
+        return derivativeErrorBound;
+    }
+}
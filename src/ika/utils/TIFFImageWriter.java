@@ -1,19 +1,34 @@
+
 package ika.utils;
 
-import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * Writes TIFF rgb images. Can handle large images that do not fit into 
- * available memory.
+ * Writes TIFF rgba images. Can handle large images that do not fit into
+ * available memory. Pixels are collected in a strip or a row of tiles, which
+ * is written to the file channel in one call when it is complete.
+ * The image is stored in strips or tiles. BigTIFF is used for files larger
+ * than 4 GB. If the image is georeferenced, GeoTIFF tags are written.
+ * The layout and the georeferencing must be set before the first pixel is
+ * written.
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
 public class TIFFImageWriter extends ImageWriter {
 
     private static final short kTiffTypeUShort = 3;
     private static final short kTiffTypeULong = 4;
-    
+    private static final short kTiffTypeRational = 5;
+    private static final short kTiffTypeDouble = 12;
+    private static final short kTiffTypeULong8 = 16;
+
     // tag IDs
     private static final short tagImageWidth = 256;
     private static final short tagImageLength = 257;
@@ -27,26 +42,184 @@ public class TIFFImageWriter extends ImageWriter {
     private static final short tagXResolution = 282;
     private static final short tagYResolution = 283;
     private static final short tagResolutionUnit = 296;
+    private static final short tagTileWidth = 322;
+    private static final short tagTileLength = 323;
+    private static final short tagTileOffsets = 324;
+    private static final short tagTileByteCounts = 325;
     private static final short tagExtraSamples = 338;
 
-    /** Creates a new instance of TIFFWriter and writes the header
-    of the file.
+    // GeoTIFF tag IDs, larger than Short.MAX_VALUE
+    private static final short tagModelPixelScale = (short) 33550;
+    private static final short tagModelTiepoint = (short) 33922;
+    private static final short tagGeoKeyDirectory = (short) 34735;
+
+    // GeoTIFF keys
+    private static final int keyGTModelType = 1024;
+    private static final int keyGTRasterType = 1025;
+    private static final int keyProjectedCSType = 3072;
+    private static final int modelTypeProjected = 1;
+    private static final int rasterPixelIsArea = 1;
+    private static final int userDefined = 32767;
+
+    /** write 4 bytes per pixel: rgba */
+    private static final int CHANNEL_COUNT = 4;
+
+    /** the approximate size of a strip in bytes */
+    private static final int STRIP_BYTES = 1024 * 1024;
+
+    /** the largest offset of a standard TIFF file */
+    private static final long MAX_CLASSIC_OFFSET = 0xffffffffL;
+
+    /**
+     * A directory entry. Values of integer types are stored in values, values
+     * of type double in doubles.
+     */
+    private static final class Entry {
+
+        final short tag;
+        final short type;
+        final long[] values;
+        final double[] doubles;
+
+        Entry(short tag, short type, long... values) {
+            this.tag = tag;
+            this.type = type;
+            this.values = values;
+            this.doubles = null;
+        }
+
+        Entry(short tag, double... doubles) {
+            this.tag = tag;
+            this.type = kTiffTypeDouble;
+            this.values = null;
+            this.doubles = doubles;
+        }
+
+        /** the number of values as stored in the directory */
+        long count() {
+            if (doubles != null) {
+                return doubles.length;
+            }
+            return type == kTiffTypeRational ? values.length / 2 : values.length;
+        }
+
+        /** the size of the values in bytes */
+        long size() {
+            switch (type) {
+                case kTiffTypeUShort:
+                    return 2L * values.length;
+                case kTiffTypeULong:
+                    return 4L * values.length;
+                case kTiffTypeRational:
+                    return 4L * values.length;
+                default:
+                    return 8L * count();
+            }
+        }
+    }
+
+    /** The width and height of a tile, or 0 if the image is stored in strips. */
+    private int tileSize = 0;
+
+    /** True if a BigTIFF file is written, even if the file is small. */
+    private boolean forceBigTIFF = false;
+
+    /** Georeferencing written to GeoTIFF tags, or NaN if not georeferenced. */
+    private double west = Double.NaN, north = Double.NaN, cellSize = Double.NaN;
+
+    /** The file channel or a channel writing to the stream. */
+    private WritableByteChannel channel;
+
+    /**
+     * A strip, or a row of tiles with rows padded to a whole number of tiles.
+     */
+    private byte[] block;
+
+    /** The number of image rows in block. */
+    private int blockRows;
+
+    /** The number of bytes in a row of block. */
+    private int blockRowBytes;
+
+    /** A tile copied from block, only used for tiled images. */
+    private byte[] tile;
+
+    /** The position of the next pixel in block. */
+    private int blockPos = 0;
+
+    /** The column of the next pixel. */
+    private int col = 0;
+
+    /** The row of the next pixel in block. */
+    private int blockRow = 0;
+
+    /** The number of pixels written. */
+    private long pixelCount = 0;
+
+    /** True after the header has been written. */
+    private boolean headerWritten = false;
+
+    /** Creates a new instance of TIFFWriter. The header is written with the
+     * first pixel. Pass a FileOutputStream to write to its channel.
      */
     public TIFFImageWriter(OutputStream out, int cols, int rows)
             throws java.io.IOException {
-        
+
         super(out, cols, rows);
-        
+
+    }
+
+    /**
+     * Store the image in square tiles instead of strips.
+     * @param tileSize The width and height of a tile, a multiple of 16, or 0
+     * to store the image in strips.
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < 0 || tileSize % 16 != 0) {
+            throw new IllegalArgumentException("tile size must be a multiple of 16");
+        }
+        checkHeaderNotWritten();
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Write a BigTIFF file, even if the file is smaller than 4 GB. Files
+     * larger than 4 GB are always written in BigTIFF format.
+     */
+    public void setBigTIFF(boolean bigTIFF) {
+        checkHeaderNotWritten();
+        this.forceBigTIFF = bigTIFF;
+    }
+
+    /**
+     * Write GeoTIFF tags with the coordinates of the center of the top left
+     * pixel and the size of a pixel. These are the values of a world file.
+     * @param west Horizontal coordinate of the center of the top left pixel.
+     * @param north Vertical coordinate of the center of the top left pixel.
+     * @param cellSize The size of a pixel.
+     */
+    public void setGeoreference(double west, double north, double cellSize) {
+        checkHeaderNotWritten();
+        this.west = west;
+        this.north = north;
+        this.cellSize = cellSize;
+    }
+
+    private void checkHeaderNotWritten() {
+        if (headerWritten) {
+            throw new IllegalStateException("header already written");
+        }
     }
 
     @Override
     public void writeRGB(int r, int g, int b) throws IOException {
-        
-        this.out.write(r);
-        this.out.write(g);
-        this.out.write(b);
-        this.out.write(255);
-        
+
+        this.writeRGB(r, g, b, 255);
+
     }
 
     /**
@@ -60,17 +233,14 @@ public class TIFFImageWriter extends ImageWriter {
      */
     @Override
     protected void writeRGB(int r, int g, int b, int a) throws java.io.IOException {
-        
+
         // premultiplied rgb values must be smaller than a
         assert r <= a && g <= a && b <= a;
-        
-        this.out.write(r);
-        this.out.write(g);
-        this.out.write(b);
-        this.out.write(a);
-        
+
+        this.write(a << 24 | r << 16 | g << 8 | b);
+
     }
-    
+
     /**
      * Write an argb value to the file. The r, g, and b values must be
      * premultiplied by the a value.
@@ -80,150 +250,358 @@ public class TIFFImageWriter extends ImageWriter {
     @Override
     public void write(int argb) throws java.io.IOException {
 
-        // write single bytes, which is not slower than writing ints to a DataOutputStream.
-        out.write((argb >> 16) & 0xff);
-        out.write((argb >> 8) & 0xff);
-        out.write(argb & 0xff);
-        out.write((argb >> 24) & 0xff);
+        if (!headerWritten) {
+            writeTIFFHeader();
+        }
+        if (pixelCount == (long) cols * rows) {
+            return;
+        }
+
+        final byte[] b = block;
+        int pos = blockPos;
+        b[pos++] = (byte) (argb >> 16);
+        b[pos++] = (byte) (argb >> 8);
+        b[pos++] = (byte) argb;
+        b[pos++] = (byte) (argb >> 24);
+        blockPos = pos;
+        ++pixelCount;
+
+        if (++col == cols) {
+            endRow();
+        }
+
+    }
+
+    /**
+     * Write argb values to the file. The r, g, and b values must be
+     * premultiplied by the a value.
+     * @param argb rgba values packed in integers
+     * @param offset The index of the first value.
+     * @param length The number of values.
+     * @throws java.io.IOException
+     */
+    @Override
+    public void write(int[] argb, int offset, int length) throws IOException {
+
+        if (!headerWritten) {
+            writeTIFFHeader();
+        }
+        final long remaining = (long) cols * rows - pixelCount;
+        int end = offset + (int) Math.min(length, remaining);
+
+        while (offset < end) {
+            // copy the pixels up to the end of the current row
+            final int n = Math.min(end - offset, cols - col);
+            final byte[] b = block;
+            int pos = blockPos;
+            for (int i = offset; i < offset + n; i++) {
+                final int c = argb[i];
+                b[pos++] = (byte) (c >> 16);
+                b[pos++] = (byte) (c >> 8);
+                b[pos++] = (byte) c;
+                b[pos++] = (byte) (c >> 24);
+            }
+            blockPos = pos;
+            offset += n;
+            pixelCount += n;
+            col += n;
+            if (col == cols) {
+                endRow();
+            }
+        }
+
+    }
+
+    /**
+     * Moves to the next row after the last pixel of a row has been written.
+     * Writes the strip or the row of tiles if it is complete.
+     */
+    private void endRow() throws IOException {
+
+        col = 0;
+        ++blockRow;
+        blockPos = blockRow * blockRowBytes;
+        final boolean lastRow = pixelCount == (long) cols * rows;
+        if (blockRow == blockRows || lastRow) {
+            if (tileSize > 0) {
+                writeTiles();
+            } else {
+                writeFully(ByteBuffer.wrap(block, 0, blockPos));
+            }
+            blockRow = 0;
+            blockPos = 0;
+        }
+
+    }
+
+    /**
+     * Writes the tiles of a row of tiles. Rows below the last row of the
+     * image are filled with 0.
+     */
+    private void writeTiles() throws IOException {
+
+        if (blockRow < blockRows) {
+            Arrays.fill(block, blockPos, block.length, (byte) 0);
+        }
+        final int tileRowBytes = tileSize * CHANNEL_COUNT;
+        final ByteBuffer tileBuffer = ByteBuffer.wrap(tile);
+        for (int x = 0; x < blockRowBytes; x += tileRowBytes) {
+            for (int r = 0; r < tileSize; r++) {
+                System.arraycopy(block, r * blockRowBytes + x,
+                        tile, r * tileRowBytes, tileRowBytes);
+            }
+            tileBuffer.clear();
+            writeFully(tileBuffer);
+        }
+
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the channel.
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
 
     }
-    
+
+    /**
+     * The header is written with the first pixel, after the layout and the
+     * georeferencing have been set.
+     */
     @Override
     protected void writeHeader() throws IOException {
-    
-        DataOutputStream dout = new DataOutputStream(out);
-        
-        // the number of directory entries
-        final short TAG_COUNT = 13;
-        
-        // write 4 bytes per pixel: rgba
-        final int CHANNEL_COUNT = 4;
-        
-        final int kFileHeaderLength = 8;
-        final int kDirectoryHeaderLength = 2;
-        final int kDirEntryLength = 12;
-        final int kDirectoryFooterLength = 4;
-        int dataSectionPos = kFileHeaderLength +
-                kDirectoryHeaderLength +
-                kDirEntryLength * TAG_COUNT +
-                kDirectoryFooterLength;
-        
+    }
+
+    /**
+     * Writes the file header and the image file directory and allocates the
+     * buffer for pixels.
+     */
+    private void writeTIFFHeader() throws IOException {
+
+        headerWritten = true;
+
+        if (out instanceof FileOutputStream) {
+            channel = ((FileOutputStream) out).getChannel();
+        } else {
+            channel = Channels.newChannel(out);
+        }
+
+        // layout of pixels
+        final int chunkRows, chunkCount;
+        final long chunkBytes, lastChunkBytes;
+        final int tilesAcross;
+        if (tileSize > 0) {
+            tilesAcross = (cols + tileSize - 1) / tileSize;
+            final int tilesDown = (rows + tileSize - 1) / tileSize;
+            chunkRows = tileSize;
+            chunkCount = tilesAcross * tilesDown;
+            chunkBytes = (long) tileSize * tileSize * CHANNEL_COUNT;
+            lastChunkBytes = chunkBytes;
+        } else {
+            tilesAcross = 0;
+            chunkRows = Math.max(1, Math.min(rows, STRIP_BYTES / (cols * CHANNEL_COUNT)));
+            chunkCount = (rows + chunkRows - 1) / chunkRows;
+            chunkBytes = (long) chunkRows * cols * CHANNEL_COUNT;
+            lastChunkBytes = (long) (rows - (chunkCount - 1) * chunkRows) * cols * CHANNEL_COUNT;
+        }
+        final long[] offsets = new long[chunkCount];
+        final long[] byteCounts = new long[chunkCount];
+        Arrays.fill(byteCounts, chunkBytes);
+        byteCounts[chunkCount - 1] = lastChunkBytes;
+        final long pixelBytes = (chunkCount - 1) * chunkBytes + lastChunkBytes;
+
+        // use BigTIFF if offsets do not fit into 32 bit
+        boolean bigTIFF = forceBigTIFF;
+        ArrayList<Entry> entries = createEntries(bigTIFF, offsets, byteCounts, chunkRows);
+        long dataSectionPos = directorySize(entries, bigTIFF);
+        if (!bigTIFF && dataSectionPos + pixelBytes > MAX_CLASSIC_OFFSET) {
+            bigTIFF = true;
+            entries = createEntries(bigTIFF, offsets, byteCounts, chunkRows);
+            dataSectionPos = directorySize(entries, bigTIFF);
+        }
+        for (int i = 0; i < chunkCount; i++) {
+            offsets[i] = dataSectionPos + i * chunkBytes;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate((int) dataSectionPos);
+        header.order(ByteOrder.BIG_ENDIAN);
+
         // write file header
-        dout.write('M');
-        dout.write('M');
-        dout.write((byte)0);
-        dout.write('*');
-        dout.writeInt(8); // start of first (and only) IFD (image file directory)
+        header.put((byte) 'M');
+        header.put((byte) 'M');
+        if (bigTIFF) {
+            header.putShort((short) 43);
+            header.putShort((short) 8); // size of offsets
+            header.putShort((short) 0);
+            header.putLong(16); // start of first (and only) IFD (image file directory)
+        } else {
+            header.putShort((short) 42);
+            header.putInt(8); // start of first (and only) IFD (image file directory)
+        }
 
         // write directory header
-        dout.writeShort(TAG_COUNT);
-
-        // 1. image width: cols
-        this.write4ByteTag(this.cols, tagImageWidth, dout);
-
-        // 2. image length: rows
-        write4ByteTag(this.rows, tagImageLength, dout);
-
-        // 3. bits per sample
-        writeOffsetTag(dataSectionPos, CHANNEL_COUNT, tagBitsPerSample, false, dout);
-        dataSectionPos += CHANNEL_COUNT * 2;
-
-        // 4. compression
-        write2ByteTag((short)1, tagCompression, dout);	// no compression
-
-        // 5. photometric interpretation: the color space of the image data
-        write2ByteTag((short)2, tagPhotometricInterpretation, dout);
-
-        // 6. samples per pixel
-        write2ByteTag((short)CHANNEL_COUNT, tagSamplesPerPixel, dout);
-
-        // 7. rows per strip
-        write4ByteTag(this.rows, tagRowsPerStrip, dout);
-
-        // 8. strip byte counts
-        write4ByteTag(this.cols * this.rows * CHANNEL_COUNT, tagStripByteCounts, dout);
-
-        // 9. resolution in x direction
-        writeOffsetTag(dataSectionPos, 2, tagXResolution, true, dout);
-        dataSectionPos += 2 * 4;
-		
-	// 10 resolution in y direction
-	writeOffsetTag (dataSectionPos, 2, tagYResolution, true, dout);
-        dataSectionPos += 2 * 4;
-		
-	// 11 resolution unit
-	write2ByteTag ((short)2, tagResolutionUnit, dout);	// inch
-        
-        // 12 extra samples are transparency
-        write2ByteTag ((short)1, tagExtraSamples, dout);
-        
-        // 13 strip offsets: write the offset to the pixels after dataSectionPos
-        // is updated above
-        write4ByteTag(dataSectionPos, tagStripOffsets, dout);
-        
-        // Directory footer: end of last (and only) IDF
-        dout.writeInt(0);
-
-        // write data for tagBitsPerSample
-        for (int i = 0; i < CHANNEL_COUNT; i++)
-            dout.writeShort((short)8);
-        
-        // resolution in x and y direction
-        dout.writeInt(144);
-        dout.writeInt(1);
-        dout.writeInt(144);
-        dout.writeInt(1);
-        
+        final int inlineSize = bigTIFF ? 8 : 4;
+        final int entrySize = bigTIFF ? 20 : 12;
+        if (bigTIFF) {
+            header.putLong(entries.size());
+        } else {
+            header.putShort((short) entries.size());
+        }
+
+        // write directory entries, values that do not fit into an entry
+        // follow the directory
+        final int entriesPos = header.position();
+        long valuesPos = align(entriesPos + entries.size() * entrySize + inlineSize);
+        for (Entry entry : entries) {
+            header.putShort(entry.tag);
+            header.putShort(entry.type);
+            if (bigTIFF) {
+                header.putLong(entry.count());
+            } else {
+                header.putInt((int) entry.count());
+            }
+            final int valuePos = header.position();
+            if (entry.size() <= inlineSize) {
+                putValues(header, entry);
+            } else {
+                if (bigTIFF) {
+                    header.putLong(valuesPos);
+                } else {
+                    header.putInt((int) valuesPos);
+                }
+                final int entryEnd = header.position();
+                header.position((int) valuesPos);
+                putValues(header, entry);
+                valuesPos = align(header.position());
+                header.position(entryEnd);
+            }
+            // fill the unused bytes of the entry with 0
+            header.position(valuePos + inlineSize);
+        }
+
+        // directory footer: the offset of the next IFD is 0 for the last
+        // (and only) IFD
+
         // here follow the pixel values
+        header.position(0);
+        writeFully(header);
+
+        // allocate a buffer for a strip or a row of tiles
+        if (tileSize > 0) {
+            blockRowBytes = tilesAcross * tileSize * CHANNEL_COUNT;
+            tile = new byte[tileSize * tileSize * CHANNEL_COUNT];
+        } else {
+            blockRowBytes = cols * CHANNEL_COUNT;
+        }
+        blockRows = chunkRows;
+        block = new byte[blockRows * blockRowBytes];
 
     }
 
     /**
-     * writes a tiff tag consisting of four bytes
+     * Creates the entries of the image file directory, sorted by tag ID.
      */
-    void write4ByteTag(int i, short tagID, DataOutputStream dout) 
-            throws java.io.IOException {
-        
-        dout.writeShort(tagID);
-        dout.writeShort(kTiffTypeULong);
-        dout.writeInt(1);
-        dout.writeInt(i);
-        
+    private ArrayList<Entry> createEntries(boolean bigTIFF, long[] offsets,
+            long[] byteCounts, int rowsPerStrip) {
+
+        final short offsetType = bigTIFF ? kTiffTypeULong8 : kTiffTypeULong;
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        entries.add(new Entry(tagImageWidth, kTiffTypeULong, cols));
+        entries.add(new Entry(tagImageLength, kTiffTypeULong, rows));
+        entries.add(new Entry(tagBitsPerSample, kTiffTypeUShort, 8, 8, 8, 8));
+        entries.add(new Entry(tagCompression, kTiffTypeUShort, 1)); // no compression
+        // the color space of the image data
+        entries.add(new Entry(tagPhotometricInterpretation, kTiffTypeUShort, 2));
+        if (tileSize == 0) {
+            entries.add(new Entry(tagStripOffsets, offsetType, offsets));
+        }
+        entries.add(new Entry(tagSamplesPerPixel, kTiffTypeUShort, CHANNEL_COUNT));
+        if (tileSize == 0) {
+            entries.add(new Entry(tagRowsPerStrip, kTiffTypeULong, rowsPerStrip));
+            entries.add(new Entry(tagStripByteCounts, offsetType, byteCounts));
+        }
+        entries.add(new Entry(tagXResolution, kTiffTypeRational, 144, 1));
+        entries.add(new Entry(tagYResolution, kTiffTypeRational, 144, 1));
+        entries.add(new Entry(tagResolutionUnit, kTiffTypeUShort, 2)); // inch
+        if (tileSize > 0) {
+            entries.add(new Entry(tagTileWidth, kTiffTypeULong, tileSize));
+            entries.add(new Entry(tagTileLength, kTiffTypeULong, tileSize));
+            entries.add(new Entry(tagTileOffsets, offsetType, offsets));
+            entries.add(new Entry(tagTileByteCounts, offsetType, byteCounts));
+        }
+        // extra samples are transparency
+        entries.add(new Entry(tagExtraSamples, kTiffTypeUShort, 1));
+
+        if (!Double.isNaN(cellSize)) {
+            entries.add(new Entry(tagModelPixelScale, cellSize, cellSize, 0));
+            // the center of the top left pixel. Pixels are areas, so the
+            // center is at 0.5/0.5 in raster space.
+            entries.add(new Entry(tagModelTiepoint, 0.5, 0.5, 0, west, north, 0));
+            // version, revision, minor revision, number of keys, followed by
+            // key ID, location, count, value
+            entries.add(new Entry(tagGeoKeyDirectory, kTiffTypeUShort,
+                    1, 1, 0, 3,
+                    keyGTModelType, 0, 1, modelTypeProjected,
+                    keyGTRasterType, 0, 1, rasterPixelIsArea,
+                    keyProjectedCSType, 0, 1, userDefined));
+        }
+        return entries;
+
     }
 
     /**
-     * writes a tiff tag consisting of two bytes
-     */ 
-    void write2ByteTag(short s, short tagID, DataOutputStream dout) 
-            throws java.io.IOException {
-        
-        dout.writeShort(tagID);
-        dout.writeShort(kTiffTypeUShort);
-        dout.writeInt(1);
-        dout.writeShort(s);
-        dout.writeShort(0);	// filler
-        
+     * Returns the size of the file header, the directory and the values
+     * following the directory.
+     */
+    private static long directorySize(ArrayList<Entry> entries, boolean bigTIFF) {
+
+        final int inlineSize = bigTIFF ? 8 : 4;
+        long size = align(bigTIFF
+                ? 16 + 8 + entries.size() * 20 + 8
+                : 8 + 2 + entries.size() * 12 + 4);
+        for (Entry entry : entries) {
+            if (entry.size() > inlineSize) {
+                size = align(size + entry.size());
+            }
+        }
+        return size;
+
     }
 
     /**
-     * writes a tiff tag consisting of an offset to its data
+     * Values must start at word boundaries, use 8 bytes for doubles.
      */
-    void writeOffsetTag(int dataOffset, int nbrValues, short tagID,
-            boolean writeLong, DataOutputStream dout) throws java.io.IOException {
-        
-        dout.writeShort(tagID);
-        if (writeLong) {
-            dout.writeShort(kTiffTypeULong);
-        } else {
-            dout.writeShort(kTiffTypeUShort);
-        }
-        dout.writeInt(nbrValues);
-        
-        // data offset must be even number
-        assert dataOffset % 2 == 0;
-        
-        dout.writeInt(dataOffset);
-        
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    /**
+     * Writes the values of an entry.
+     */
+    private static void putValues(ByteBuffer buffer, Entry entry) {
+
+        if (entry.doubles != null) {
+            for (double d : entry.doubles) {
+                buffer.putDouble(d);
+            }
+            return;
+        }
+        for (long v : entry.values) {
+            switch (entry.type) {
+                case kTiffTypeUShort:
+                    buffer.putShort((short) v);
+                    break;
+                case kTiffTypeULong8:
+                    buffer.putLong(v);
+                    break;
+                default:
+                    buffer.putInt((int) v);
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,101 @@
+package ika.proj;
+
+import java.awt.geom.Point2D;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the initial guesses of InverseSeedIndex and compares the search of
+ * the inverse of a MeanProjection seeded with the index to the search seeded
+ * with the inverse of a mixed projection.
+ */
+public class InverseSeedIndexTest {
+
+    /**
+     * Largest acceptable distance between a guess and the exact longitude or
+     * latitude in degrees. The lattice has a distance of 5 degrees.
+     */
+    private static final double MAX_SEED_ERROR_DEG = 0.5;
+
+    /**
+     * A MeanProjection counting the number of projected points.
+     */
+    private static final class CountingMeanProjection extends MeanProjection {
+
+        private long evaluations = 0;
+
+        @Override
+        public Point2D.Double project(double lon, double lat, Point2D.Double dst) {
+            evaluations++;
+            return super.project(lon, lat, dst);
+        }
+    }
+
+    @Test
+    public void testSeedInsideGraticule() {
+        FlexProjection projection = new FlexProjection();
+        projection.initialize();
+        InverseSeedIndex index = new InverseSeedIndex(projection);
+        Point2D.Double xy = new Point2D.Double();
+        Point2D.Double lp = new Point2D.Double();
+        for (double lat = -89.5; lat <= 89.5; lat += 1.3) {
+            for (double lon = -179.5; lon <= 179.5; lon += 1.7) {
+                projection.project(Math.toRadians(lon), Math.toRadians(lat), xy);
+                assertTrue(index.seed(xy.x, xy.y, lp));
+                assertEquals(lon, Math.toDegrees(lp.x), MAX_SEED_ERROR_DEG);
+                assertEquals(lat, Math.toDegrees(lp.y), MAX_SEED_ERROR_DEG);
+            }
+        }
+    }
+
+    @Test
+    public void testNoSeedOutsideGraticule() {
+        FlexProjection projection = new FlexProjection();
+        projection.initialize();
+        InverseSeedIndex index = new InverseSeedIndex(projection);
+        Point2D.Double xy = new Point2D.Double();
+        projection.project(Math.PI, 0, xy);
+        final double maxX = xy.x;
+        Point2D.Double lp = new Point2D.Double(1, 1);
+        assertFalse(index.seed(1.5 * maxX, 0, lp));
+        assertFalse(index.seed(0.99 * maxX, maxX, lp));
+        assertEquals(1, lp.x, 0);
+        assertEquals(1, lp.y, 0);
+    }
+
+    /**
+     * Counts the points projected by binarySearchInverse() for the seeds of
+     * the index and for the seeds found with the inverse of the first mixed
+     * projection, which was used before the index was introduced.
+     */
+    @Test
+    public void testSeedReducesSearchEvaluations() {
+        CountingMeanProjection mean = new CountingMeanProjection();
+        mean.initialize();
+        Point2D.Double xy = new Point2D.Double();
+        Point2D.Double lp = new Point2D.Double();
+
+        // build the index
+        mean.projectInverse(0, 0, lp);
+
+        long seededEvaluations = 0;
+        long componentEvaluations = 0;
+        for (double lat = -87.5; lat <= 87.5; lat += 5) {
+            for (double lon = -177.5; lon <= 177.5; lon += 5) {
+                mean.project(Math.toRadians(lon), Math.toRadians(lat), xy);
+
+                mean.evaluations = 0;
+                mean.projectInverse(xy.x, xy.y, lp);
+                seededEvaluations += mean.evaluations;
+
+                mean.evaluations = 0;
+                mean.getProjection1().projectInverse(xy.x, xy.y, lp);
+                mean.binarySearchInverse(xy.x, xy.y, lp.x, lp.y, lp);
+                componentEvaluations += mean.evaluations;
+            }
+        }
+        assertTrue("seeded: " + seededEvaluations
+                + " component seed: " + componentEvaluations,
+                seededEvaluations <= componentEvaluations);
+    }
+}
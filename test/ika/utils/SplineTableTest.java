@@ -0,0 +1,120 @@
+package ika.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Samples SplineTables densely and compares them to the exact splines.
+ * The splines have the same number of knots as the splines of
+ * FlexProjectionModel.
+ */
+public class SplineTableTest {
+
+    /**
+     * Number of test positions per spline segment.
+     */
+    private static final int TEST_SAMPLES_PER_SEGMENT = 10000;
+
+    /**
+     * Tolerance for rounding errors.
+     */
+    private static final double EPS = 1e-12;
+
+    /**
+     * Robinson's relative length of parallels.
+     */
+    private static final double[] LENGTH = {
+        1, 0.9986, 0.9954, 0.99, 0.9822, 0.973, 0.96, 0.9427, 0.9216, 0.8962,
+        0.8679, 0.835, 0.7986, 0.7597, 0.7186, 0.6732, 0.6213, 0.5722, 0.5322
+    };
+
+    /**
+     * Robinson's relative distance of parallels from the equator.
+     */
+    private static final double[] DISTANCE = {
+        0, 0.062, 0.124, 0.186, 0.248, 0.31, 0.372, 0.434, 0.4958, 0.5571,
+        0.6176, 0.6769, 0.7346, 0.7903, 0.8435, 0.8936, 0.9394, 0.9761, 1
+    };
+
+    /**
+     * Bending of parallels.
+     */
+    private static final double[] BENDING = {
+        0, 0.02, -0.05, 0.1, 0.3, 0.25, 0.6, -0.4, 0.9, 1, 0.2, -1, 0.5, 0.1,
+        0, 0.7, -0.3, 0.4, 0
+    };
+
+    /**
+     * Horizontal distribution of meridians.
+     */
+    private static final double[] MERIDIANS = {
+        0, 0.1, -0.2, 0.5, -1, 1, 0, 0.3, 0.8, -0.6, 0.05, 0, 0.4
+    };
+
+    /**
+     * Densely samples the table and the spline and compares values and
+     * first derivatives to the error bounds of the table.
+     */
+    private static void assertWithinBounds(CubicSpline spline, double tableStep) {
+        int samplesPerSegment = (int) Math.round(1. / tableStep);
+        SplineTable table = new SplineTable(spline, samplesPerSegment);
+        double maxError = table.getErrorBound() + EPS;
+        double maxDerError = table.getDerivativeErrorBound() + EPS;
+        int segments = spline.getKnotsCount() - 1;
+        int n = segments * TEST_SAMPLES_PER_SEGMENT;
+        for (int i = 0; i <= n; i++) {
+            double x = (double) i / TEST_SAMPLES_PER_SEGMENT;
+            double v = spline.eval(x);
+            double d = spline.firstDerivative(x);
+            assertEquals("value at " + x, v, table.eval(x), maxError);
+            assertEquals("derivative at " + x, d, table.firstDerivative(x), maxDerError);
+        }
+    }
+
+    private static void assertWithinBounds(double[] knots) {
+        final double[] steps = {1, 0.5, 0.1, 1. / 500, 1. / 1500};
+        for (double step : steps) {
+            // natural spline
+            CubicSpline spline = new CubicSpline(knots);
+            assertWithinBounds(spline, step);
+
+            // clamped spline as used for the length of parallels
+            spline.setStartSlope(0);
+            spline.setEndSlope(-0.2);
+            assertWithinBounds(spline, step);
+        }
+    }
+
+    @Test
+    public void testLengthOfParallels() {
+        assertWithinBounds(LENGTH);
+    }
+
+    @Test
+    public void testDistanceOfParallels() {
+        assertWithinBounds(DISTANCE);
+    }
+
+    @Test
+    public void testBendingOfParallels() {
+        assertWithinBounds(BENDING);
+    }
+
+    @Test
+    public void testDistributionOfMeridians() {
+        assertWithinBounds(MERIDIANS);
+    }
+
+    @Test
+    public void testErrorBoundDecreasesQuadratically() {
+        CubicSpline spline = new CubicSpline(BENDING);
+        double coarse = new SplineTable(spline, 10).getErrorBound();
+        double fine = new SplineTable(spline, 100).getErrorBound();
+        assertEquals(coarse / 100., fine, 1e-15);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSamplesPerSegment() {
+        new SplineTable(new CubicSpline(LENGTH), 0);
+    }
+}